@@ -0,0 +1,148 @@
+package evan.wang.util;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.view.CircleImageView;
+
+/**
+ * 500个头像控件共用20张图片时的加载结果和耗时，以及取消后不再投递
+ */
+public class AvatarLoaderTest extends AndroidTestCase {
+    private static final String TAG = "AvatarLoader";
+    private static final int ROWS = 500;
+    private static final int IMAGES = 20;
+    private static final int SIZE = 120;
+
+    private File[] files;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        files = new File[IMAGES];
+        for (int i = 0; i < IMAGES; i++) {
+            files[i] = writeImage("avatar_" + i + ".jpg", 800 + i * 16, 600);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testLoadRowsAtViewSize() throws Exception {
+        final CircleImageView[] views = new CircleImageView[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            views[i] = create();
+        }
+        long start = SystemClock.uptimeMillis();
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ROWS; i++) {
+                    views[i].loadAvatar(Uri.fromFile(files[i % IMAGES]));
+                }
+            }
+        });
+        long deadline = start + 30000;
+        while (countLoaded(views) < ROWS && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(20);
+        }
+        Log.i(TAG, ROWS + " rows, " + IMAGES + " images loaded in " + (SystemClock.uptimeMillis() - start) + "ms");
+        assertEquals(ROWS, countLoaded(views));
+        for (int i = 0; i < ROWS; i++) {
+            Bitmap bitmap = bitmapOf(views[i]);
+            //按控件尺寸解码，同一张图片共用一个bitmap
+            assertEquals(SIZE, bitmap.getWidth());
+            assertEquals(SIZE, bitmap.getHeight());
+            assertSame(bitmapOf(views[i % IMAGES]), bitmap);
+        }
+    }
+
+    public void testCancelledViewIsNotUpdated() throws Exception {
+        final CircleImageView view = create();
+        final File file = writeImage("avatar_cancel.jpg", 1600, 1200);
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                view.loadAvatar(Uri.fromFile(file));
+                view.cancelAvatar();
+            }
+        });
+        SystemClock.sleep(1000);
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        assertNull(view.getDrawable());
+        file.delete();
+    }
+
+    private CircleImageView create() {
+        CircleImageView view = new CircleImageView(getContext());
+        view.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, SIZE, SIZE);
+        return view;
+    }
+
+    private static Bitmap bitmapOf(CircleImageView view) {
+        return view.getDrawable() instanceof BitmapDrawable ? ((BitmapDrawable) view.getDrawable()).getBitmap() : null;
+    }
+
+    private static int countLoaded(final CircleImageView[] views) throws InterruptedException {
+        final int[] count = new int[1];
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                for (CircleImageView view : views) {
+                    if (bitmapOf(view) != null) {
+                        count[0]++;
+                    }
+                }
+            }
+        });
+        return count[0];
+    }
+
+    private static void runOnMain(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        ClipExecutors.mainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private File writeImage(String name, int width, int height) throws IOException {
+        File file = new File(getContext().getCacheDir(), name);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(0xff336699);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,96 @@
+package evan.wang.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import evan.wang.core.Raster;
+
+/**
+ * 同一张图片分别解码为软件bitmap和硬件bitmap，比较Java堆和native堆的增长
+ * <p/>
+ * API 26以下只解码软件bitmap并输出结果。
+ */
+public class HardwareBitmapHeapTest extends AndroidTestCase {
+    private static final String TAG = "HardwareBitmapHeap";
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "hardware_bitmap.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(2000, 1500, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(0xff336699);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testHeapBySoftwareAndHardware() throws IOException {
+        measure(Bitmap.Config.ARGB_8888);
+        if (!BitmapConfigs.isHardwareSupported()) {
+            Log.i(TAG, "hardware bitmap requires API 26");
+            return;
+        }
+        Bitmap bitmap = measure(BitmapConfigs.forDisplay(Bitmap.Config.ARGB_8888, true));
+        assertTrue(BitmapConfigs.isHardware(bitmap));
+        //需要读取像素时复制为软件bitmap
+        Raster raster = RasterUtil.toRaster(bitmap);
+        assertEquals(bitmap.getWidth(), raster.getWidth());
+        assertEquals(bitmap.getHeight(), raster.getHeight());
+        bitmap.recycle();
+    }
+
+    /**
+     * 解码前后各做一次GC，输出两个堆的增长，返回解码的bitmap
+     */
+    private Bitmap measure(Bitmap.Config config) throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        gc();
+        long javaBefore = runtime.totalMemory() - runtime.freeMemory();
+        long nativeBefore = Debug.getNativeHeapAllocatedSize();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        Bitmap bitmap;
+        ImageSource source = ImageSource.open(getContext(), Uri.fromFile(file));
+        try {
+            bitmap = source.decode(options);
+        } finally {
+            source.close();
+        }
+        assertNotNull(bitmap);
+        gc();
+        long javaDelta = runtime.totalMemory() - runtime.freeMemory() - javaBefore;
+        long nativeDelta = Debug.getNativeHeapAllocatedSize() - nativeBefore;
+        Log.i(TAG, config + " " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                + " java=" + javaDelta / 1024 + "KB native=" + nativeDelta / 1024 + "KB");
+        if (!BitmapConfigs.isHardware(bitmap)) {
+            bitmap.recycle();
+        }
+        return bitmap;
+    }
+
+    private static void gc() {
+        Runtime.getRuntime().gc();
+        System.runFinalization();
+        Runtime.getRuntime().gc();
+    }
+}
@@ -0,0 +1,88 @@
+package evan.wang.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.media.ExifInterface;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import evan.wang.core.ImageHeader;
+
+/**
+ * 文件头解析与ExifInterface + inJustDecodeBounds的结果对比和耗时
+ */
+public class ImageHeaderComparisonTest extends AndroidTestCase {
+    private static final String TAG = "ImageHeaderComparison";
+    private static final int ROUNDS = 200;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "header_test.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(1600, 1200, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_ROTATE_90));
+        exif.saveAttributes();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testMatchesPlatformAndLogsTiming() throws IOException {
+        String path = file.getAbsolutePath();
+        ImageHeader header = readHeader(path);
+        BitmapFactory.Options options = decodeBounds(path);
+        assertEquals(options.outWidth, header.getWidth());
+        assertEquals(options.outHeight, header.getHeight());
+        assertEquals(new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, 0),
+                header.getOrientation());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            decodeBounds(path);
+            new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, 0);
+        }
+        long platform = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            readHeader(path);
+        }
+        long parser = System.nanoTime() - start;
+        Log.i(TAG, "ExifInterface + inJustDecodeBounds: " + platform / 1000 / ROUNDS + "us, ImageHeader: "
+                + parser / 1000 / ROUNDS + "us");
+    }
+
+    private static BitmapFactory.Options decodeBounds(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        return options;
+    }
+
+    private static ImageHeader readHeader(String path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            return ImageHeader.read(file.getChannel());
+        } finally {
+            file.close();
+        }
+    }
+}
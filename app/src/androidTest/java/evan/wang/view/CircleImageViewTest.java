@@ -0,0 +1,97 @@
+package evan.wang.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+
+import evan.wang.util.AvatarCache;
+
+/**
+ * 预渲染头像的缓存命中，反复绑定时shader和头像的复用，以及绑定的耗时
+ */
+public class CircleImageViewTest extends AndroidTestCase {
+    private static final String TAG = "CircleImageView";
+    private static final int SIZE = 160;
+    private static final int ROUNDS = 500;
+
+    public void testPrerenderSharesAvatar() {
+        Bitmap bitmap = Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        AvatarCache cache = AvatarCache.getInstance();
+        int before = cache.size();
+
+        CircleImageView first = create(true);
+        first.setImageBitmap(bitmap);
+        CircleImageView second = create(true);
+        second.setImageBitmap(bitmap);
+        //同一张图片、同样的尺寸和边框只画一次
+        assertEquals(before + SIZE * SIZE * 4, cache.size());
+
+        second.setBorderColor(Color.RED);
+        assertEquals(before + SIZE * SIZE * 4 * 2, cache.size());
+
+        //原图内容变化后不再命中旧的头像
+        bitmap.eraseColor(Color.WHITE);
+        first.setImageBitmap(bitmap);
+        assertEquals(before + SIZE * SIZE * 4 * 3, cache.size());
+        bitmap.recycle();
+    }
+
+    public void testRebindReusesShaderAndAvatar() {
+        Bitmap[] bitmaps = new Bitmap[8];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = Bitmap.createBitmap(400, 400, Bitmap.Config.ARGB_8888);
+            bitmaps[i].eraseColor(0xff000000 | i * 0x201008);
+        }
+        //不预渲染时，同一张图片反复绑定复用同一个shader，换图片后才创建新的
+        CircleImageView plain = create(false);
+        plain.setImageBitmap(bitmaps[0]);
+        BitmapShader shader = plain.getBitmapShader();
+        assertNotNull(shader);
+        assertNull(plain.getAvatar());
+        plain.setImageBitmap(bitmaps[0]);
+        plain.setPadding(0, 0, 0, 0);
+        assertSame(shader, plain.getBitmapShader());
+        plain.setImageBitmap(bitmaps[1]);
+        assertNotSame(shader, plain.getBitmapShader());
+
+        //预渲染时，同一张图片和尺寸反复绑定命中缓存中的同一个头像，不再重画
+        AvatarCache cache = AvatarCache.getInstance();
+        CircleImageView prerendered = create(true);
+        prerendered.setImageBitmap(bitmaps[0]);
+        Bitmap avatar = prerendered.getAvatar();
+        assertNotNull(avatar);
+        int size = cache.size();
+        for (int i = 0; i < ROUNDS; i++) {
+            prerendered.setImageBitmap(bitmaps[0]);
+            assertSame(avatar, prerendered.getAvatar());
+        }
+        assertEquals(size, cache.size());
+
+        for (boolean prerender : new boolean[]{false, true}) {
+            CircleImageView view = create(prerender);
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                view.setImageBitmap(bitmaps[i % bitmaps.length]);
+            }
+            Log.i(TAG, "prerender=" + prerender + " bind "
+                    + (System.nanoTime() - start) / 1000 / ROUNDS + "us");
+        }
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+    }
+
+    private CircleImageView create(boolean prerender) {
+        CircleImageView view = new CircleImageView(getContext());
+        view.setPrerender(prerender);
+        view.setBorderWidth(4);
+        view.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, SIZE, SIZE);
+        return view;
+    }
+}
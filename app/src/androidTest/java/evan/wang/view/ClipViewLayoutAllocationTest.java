@@ -0,0 +1,158 @@
+package evan.wang.view;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 手势过程中ClipViewLayout.onTouchEvent不应分配对象
+ * <p/>
+ * 图片通过setImageSrc加载，TransformModel的内容尺寸和缩放范围与实际使用时一致，手势会经过边界和缩放限制的计算。
+ */
+public class ClipViewLayoutAllocationTest extends AndroidTestCase {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int MOVE_COUNT = 120;
+
+    private ClipViewLayout layout;
+    private File file;
+    private long downTime;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        layout = new ClipViewLayout(getContext());
+        layout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        layout.layout(0, 0, WIDTH, HEIGHT);
+        file = writeImage(1600, 1200);
+        awaitReady(Uri.fromFile(file));
+        downTime = SystemClock.uptimeMillis();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testDragDoesNotAllocate() {
+        MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 500, 900, 0);
+        MotionEvent[] moves = new MotionEvent[MOVE_COUNT];
+        for (int i = 0; i < MOVE_COUNT; i++) {
+            moves[i] = MotionEvent.obtain(downTime, downTime + i * 8, MotionEvent.ACTION_MOVE,
+                    500 + i * 3, 900 + i * 2, 0);
+        }
+        layout.onTouchEvent(down);
+        assertNoAllocations(moves);
+        down.recycle();
+        recycle(moves);
+    }
+
+    public void testPinchDoesNotAllocate() {
+        MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 400, 900, 0);
+        MotionEvent pointerDown = twoFingers(MotionEvent.ACTION_POINTER_DOWN
+                | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 0, 300);
+        MotionEvent[] moves = new MotionEvent[MOVE_COUNT];
+        for (int i = 0; i < MOVE_COUNT; i++) {
+            //先放大再缩小，覆盖两个分支
+            int spread = i < MOVE_COUNT / 2 ? 300 + i * 6 : 300 + (MOVE_COUNT - i) * 6 - 200;
+            moves[i] = twoFingers(MotionEvent.ACTION_MOVE, i * 8, spread);
+        }
+        layout.onTouchEvent(down);
+        layout.onTouchEvent(pointerDown);
+        assertNoAllocations(moves);
+        down.recycle();
+        pointerDown.recycle();
+        recycle(moves);
+    }
+
+    /**
+     * 先预热一轮，之后统计回放事件期间当前线程分配的对象数
+     */
+    @SuppressWarnings("deprecation")
+    private void assertNoAllocations(MotionEvent[] moves) {
+        for (int i = 0; i < 4; i++) {
+            layout.onTouchEvent(moves[i]);
+        }
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (MotionEvent move : moves) {
+            layout.onTouchEvent(move);
+        }
+        Debug.stopAllocCounting();
+        assertEquals("allocations during " + moves.length + " move events", 0, Debug.getThreadAllocCount());
+    }
+
+    private void awaitReady(Uri uri) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(1);
+        final Throwable[] failure = new Throwable[1];
+        layout.setOnImageLoadListener(new ClipViewLayout.OnImageLoadListener() {
+            @Override
+            public void onLoading(Uri uri) {
+            }
+
+            @Override
+            public void onReady(Uri uri) {
+                ready.countDown();
+            }
+
+            @Override
+            public void onFailed(Uri uri, Throwable error) {
+                failure[0] = error;
+                ready.countDown();
+            }
+        });
+        layout.setImageSrc(uri);
+        assertTrue("image not ready", ready.await(10, TimeUnit.SECONDS));
+        assertNull("image failed: " + failure[0], failure[0]);
+        assertNotNull(layout.getDecodePlan());
+    }
+
+    private File writeImage(int width, int height) throws IOException {
+        File file = new File(getContext().getCacheDir(), "allocation_test.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(0xff336699);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private MotionEvent twoFingers(int action, long offset, float spread) {
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[2];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[2];
+        for (int i = 0; i < 2; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = WIDTH / 2 + (i == 0 ? -spread : spread) / 2;
+            coords[i].y = HEIGHT / 2;
+            coords[i].pressure = 1;
+            coords[i].size = 1;
+        }
+        return MotionEvent.obtain(downTime, downTime + offset, action, 2, properties, coords,
+                0, 0, 1, 1, 0, 0, 0, 0);
+    }
+
+    private static void recycle(MotionEvent[] events) {
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+    }
+}
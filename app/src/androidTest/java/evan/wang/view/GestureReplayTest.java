@@ -0,0 +1,189 @@
+package evan.wang.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.Uri;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.GestureTrace;
+
+/**
+ * 把clip-benchmark中记录的手势回放到ClipViewLayout.onTouchEvent，
+ * 统计每个事件的CPU时间、分配对象数和之后ClipView绘制一帧的耗时，输出分位数
+ * <p/>
+ * 与JVM上的GestureReplay使用同一份记录，裁剪框由ClipView按控件尺寸计算，与记录中的可能略有不同。
+ */
+public class GestureReplayTest extends AndroidTestCase {
+    private static final String TAG = "GestureReplay";
+    private static final String[] TRACES = {"drag", "fast_pinch", "pinch_out", "zoom_to_max"};
+    private static final int ROUNDS = 20;
+
+    public void testReplayTraces() throws Exception {
+        for (String name : TRACES) {
+            replay(load(name));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void replay(GestureTrace trace) throws Exception {
+        int width = trace.getViewWidth();
+        int height = trace.getViewHeight();
+        ClipViewLayout layout = new ClipViewLayout(getContext());
+        layout.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        layout.layout(0, 0, width, height);
+        File file = writeImage(trace.getContentWidth(), trace.getContentHeight());
+        awaitReady(layout, Uri.fromFile(file));
+        View clipView = findClipView(layout);
+        Bitmap frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(frame);
+
+        int count = trace.size() * ROUNDS;
+        long[] cpu = new long[count];
+        long[] draw = new long[count];
+        long[] allocations = new long[count];
+        long maxMoveAllocations = 0;
+        Debug.startAllocCounting();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < trace.size(); i++) {
+                MotionEvent event = obtain(trace, i);
+                int sample = round * trace.size() + i;
+                Debug.resetThreadAllocCount();
+                long start = Debug.threadCpuTimeNanos();
+                layout.onTouchEvent(event);
+                cpu[sample] = Debug.threadCpuTimeNanos() - start;
+                allocations[sample] = Debug.getThreadAllocCount();
+                if (trace.getAction(i) == GestureTrace.MOVE && round > 0) {
+                    maxMoveAllocations = Math.max(maxMoveAllocations, allocations[sample]);
+                }
+                event.recycle();
+                start = Debug.threadCpuTimeNanos();
+                clipView.draw(canvas);
+                draw[sample] = Debug.threadCpuTimeNanos() - start;
+            }
+        }
+        Debug.stopAllocCounting();
+        Log.i(TAG, trace.getName() + " events=" + trace.size() + " rounds=" + ROUNDS
+                + "\n  onTouchEvent cpu(ns) " + percentiles(cpu)
+                + "\n  onTouchEvent allocs  " + percentiles(allocations)
+                + "\n  ClipView.draw cpu(ns) " + percentiles(draw));
+        frame.recycle();
+        file.delete();
+        //第一轮之后，移动事件不应分配对象
+        assertEquals(trace.getName() + " move allocations", 0, maxMoveAllocations);
+    }
+
+    private void awaitReady(ClipViewLayout layout, Uri uri) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(1);
+        layout.setOnImageLoadListener(new ClipViewLayout.OnImageLoadListener() {
+            @Override
+            public void onLoading(Uri uri) {
+            }
+
+            @Override
+            public void onReady(Uri uri) {
+                ready.countDown();
+            }
+
+            @Override
+            public void onFailed(Uri uri, Throwable error) {
+                ready.countDown();
+            }
+        });
+        layout.setImageSrc(uri);
+        assertTrue("image not ready", ready.await(10, TimeUnit.SECONDS));
+    }
+
+    private File writeImage(int width, int height) throws IOException {
+        File file = new File(getContext().getCacheDir(), "gesture_replay.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(0xff336699);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static View findClipView(ClipViewLayout layout) {
+        for (int i = 0; i < layout.getChildCount(); i++) {
+            if (layout.getChildAt(i) instanceof ClipView) {
+                return layout.getChildAt(i);
+            }
+        }
+        throw new AssertionError("no ClipView");
+    }
+
+    /**
+     * 记录中的事件转为MotionEvent，第二根手指按下和抬起时带上指针序号
+     */
+    private static MotionEvent obtain(GestureTrace trace, int index) {
+        int action;
+        switch (trace.getAction(index)) {
+            case GestureTrace.DOWN:
+                action = MotionEvent.ACTION_DOWN;
+                break;
+            case GestureTrace.POINTER_DOWN:
+                action = MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+                break;
+            case GestureTrace.MOVE:
+                action = MotionEvent.ACTION_MOVE;
+                break;
+            case GestureTrace.POINTER_UP:
+                action = MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+                break;
+            default:
+                action = MotionEvent.ACTION_UP;
+                break;
+        }
+        int pointers = trace.getPointerCount(index);
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointers];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointers];
+        for (int i = 0; i < pointers; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = trace.getX(index, i);
+            coords[i].y = trace.getY(index, i);
+            coords[i].pressure = 1;
+            coords[i].size = 1;
+        }
+        return MotionEvent.obtain(0, trace.getTime(index), action, pointers, properties, coords,
+                0, 0, 1, 1, 0, 0, 0, 0);
+    }
+
+    private static String percentiles(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return "p50=" + sorted[sorted.length / 2] + " p90=" + sorted[(int) (sorted.length * 0.9)]
+                + " p99=" + sorted[(int) (sorted.length * 0.99)] + " max=" + sorted[sorted.length - 1];
+    }
+
+    private GestureTrace load(String name) throws IOException {
+        //clip-benchmark/src/main/resources作为androidTest的资源目录
+        InputStream in = getClass().getResourceAsStream("/traces/" + name + ".trace");
+        assertNotNull("no trace " + name, in);
+        try {
+            return GestureTrace.parse(name, new InputStreamReader(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+}
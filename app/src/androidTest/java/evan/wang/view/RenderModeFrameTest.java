@@ -0,0 +1,207 @@
+package evan.wang.view;
+
+import android.annotation.TargetApi;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.MotionEvent;
+import android.view.Window;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import evan.wang.ClipImageActivity;
+import evan.wang.R;
+import evan.wang.core.GestureTrace;
+
+/**
+ * 比较两种显示方式下手势过程中每一帧的耗时
+ * <p/>
+ * 在ClipImageActivity中把记录的手势注入窗口，用FrameMetrics（API 24）统计每一帧的绘制录制耗时和总耗时。
+ * MATRIX方式每个事件重新录制ImageView的绘制，VIEW_PROPERTIES方式只修改RenderNode的变换属性。
+ */
+public class RenderModeFrameTest extends ActivityInstrumentationTestCase2<ClipImageActivity> {
+    private static final String TAG = "RenderModeFrame";
+    private static final String[] TRACES = {"drag", "fast_pinch", "zoom_to_max"};
+    private static final int ROUNDS = 3;
+
+    private File file;
+
+    public RenderModeFrameTest() {
+        super(ClipImageActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getInstrumentation().getTargetContext().getCacheDir(), "render_mode.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(1500, 2000, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(0xff336699);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        Intent intent = new Intent();
+        intent.setData(Uri.fromFile(file));
+        intent.putExtra("type", 2);
+        setActivityIntent(intent);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testFrameCostByRenderMode() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            Log.i(TAG, "FrameMetrics requires API 24, skipped");
+            return;
+        }
+        final ClipViewLayout layout = (ClipViewLayout) getActivity().findViewById(R.id.clipViewLayout2);
+        long deadline = SystemClock.uptimeMillis() + 10000;
+        while (layout.getDecodePlan() == null && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(50);
+        }
+        assertNotNull("image not ready", layout.getDecodePlan());
+        //先显示的可能是预览图，等原图解码完成
+        SystemClock.sleep(1000);
+        getInstrumentation().waitForIdleSync();
+        for (String name : TRACES) {
+            GestureTrace trace = load(name);
+            for (final ClipViewLayout.RenderMode mode : ClipViewLayout.RenderMode.values()) {
+                getInstrumentation().runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        layout.setRenderMode(mode);
+                    }
+                });
+                getInstrumentation().waitForIdleSync();
+                FrameRecorder recorder = new FrameRecorder(getActivity().getWindow());
+                for (int round = 0; round < ROUNDS; round++) {
+                    replay(trace, layout);
+                }
+                recorder.stop();
+                Log.i(TAG, name + " " + mode + " frames=" + recorder.count
+                        + "\n  draw(ns)  " + percentiles(recorder.draw, recorder.count)
+                        + "\n  total(ns) " + percentiles(recorder.total, recorder.count));
+                assertTrue(name + " " + mode + " recorded no frames", recorder.count > 0);
+            }
+        }
+    }
+
+    /**
+     * 把记录中的坐标按比例换算到控件在屏幕上的位置后注入，每个事件等待UI线程空闲
+     */
+    private void replay(GestureTrace trace, ClipViewLayout layout) {
+        int[] location = new int[2];
+        layout.getLocationOnScreen(location);
+        float sx = (float) layout.getWidth() / trace.getViewWidth();
+        float sy = (float) layout.getHeight() / trace.getViewHeight();
+        Instrumentation instrumentation = getInstrumentation();
+        long downTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < trace.size(); i++) {
+            int pointers = trace.getPointerCount(i);
+            MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointers];
+            MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointers];
+            for (int p = 0; p < pointers; p++) {
+                properties[p] = new MotionEvent.PointerProperties();
+                properties[p].id = p;
+                properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+                coords[p] = new MotionEvent.PointerCoords();
+                coords[p].x = location[0] + trace.getX(i, p) * sx;
+                coords[p].y = location[1] + trace.getY(i, p) * sy;
+                coords[p].pressure = 1;
+                coords[p].size = 1;
+            }
+            MotionEvent event = MotionEvent.obtain(downTime, downTime + trace.getTime(i), toAction(trace.getAction(i)),
+                    pointers, properties, coords, 0, 0, 1, 1, 0, 0, 0, 0);
+            instrumentation.sendPointerSync(event);
+            event.recycle();
+        }
+    }
+
+    private static int toAction(int action) {
+        switch (action) {
+            case GestureTrace.DOWN:
+                return MotionEvent.ACTION_DOWN;
+            case GestureTrace.POINTER_DOWN:
+                return MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+            case GestureTrace.MOVE:
+                return MotionEvent.ACTION_MOVE;
+            case GestureTrace.POINTER_UP:
+                return MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+            default:
+                return MotionEvent.ACTION_UP;
+        }
+    }
+
+    private static String percentiles(long[] samples, int count) {
+        if (count == 0) {
+            return "-";
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return "p50=" + sorted[count / 2] + " p90=" + sorted[(int) (count * 0.9)]
+                + " p99=" + sorted[(int) (count * 0.99)] + " max=" + sorted[count - 1];
+    }
+
+    private GestureTrace load(String name) throws IOException {
+        InputStream in = getClass().getResourceAsStream("/traces/" + name + ".trace");
+        assertNotNull("no trace " + name, in);
+        try {
+            return GestureTrace.parse(name, new InputStreamReader(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 在后台线程接收窗口每一帧的FrameMetrics
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private static class FrameRecorder implements Window.OnFrameMetricsAvailableListener {
+        private final Window window;
+        private final HandlerThread thread = new HandlerThread("frame-metrics");
+        final long[] draw = new long[4096];
+        final long[] total = new long[4096];
+        volatile int count;
+
+        FrameRecorder(Window window) {
+            this.window = window;
+            thread.start();
+            window.addOnFrameMetricsAvailableListener(this, new Handler(thread.getLooper()));
+        }
+
+        @Override
+        public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+            if (count < draw.length) {
+                draw[count] = frameMetrics.getMetric(FrameMetrics.DRAW_DURATION);
+                total[count] = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+                count++;
+            }
+        }
+
+        void stop() {
+            //等待最后几帧的统计投递完
+            SystemClock.sleep(200);
+            window.removeOnFrameMetricsAvailableListener(this);
+            thread.quit();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package evan.wang;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -11,9 +12,10 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
 
+import evan.wang.util.BitmapCache;
+import evan.wang.util.ClipMetrics;
+import evan.wang.util.ImageEncoder;
 import evan.wang.view.ClipViewLayout;
 
 /**
@@ -21,6 +23,18 @@ import evan.wang.view.ClipViewLayout;
  */
 public class ClipImageActivity extends AppCompatActivity implements View.OnClickListener {
     private static final String TAG = "ClipImageActivity";
+    //输出格式，取值为Bitmap.CompressFormat的名称：JPEG, PNG, WEBP
+    public static final String EXTRA_OUTPUT_FORMAT = "output_format";
+    //输出质量0-100，返回结果中为最终使用的质量
+    public static final String EXTRA_OUTPUT_QUALITY = "output_quality";
+    //输出字节数上限，超出时自动降低质量
+    public static final String EXTRA_OUTPUT_MAX_BYTES = "output_max_bytes";
+    //返回结果：编码耗时（毫秒）
+    public static final String EXTRA_ENCODE_TIME_MS = "encode_time_ms";
+    //返回结果：输出文件字节数
+    public static final String EXTRA_OUTPUT_BYTES = "output_bytes";
+    //返回结果：输出是否满足字节数上限，最低质量仍超出时为false
+    public static final String EXTRA_OUTPUT_WITHIN_BUDGET = "output_within_budget";
     private ClipViewLayout clipViewLayout1;
     private ClipViewLayout clipViewLayout2;
     private ImageView back;
@@ -88,42 +102,89 @@ public class ClipImageActivity extends AppCompatActivity implements View.OnClick
 
     /**
      * 生成Uri并且通过setResult返回给打开的activity
+     * 编码在后台线程执行，按传入的格式、质量和字节数上限直接写入输出文件
      */
     private void generateUriAndReturn() {
-        //调用返回剪切图
-        Bitmap zoomedCropBitmap;
-        if (type == 1) {
-            zoomedCropBitmap = clipViewLayout1.clip();
-        } else {
-            zoomedCropBitmap = clipViewLayout2.clip();
-        }
-        if (zoomedCropBitmap == null) {
-            Log.e("android", "zoomedCropBitmap == null");
-            return;
-        }
-        Uri mSaveUri = Uri.fromFile(new File(getCacheDir(), "cropped_" + System.currentTimeMillis() + ".jpg"));
-        if (mSaveUri != null) {
-            OutputStream outputStream = null;
-            try {
-                outputStream = getContentResolver().openOutputStream(mSaveUri);
-                if (outputStream != null) {
-                    zoomedCropBitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        //裁剪和编码完成前不允许重复提交
+        btnOk.setEnabled(false);
+        //区域解码和缩放在后台线程执行，大图不会阻塞UI线程
+        ClipViewLayout clipViewLayout = type == 1 ? clipViewLayout1 : clipViewLayout2;
+        clipViewLayout.clip(new ClipViewLayout.OnClipListener() {
+            @Override
+            public void onClipped(Bitmap bitmap) {
+                if (isFinishingOrDestroyed()) {
+                    return;
+                }
+                encodeAndReturn(bitmap);
+            }
+
+            @Override
+            public void onClipFailed(Throwable error) {
+                Log.e("android", "clip failed", error);
+                btnOk.setEnabled(true);
+            }
+        });
+    }
+
+    /**
+     * 编码剪切图并返回
+     */
+    private void encodeAndReturn(final Bitmap zoomedCropBitmap) {
+        ImageEncoder.Spec spec = new ImageEncoder.Spec()
+                .setFormat(getOutputFormat())
+                .setQuality(getIntent().getIntExtra(EXTRA_OUTPUT_QUALITY, 90))
+                .setMaxBytes(getIntent().getLongExtra(EXTRA_OUTPUT_MAX_BYTES, 0));
+        Uri mSaveUri = Uri.fromFile(new File(getCacheDir(), "cropped_" + System.currentTimeMillis() + spec.getExtension()));
+        ImageEncoder.encodeAsync(this, zoomedCropBitmap, mSaveUri, spec, new ImageEncoder.Callback() {
+            @Override
+            public void onEncoded(ImageEncoder.Result result) {
+                //编码期间界面已经关闭，不再返回结果
+                if (isFinishingOrDestroyed()) {
+                    return;
                 }
-            } catch (IOException ex) {
-                Log.e("android", "Cannot open file: " + mSaveUri, ex);
-            } finally {
-                if (outputStream != null) {
-                    try {
-                        outputStream.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                if (ClipMetrics.isEventEnabled()) {
+                    ClipMetrics.event(TAG, "encoded " + result.bytes + " bytes in " + result.encodeTimeMs
+                            + "ms, quality " + result.quality);
                 }
+                //放入缓存，返回主界面显示时不需要再从文件解码
+                BitmapCache.getInstance().put(BitmapCache.key(result.uri, 1, zoomedCropBitmap.getConfig()), zoomedCropBitmap);
+                Intent intent = new Intent();
+                intent.setData(result.uri);
+                intent.putExtra(EXTRA_ENCODE_TIME_MS, result.encodeTimeMs);
+                intent.putExtra(EXTRA_OUTPUT_BYTES, result.bytes);
+                intent.putExtra(EXTRA_OUTPUT_QUALITY, result.quality);
+                intent.putExtra(EXTRA_OUTPUT_WITHIN_BUDGET, result.withinBudget);
+                setResult(RESULT_OK, intent);
+                finish();
+            }
+
+            @Override
+            public void onEncodeFailed(Throwable error) {
+                Log.e("android", "Cannot encode cropped image", error);
+                btnOk.setEnabled(true);
+            }
+        });
+    }
+
+    private boolean isFinishingOrDestroyed() {
+        if (isFinishing()) {
+            return true;
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && isDestroyed();
+    }
+
+    /**
+     * 输出格式，默认JPEG
+     */
+    private Bitmap.CompressFormat getOutputFormat() {
+        String format = getIntent().getStringExtra(EXTRA_OUTPUT_FORMAT);
+        if (format != null) {
+            try {
+                return Bitmap.CompressFormat.valueOf(format);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown output format: " + format);
             }
-            Intent intent = new Intent();
-            intent.setData(mSaveUri);
-            setResult(RESULT_OK, intent);
-            finish();
         }
+        return Bitmap.CompressFormat.JPEG;
     }
 }
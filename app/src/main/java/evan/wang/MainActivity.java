@@ -3,8 +3,6 @@ package evan.wang;
 import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -14,7 +12,6 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.FileProvider;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -27,11 +24,13 @@ import android.widget.TextView;
 
 import java.io.File;
 
+import evan.wang.util.AvatarCache;
+import evan.wang.util.AvatarLoader;
+import evan.wang.util.BitmapCache;
+import evan.wang.util.ClipMetrics;
 import evan.wang.util.FileUtil;
 import evan.wang.view.CircleImageView;
 
-import static evan.wang.util.FileUtil.getRealFilePathFromUri;
-
 
 /**
  * 主界面
@@ -47,6 +46,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private static final int READ_EXTERNAL_STORAGE_REQUEST_CODE = 103;
     //请求写入外部存储
     private static final int WRITE_EXTERNAL_STORAGE_REQUEST_CODE = 104;
+    //头像上传的大小上限
+    private static final long AVATAR_MAX_BYTES = 200 * 1024;
     //头像1
     private CircleImageView headImage1;
     //头像2
@@ -182,7 +183,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
      * 跳转到相册
      */
     private void gotoPhoto() {
-        Log.d("evan", "*****************打开图库********************");
+        ClipMetrics.event("evan", "*****************打开图库********************");
         //跳转到调用系统图库
         Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
         startActivityForResult(Intent.createChooser(intent, "请选择图片"), REQUEST_PICK);
@@ -193,7 +194,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
      * 跳转到照相机
      */
     private void gotoCamera() {
-        Log.d("evan", "*****************打开相机********************");
+        ClipMetrics.event("evan", "*****************打开相机********************");
         //创建拍照存储的图片文件
         tempFile = new File(FileUtil.checkDirPath(Environment.getExternalStorageDirectory().getPath() + "/image/"), System.currentTimeMillis() + ".jpg");
 
@@ -231,14 +232,17 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     if (uri == null) {
                         return;
                     }
-                    String cropImagePath = getRealFilePathFromUri(getApplicationContext(), uri);
-                    Bitmap bitMap = BitmapFactory.decodeFile(cropImagePath);
+                    if (ClipMetrics.isEventEnabled()) {
+                        ClipMetrics.event("evan", "crop encoded " + intent.getLongExtra(ClipImageActivity.EXTRA_OUTPUT_BYTES, 0)
+                                + " bytes in " + intent.getLongExtra(ClipImageActivity.EXTRA_ENCODE_TIME_MS, 0) + "ms");
+                    }
+                    //按头像控件的尺寸在后台解码，裁剪界面放入缓存的结果直接缩放，缓存被淘汰时才从文件解码
                     if (type == 1) {
-                        headImage1.setImageBitmap(bitMap);
+                        headImage1.loadAvatar(uri);
                     } else {
-                        headImage2.setImageBitmap(bitMap);
+                        AvatarLoader.getInstance(this).load(uri, headImage2);
                     }
-                    //此处后面可以将bitMap转为二进制上传后台网络
+                    //此处后面可以将uri对应的裁剪结果文件上传后台网络
                     //......
 
                 }
@@ -247,6 +251,14 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     }
 
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapCache.getInstance().trimMemory(level);
+        AvatarCache.getInstance().trimMemory(level);
+    }
+
+
     /**
      * 打开截图界面
      */
@@ -257,6 +269,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         Intent intent = new Intent();
         intent.setClass(this, ClipImageActivity.class);
         intent.putExtra("type", type);
+        intent.putExtra(ClipImageActivity.EXTRA_OUTPUT_MAX_BYTES, AVATAR_MAX_BYTES);
         intent.setData(uri);
         startActivityForResult(intent, REQUEST_CROP_PHOTO);
     }
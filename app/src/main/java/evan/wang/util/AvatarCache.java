@@ -0,0 +1,154 @@
+package evan.wang.util;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * 预先画好的圆形头像缓存
+ * <p/>
+ * 进程内共享，key由原图、头像边长以及边框和填充参数组成，按bitmap占用的字节数做LRU淘汰。
+ * 列表中同一张头像反复绑定时直接画缓存的圆形bitmap，不再创建BitmapShader。
+ * <p/>
+ * 缓存中的key只弱引用原图，原图被回收后对应的项不会再命中，随LRU淘汰。
+ * 缓存中的bitmap可能正在显示，使用者不能回收。
+ */
+public class AvatarCache {
+
+    private static AvatarCache sInstance;
+
+    private final LruCache<Key, Bitmap> cache;
+
+    /**
+     * 进程内共享的缓存，大小为最大可用内存的1/32
+     */
+    public static synchronized AvatarCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new AvatarCache((int) (Runtime.getRuntime().maxMemory() / 32));
+        }
+        return sInstance;
+    }
+
+    public AvatarCache(int maxBytes) {
+        cache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return BitmapPool.getBitmapBytes(value);
+            }
+        };
+    }
+
+    /**
+     * 查找时可以反复使用同一个key，命中时不分配对象
+     */
+    public Bitmap get(Key key) {
+        Bitmap avatar = cache.get(key);
+        if (avatar != null && avatar.isRecycled()) {
+            cache.remove(key);
+            return null;
+        }
+        return avatar;
+    }
+
+    /**
+     * 放入时复制key，缓存中只保留原图的弱引用
+     */
+    public void put(Key key, Bitmap avatar) {
+        if (key == null || avatar == null || key.getSource() == null) {
+            return;
+        }
+        cache.put(key.copy(), avatar);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * 内存紧张时释放缓存，在onTrimMemory中调用
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * 头像缓存key，原图按对象比较，内容变化后generationId不同，不会命中旧的头像
+     */
+    public static final class Key {
+        private Bitmap source;
+        private WeakReference<Bitmap> sourceRef;
+        private int generationId;
+        private int size;
+        private int borderWidth;
+        private int borderColor;
+        private int fillColor;
+        private boolean borderOverlay;
+        private int hash;
+
+        public Key set(Bitmap source, int size, int borderWidth, int borderColor, int fillColor, boolean borderOverlay) {
+            this.source = source;
+            this.sourceRef = null;
+            this.generationId = source.getGenerationId();
+            this.size = size;
+            this.borderWidth = borderWidth;
+            this.borderColor = borderColor;
+            this.fillColor = fillColor;
+            this.borderOverlay = borderOverlay;
+            int h = System.identityHashCode(source);
+            h = 31 * h + generationId;
+            h = 31 * h + size;
+            h = 31 * h + borderWidth;
+            h = 31 * h + borderColor;
+            h = 31 * h + fillColor;
+            hash = 31 * h + (borderOverlay ? 1 : 0);
+            return this;
+        }
+
+        Bitmap getSource() {
+            return source != null ? source : sourceRef.get();
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.sourceRef = new WeakReference<Bitmap>(getSource());
+            key.generationId = generationId;
+            key.size = size;
+            key.borderWidth = borderWidth;
+            key.borderColor = borderColor;
+            key.fillColor = fillColor;
+            key.borderOverlay = borderOverlay;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            Bitmap bitmap = getSource();
+            return bitmap != null && bitmap == other.getSource()
+                    && generationId == other.generationId
+                    && size == other.size
+                    && borderWidth == other.borderWidth
+                    && borderColor == other.borderColor
+                    && fillColor == other.fillColor
+                    && borderOverlay == other.borderOverlay;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
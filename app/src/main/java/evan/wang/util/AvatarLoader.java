@@ -0,0 +1,298 @@
+package evan.wang.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
+
+import evan.wang.core.CropEngine;
+import evan.wang.core.ExifOrientation;
+import evan.wang.core.ImageHeader;
+import evan.wang.core.Raster;
+import evan.wang.core.Resampler;
+import evan.wang.core.SampleSize;
+
+/**
+ * 头像异步加载
+ * <p/>
+ * 按控件测量后的内容区尺寸在后台解码：2的次幂采样解码、校正EXIF方向、居中裁剪并缩放到正好控件的尺寸，
+ * 结果放入{@link BitmapCache}共享。同一个Uri和尺寸同时只解码一次，多个控件共用结果；
+ * 控件重新加载或者调用{@link #cancel}后，之前的请求不再投递，没有控件等待的解码任务会被取消。
+ * <p/>
+ * 所有方法都在UI线程调用。列表中在绑定时调用{@link #load}，RecyclerView在onViewRecycled中调用{@link #cancel}。
+ */
+public class AvatarLoader {
+    private static final String TAG = "AvatarLoader";
+
+    private static AvatarLoader sInstance;
+
+    private final Context context;
+    //正在解码的任务，key为Uri和尺寸
+    private final Map<String, Job> jobs = new HashMap<String, Job>();
+    //每个控件当前的请求
+    private final Map<ImageView, Request> requests = new WeakHashMap<ImageView, Request>();
+
+    public static synchronized AvatarLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AvatarLoader(context);
+        }
+        return sInstance;
+    }
+
+    AvatarLoader(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * 生成缓存key
+     */
+    public static String key(Uri uri, int width, int height) {
+        return uri + "#avatar#" + width + "x" + height;
+    }
+
+    /**
+     * 加载头像到控件，取消该控件之前的请求
+     * 缓存命中时直接设置；控件还没有测量时，等到第一次绘制前再按尺寸加载
+     */
+    public void load(Uri uri, ImageView view) {
+        cancel(view);
+        if (uri == null) {
+            return;
+        }
+        Request request = new Request(uri, view);
+        requests.put(view, request);
+        if (contentWidth(view) > 0 && contentHeight(view) > 0) {
+            start(request, view);
+        } else {
+            view.getViewTreeObserver().addOnPreDrawListener(request);
+        }
+    }
+
+    /**
+     * 取消控件的请求，控件被回收或不再显示时调用
+     */
+    public void cancel(ImageView view) {
+        Request request = requests.remove(view);
+        if (request == null || request.job == null) {
+            return;
+        }
+        Job job = request.job;
+        job.requests.remove(request);
+        if (job.requests.isEmpty()) {
+            job.cancel();
+            jobs.remove(job.key);
+        }
+    }
+
+    private void start(Request request, ImageView view) {
+        int width = contentWidth(view);
+        int height = contentHeight(view);
+        String key = key(request.uri, width, height);
+        Bitmap cached = BitmapCache.getInstance().get(key);
+        if (cached != null) {
+            requests.remove(view);
+            view.setImageBitmap(cached);
+            return;
+        }
+        //同一个Uri和尺寸正在解码，等待同一个结果
+        Job job = jobs.get(key);
+        if (job == null) {
+            job = new Job(key, request.uri, width, height);
+            jobs.put(key, job);
+            job.future = ClipExecutors.avatar().submit(job);
+        }
+        job.requests.add(request);
+        request.job = job;
+    }
+
+    private void deliver(Job job, Bitmap bitmap) {
+        if (jobs.get(job.key) == job) {
+            jobs.remove(job.key);
+        }
+        if (bitmap != null) {
+            BitmapCache.getInstance().put(job.key, bitmap);
+        }
+        for (Request request : job.requests) {
+            ImageView view = request.view.get();
+            //控件已经加载了别的头像
+            if (view == null || requests.get(view) != request) {
+                continue;
+            }
+            requests.remove(view);
+            //解码失败时保留控件原来的图片
+            if (bitmap != null) {
+                view.setImageBitmap(bitmap);
+            }
+        }
+        job.requests.clear();
+    }
+
+    private static int contentWidth(ImageView view) {
+        return view.getWidth() - view.getPaddingLeft() - view.getPaddingRight();
+    }
+
+    private static int contentHeight(ImageView view) {
+        return view.getHeight() - view.getPaddingTop() - view.getPaddingBottom();
+    }
+
+    /**
+     * 控件的一次加载请求，控件没有测量时作为OnPreDrawListener等待尺寸
+     */
+    private class Request implements ViewTreeObserver.OnPreDrawListener {
+        final Uri uri;
+        final WeakReference<ImageView> view;
+        Job job;
+
+        Request(Uri uri, ImageView view) {
+            this.uri = uri;
+            this.view = new WeakReference<ImageView>(view);
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            ImageView imageView = view.get();
+            if (imageView == null) {
+                return true;
+            }
+            ViewTreeObserver observer = imageView.getViewTreeObserver();
+            if (observer.isAlive()) {
+                observer.removeOnPreDrawListener(this);
+            }
+            if (requests.get(imageView) == this && contentWidth(imageView) > 0 && contentHeight(imageView) > 0) {
+                start(this, imageView);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 一个Uri和尺寸的解码任务，可能有多个控件在等待
+     */
+    private class Job implements Runnable {
+        final String key;
+        final Uri uri;
+        final int width;
+        final int height;
+        //等待结果的请求，只在UI线程访问
+        final List<Request> requests = new ArrayList<Request>();
+        volatile boolean cancelled;
+        Future<?> future;
+
+        Job(String key, Uri uri, int width, int height) {
+            this.key = key;
+            this.uri = uri;
+            this.width = width;
+            this.height = height;
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = decode();
+            } catch (Throwable e) {
+                Log.w(TAG, "decode avatar failed: " + uri, e);
+                bitmap = null;
+            }
+            if (cancelled) {
+                return;
+            }
+            final Bitmap result = bitmap;
+            ClipExecutors.mainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        deliver(Job.this, result);
+                    }
+                }
+            });
+        }
+
+        private Bitmap decode() throws IOException {
+            Raster raster;
+            //裁剪界面返回时完整的裁剪结果还在缓存中，直接从内存缩放
+            Bitmap full = BitmapCache.getInstance().get(BitmapCache.key(uri, 1, Bitmap.Config.ARGB_8888));
+            if (full != null) {
+                raster = RasterUtil.toRaster(full);
+            } else {
+                raster = decodeSampled();
+            }
+            if (raster == null || cancelled) {
+                return null;
+            }
+            //居中裁剪出与控件相同宽高比的区域
+            int srcWidth = raster.getWidth();
+            int srcHeight = raster.getHeight();
+            int cropWidth = srcWidth;
+            int cropHeight = srcHeight;
+            if ((long) srcWidth * height > (long) srcHeight * width) {
+                cropWidth = Math.max(1, (int) ((long) srcHeight * width / height));
+            } else {
+                cropHeight = Math.max(1, (int) ((long) srcWidth * height / width));
+            }
+            int left = (srcWidth - cropWidth) / 2;
+            int top = (srcHeight - cropHeight) / 2;
+            int[] rect = {left, top, left + cropWidth, top + cropHeight};
+            Raster out = CropEngine.crop(raster, rect, ExifOrientation.NORMAL, width, height, Resampler.Filter.BILINEAR);
+            return RasterUtil.toBitmap(out);
+        }
+
+        /**
+         * 按2的次幂采样解码，采样后居中裁剪的区域不小于控件尺寸，返回已校正方向的像素
+         */
+        private Raster decodeSampled() throws IOException {
+            ImageSource source = ImageSource.open(context, uri);
+            try {
+                ImageHeader header = source.readHeader();
+                int orientation = header.getOrientation();
+                int srcWidth = header.getWidth();
+                int srcHeight = header.getHeight();
+                //旋转90或270度时，控件的宽高对应原图的高宽
+                boolean swap = ExifOrientation.swapsDimensions(orientation);
+                int reqWidth = swap ? height : width;
+                int reqHeight = swap ? width : height;
+                float scale = Math.max((float) reqWidth / srcWidth, (float) reqHeight / srcHeight);
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.outWidth = srcWidth;
+                options.outHeight = srcHeight;
+                options.inSampleSize = SampleSize.powerOfTwo(srcWidth, srcHeight,
+                        (int) Math.ceil(srcWidth * scale), (int) Math.ceil(srcHeight * scale));
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                if (cancelled) {
+                    return null;
+                }
+                Bitmap sampled = source.decode(options);
+                if (sampled == null) {
+                    return null;
+                }
+                Raster raster = RasterUtil.toRaster(sampled);
+                BitmapPool.getInstance().put(sampled);
+                return CropEngine.orient(raster, orientation);
+            } finally {
+                source.close();
+            }
+        }
+    }
+}
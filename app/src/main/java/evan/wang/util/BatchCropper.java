@@ -0,0 +1,334 @@
+package evan.wang.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.BatchPipeline;
+import evan.wang.core.CropSpec;
+import evan.wang.core.ExifOrientation;
+import evan.wang.core.ImageHeader;
+import evan.wang.core.Raster;
+import evan.wang.core.Resampler;
+
+/**
+ * 批量裁剪
+ * <p/>
+ * 不需要界面，把同一个裁剪区域（CropSpec）应用到一批图片上：从原图区域解码 -> 校正方向并缩放 -> 编码写入输出。
+ * 三个阶段由BatchPipeline并行处理，每个阶段的线程数和排队数量可以设置，
+ * 每张图片完成后立即在UI线程回调结果和各阶段耗时。
+ */
+public class BatchCropper {
+
+    /**
+     * 输出位置
+     */
+    public interface OutputTarget {
+        /**
+         * @param index     输入的序号
+         * @param input     输入Uri
+         * @param extension 输出格式对应的扩展名，例如".jpg"
+         */
+        Uri outputFor(int index, Uri input, String extension);
+    }
+
+    /**
+     * 结果回调，在UI线程执行
+     */
+    public interface Callback {
+        /**
+         * 一张图片完成或失败
+         */
+        void onItemDone(ItemResult result);
+
+        /**
+         * 整批完成
+         */
+        void onBatchDone(int succeeded, int failed, boolean cancelled);
+    }
+
+    /**
+     * 一张图片的结果
+     */
+    public static class ItemResult {
+        //输入的序号
+        public int index;
+        public Uri input;
+        //编码结果，失败时为null
+        public ImageEncoder.Result encoded;
+        //失败原因
+        public Throwable error;
+        //各阶段处理耗时（毫秒），不包括排队等待
+        public long decodeTimeMs;
+        public long transformTimeMs;
+        public long encodeTimeMs;
+        //总耗时（毫秒），包括排队等待
+        public long totalTimeMs;
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * 正在进行的一批任务
+     */
+    public static class Job {
+        private final BatchPipeline<Task, Decoded, Transformed, ImageEncoder.Result>.Batch batch;
+
+        Job(BatchPipeline<Task, Decoded, Transformed, ImageEncoder.Result>.Batch batch) {
+            this.batch = batch;
+        }
+
+        /**
+         * 取消，还没开始的图片不再处理
+         */
+        public void cancel() {
+            batch.cancel();
+        }
+
+        public boolean isCancelled() {
+            return batch.isCancelled();
+        }
+
+        /**
+         * 等待整批完成，不要在UI线程调用
+         */
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return batch.await(timeout, unit);
+        }
+    }
+
+    private static class Task {
+        final int index;
+        final Uri input;
+        final Uri output;
+
+        Task(int index, Uri input, Uri output) {
+            this.index = index;
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    private static class Decoded {
+        final Task task;
+        //采样解码出的区域，未校正方向
+        final Raster region;
+        final int orientation;
+        //输出宽高
+        final int outWidth;
+        final int outHeight;
+
+        Decoded(Task task, Raster region, int orientation, int outWidth, int outHeight) {
+            this.task = task;
+            this.region = region;
+            this.orientation = orientation;
+            this.outWidth = outWidth;
+            this.outHeight = outHeight;
+        }
+    }
+
+    private static class Transformed {
+        final Task task;
+        final Bitmap bitmap;
+
+        Transformed(Task task, Bitmap bitmap) {
+            this.task = task;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final Context context;
+    private final ContentResolver resolver;
+    private CropSpec cropSpec = CropSpec.centerAspect(16, 9);
+    private int outputWidth = 640;
+    private int outputHeight = 360;
+    private Resampler.Filter filter = Resampler.Filter.LANCZOS3;
+    private ImageEncoder.Spec encodeSpec = new ImageEncoder.Spec();
+    private int decodeThreads = 2;
+    private int transformThreads = Runtime.getRuntime().availableProcessors();
+    private int encodeThreads = 1;
+    private int queueCapacity = 4;
+
+    public BatchCropper(Context context) {
+        this.context = context.getApplicationContext();
+        this.resolver = this.context.getContentResolver();
+    }
+
+    /**
+     * 裁剪区域，默认居中16:9
+     */
+    public BatchCropper setCropSpec(CropSpec cropSpec) {
+        this.cropSpec = cropSpec;
+        return this;
+    }
+
+    /**
+     * 输出的最大宽高，输出保持裁剪区域的宽高比
+     */
+    public BatchCropper setOutputSize(int maxWidth, int maxHeight) {
+        this.outputWidth = maxWidth;
+        this.outputHeight = maxHeight;
+        return this;
+    }
+
+    public BatchCropper setResampleFilter(Resampler.Filter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * 编码格式、质量和字节数上限
+     */
+    public BatchCropper setEncodeSpec(ImageEncoder.Spec encodeSpec) {
+        this.encodeSpec = encodeSpec;
+        return this;
+    }
+
+    /**
+     * 各阶段的线程数
+     */
+    public BatchCropper setParallelism(int decodeThreads, int transformThreads, int encodeThreads) {
+        this.decodeThreads = decodeThreads;
+        this.transformThreads = transformThreads;
+        this.encodeThreads = encodeThreads;
+        return this;
+    }
+
+    /**
+     * 每个阶段最多排队等待的图片数，超出时上一阶段等待，控制内存占用
+     */
+    public BatchCropper setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * 开始批量裁剪，立即返回
+     */
+    public Job start(List<Uri> inputs, OutputTarget target, final Callback callback) {
+        List<Task> tasks = new ArrayList<Task>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            Uri input = inputs.get(i);
+            tasks.add(new Task(i, input, target.outputFor(i, input, encodeSpec.getExtension())));
+        }
+        final CropSpec spec = cropSpec;
+        final int maxWidth = outputWidth;
+        final int maxHeight = outputHeight;
+        final Resampler.Filter resampleFilter = filter;
+        final ImageEncoder.Spec encode = encodeSpec;
+        BatchPipeline<Task, Decoded, Transformed, ImageEncoder.Result> pipeline =
+                new BatchPipeline<Task, Decoded, Transformed, ImageEncoder.Result>(
+                        new BatchPipeline.Stage<Task, Decoded>() {
+                            @Override
+                            public Decoded process(Task task) throws Exception {
+                                return decode(task, spec, maxWidth, maxHeight);
+                            }
+                        },
+                        new BatchPipeline.Stage<Decoded, Transformed>() {
+                            @Override
+                            public Transformed process(Decoded decoded) {
+                                //每张图片已经在不同线程处理，这里单线程缩放
+                                Raster out = RegionDecodeUtil.orientAndResize(decoded.region, decoded.orientation,
+                                        decoded.outWidth, decoded.outHeight, resampleFilter, null);
+                                return new Transformed(decoded.task, RasterUtil.toBitmap(out));
+                            }
+                        },
+                        new BatchPipeline.Stage<Transformed, ImageEncoder.Result>() {
+                            @Override
+                            public ImageEncoder.Result process(Transformed transformed) throws IOException {
+                                try {
+                                    return ImageEncoder.encode(resolver, transformed.bitmap, transformed.task.output, encode);
+                                } finally {
+                                    transformed.bitmap.recycle();
+                                }
+                            }
+                        })
+                        .setParallelism(BatchPipeline.DECODE, decodeThreads)
+                        .setParallelism(BatchPipeline.TRANSFORM, transformThreads)
+                        .setParallelism(BatchPipeline.ENCODE, encodeThreads)
+                        .setQueueCapacity(queueCapacity)
+                        .setThreadFactory(new ClipExecutors.BackgroundThreadFactory("clip-batch"));
+        return new Job(pipeline.start(tasks, new BatchPipeline.Listener<Task, ImageEncoder.Result>() {
+            @Override
+            public void onResult(BatchPipeline.Result<Task, ImageEncoder.Result> result) {
+                final ItemResult item = new ItemResult();
+                item.index = result.input.index;
+                item.input = result.input.input;
+                item.encoded = result.output;
+                item.error = result.error;
+                item.decodeTimeMs = TimeUnit.NANOSECONDS.toMillis(result.stageNanos[BatchPipeline.DECODE]);
+                item.transformTimeMs = TimeUnit.NANOSECONDS.toMillis(result.stageNanos[BatchPipeline.TRANSFORM]);
+                item.encodeTimeMs = TimeUnit.NANOSECONDS.toMillis(result.stageNanos[BatchPipeline.ENCODE]);
+                item.totalTimeMs = TimeUnit.NANOSECONDS.toMillis(result.totalNanos);
+                ClipExecutors.mainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onItemDone(item);
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(final int succeeded, final int failed, final boolean cancelled) {
+                ClipExecutors.mainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBatchDone(succeeded, failed, cancelled);
+                    }
+                });
+            }
+        }));
+    }
+
+    /**
+     * 解码阶段：按裁剪区域和输出尺寸采样解码原图中的区域
+     */
+    private Decoded decode(Task task, CropSpec spec, int maxWidth, int maxHeight) throws IOException {
+        //宽高、EXIF和区域解码共用一次打开的文件描述符
+        ImageSource source = ImageSource.open(context, task.input);
+        try {
+            ImageHeader header = source.readHeader();
+            int orientation = header.getOrientation();
+            int[] srcRect = new int[4];
+            spec.toSourceRect(orientation, header.getWidth(), header.getHeight(), srcRect);
+            //保持裁剪区域（校正方向后）的宽高比
+            boolean swap = ExifOrientation.swapsDimensions(orientation);
+            int regionWidth = srcRect[2] - srcRect[0];
+            int regionHeight = srcRect[3] - srcRect[1];
+            int[] outSize = new int[2];
+            Resampler.fitSize(swap ? regionHeight : regionWidth, swap ? regionWidth : regionHeight,
+                    maxWidth, maxHeight, outSize);
+            Bitmap region = RegionDecodeUtil.decodeSampledRegion(source, srcRect, orientation, outSize[0], outSize[1]);
+            if (region == null) {
+                throw new IOException("Cannot decode region: " + task.input);
+            }
+            Raster raster = RasterUtil.toRaster(region);
+            //像素已经拷贝出来，bitmap放回复用池
+            BitmapPool.getInstance().put(region);
+            return new Decoded(task, raster, orientation, outSize[0], outSize[1]);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * 输出到目录中，文件名为crop_序号.扩展名
+     */
+    public static OutputTarget intoDirectory(final File dir) {
+        return new OutputTarget() {
+            @Override
+            public Uri outputFor(int index, Uri input, String extension) {
+                return Uri.fromFile(new File(dir, "crop_" + index + extension));
+            }
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package evan.wang.util;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+
+/**
+ * 解码结果缓存
+ * <p/>
+ * 进程内共享，key由图片Uri、采样率和Bitmap.Config组成，按bitmap占用的字节数做LRU淘汰。
+ * 再次打开同一张图片裁剪、或者回到主界面显示裁剪结果时，不需要再从文件解码。
+ * <p/>
+ * 缓存中的bitmap可能正在显示，使用者不能回收，也不能放入{@link BitmapPool}。
+ */
+public class BitmapCache {
+
+    private static BitmapCache sInstance;
+
+    private final LruCache<String, Bitmap> cache;
+
+    /**
+     * 进程内共享的缓存，大小为最大可用内存的1/8
+     */
+    public static synchronized BitmapCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapCache((int) (Runtime.getRuntime().maxMemory() / 8));
+        }
+        return sInstance;
+    }
+
+    public BitmapCache(int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return BitmapPool.getBitmapBytes(value);
+            }
+        };
+    }
+
+    /**
+     * 生成缓存key
+     */
+    public static String key(Uri uri, int sampleSize, Bitmap.Config config) {
+        return uri + "#" + sampleSize + "#" + config;
+    }
+
+    public Bitmap get(String key) {
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null && bitmap.isRecycled()) {
+            cache.remove(key);
+            return null;
+        }
+        return bitmap;
+    }
+
+    public void put(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null) {
+            return;
+        }
+        cache.put(key, bitmap);
+    }
+
+    public void remove(String key) {
+        cache.remove(key);
+    }
+
+    /**
+     * 内存紧张时释放缓存，在onTrimMemory中调用
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+            BitmapPool.getInstance().clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+}
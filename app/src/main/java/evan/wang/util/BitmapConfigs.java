@@ -0,0 +1,58 @@
+package evan.wang.util;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * 按系统能力选择Bitmap.Config
+ * <p/>
+ * API 26以上的Bitmap.Config.HARDWARE只保存在显存中，不占用Java堆和native堆，解码后不需要再上传纹理，
+ * 适合只用于显示的底图；但不能读取像素、不能画到软件Canvas上、不能复用。
+ * 编译版本低于26，通过名称查找，找不到时退回软件格式。
+ */
+public class BitmapConfigs {
+    //API 26才有HARDWARE
+    private static final int HARDWARE_API = 26;
+    //Bitmap.Config.HARDWARE，不支持时为null
+    private static final Bitmap.Config HARDWARE = findHardware();
+
+    private static Bitmap.Config findHardware() {
+        if (Build.VERSION.SDK_INT < HARDWARE_API) {
+            return null;
+        }
+        try {
+            return Bitmap.Config.valueOf("HARDWARE");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static boolean isHardwareSupported() {
+        return HARDWARE != null;
+    }
+
+    /**
+     * 只用于显示的bitmap的格式：支持时为HARDWARE，否则为software
+     */
+    public static Bitmap.Config forDisplay(Bitmap.Config software, boolean allowHardware) {
+        return allowHardware && HARDWARE != null ? HARDWARE : software;
+    }
+
+    public static boolean isHardware(Bitmap.Config config) {
+        return HARDWARE != null && config == HARDWARE;
+    }
+
+    public static boolean isHardware(Bitmap bitmap) {
+        return isHardware(bitmap.getConfig());
+    }
+
+    /**
+     * 需要读取像素时使用：硬件bitmap复制一份ARGB_8888的软件bitmap，其他直接返回
+     */
+    public static Bitmap toSoftware(Bitmap bitmap) {
+        if (!isHardware(bitmap)) {
+            return bitmap;
+        }
+        return bitmap.copy(Bitmap.Config.ARGB_8888, false);
+    }
+}
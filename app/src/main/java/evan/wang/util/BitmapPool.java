@@ -0,0 +1,200 @@
+package evan.wang.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.util.LinkedList;
+
+/**
+ * Bitmap复用池
+ * <p/>
+ * 不再使用的可变bitmap放入池中，解码时通过BitmapFactory.Options.inBitmap复用其内存，
+ * 反复裁剪时不再频繁分配大块内存，减少GC停顿。池的总大小有上限，超出时最早放入的会被回收。
+ * <p/>
+ * 注意：只能放入确定不再显示、不再使用的bitmap。
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+
+    private static BitmapPool sInstance;
+
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+    private final long maxBytes;
+    private long currentBytes;
+
+    /**
+     * 进程内共享的复用池，大小为最大可用内存的1/16
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+        }
+        return sInstance;
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 取出一个可以作为inBitmap解码目标尺寸的bitmap，没有合适的返回null
+     * API 19以上只要内存足够即可复用，之前的版本要求宽高和格式完全一致（minSdk为14，inBitmap始终可用）
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap best = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            long required = (long) width * height * bytesPerPixel(config);
+            for (Bitmap bitmap : bitmaps) {
+                int bytes = getBitmapBytes(bitmap);
+                if (bytes >= required && (best == null || bytes < getBitmapBytes(best))) {
+                    best = bitmap;
+                }
+            }
+        } else {
+            for (Bitmap bitmap : bitmaps) {
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                    best = bitmap;
+                    break;
+                }
+            }
+        }
+        if (best != null) {
+            bitmaps.remove(best);
+            currentBytes -= getBitmapBytes(best);
+        }
+        return best;
+    }
+
+    /**
+     * 放入不再使用的bitmap，不可变的bitmap无法复用，直接回收
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = getBitmapBytes(bitmap);
+        if (!bitmap.isMutable() || bytes > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        bitmaps.addLast(bitmap);
+        currentBytes += bytes;
+        while (currentBytes > maxBytes && !bitmaps.isEmpty()) {
+            Bitmap eldest = bitmaps.removeFirst();
+            currentBytes -= getBitmapBytes(eldest);
+            eldest.recycle();
+        }
+    }
+
+    /**
+     * 清空复用池
+     */
+    public synchronized void clear() {
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+        bitmaps.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * 从文件解码，尽量复用池中的bitmap
+     * options中需要已经有inJustDecodeBounds得到的outWidth, outHeight
+     */
+    public Bitmap decodeFile(String path, BitmapFactory.Options options) {
+        setInBitmap(options);
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            //复用失败，不使用inBitmap重新解码
+            Log.w(TAG, "inBitmap rejected, decode without reuse", e);
+            put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    /**
+     * 从文件描述符的当前位置解码，尽量复用池中的bitmap
+     * options中需要已经有inJustDecodeBounds得到的outWidth, outHeight
+     */
+    public Bitmap decodeFileDescriptor(FileDescriptor fd, BitmapFactory.Options options) {
+        setInBitmap(options);
+        try {
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "inBitmap rejected, decode without reuse", e);
+            put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        }
+    }
+
+    /**
+     * 区域解码，尽量复用池中的bitmap
+     */
+    public Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect rect, BitmapFactory.Options options) {
+        //区域解码从API 16开始支持inBitmap，但API 19之前要求尺寸完全一致，这里只在API 19以上复用
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            options.outWidth = rect.width();
+            options.outHeight = rect.height();
+            setInBitmap(options);
+        }
+        try {
+            return decoder.decodeRegion(rect, options);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "inBitmap rejected, decode region without reuse", e);
+            put(options.inBitmap);
+            options.inBitmap = null;
+            return decoder.decodeRegion(rect, options);
+        }
+    }
+
+    private void setInBitmap(BitmapFactory.Options options) {
+        options.inJustDecodeBounds = false;
+        //硬件bitmap不可变，也不能复用
+        if (BitmapConfigs.isHardware(options.inPreferredConfig)) {
+            options.inMutable = false;
+            options.inBitmap = null;
+            return;
+        }
+        //解码出的bitmap可变，用完后才能放回池中复用
+        options.inMutable = true;
+        int sampleSize = Math.max(1, options.inSampleSize);
+        //API 19之前只有inSampleSize为1时才能复用
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && sampleSize != 1) {
+            return;
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return;
+        }
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inBitmap = get(width, height, config);
+    }
+
+    /**
+     * bitmap占用的内存字节数
+     */
+    public static int getBitmapBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,146 @@
+package evan.wang.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import evan.wang.core.ParallelResampler;
+
+/**
+ * 后台线程池
+ * 图片解码等耗时操作统一放到这里执行，避免阻塞UI线程
+ */
+public class ClipExecutors {
+    //解码线程数，解码很耗内存，线程不宜过多
+    private static final int DECODE_THREAD_COUNT = 2;
+
+    private static ExecutorService sDecodeExecutor;
+    private static ExecutorService sTileExecutor;
+    private static ExecutorService sEncodeExecutor;
+    private static ExecutorService sAvatarExecutor;
+    private static ParallelResampler sResampler;
+    private static Handler sMainHandler;
+
+    /**
+     * 获取解码线程池
+     */
+    public static synchronized ExecutorService decode() {
+        if (sDecodeExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(DECODE_THREAD_COUNT, DECODE_THREAD_COUNT,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new BackgroundThreadFactory("clip-decode"));
+            executor.allowCoreThreadTimeOut(true);
+            sDecodeExecutor = executor;
+        }
+        return sDecodeExecutor;
+    }
+
+    /**
+     * 获取分块解码线程池，单线程，区域解码器本身是串行的
+     */
+    public static synchronized ExecutorService tile() {
+        if (sTileExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new BackgroundThreadFactory("clip-tile"));
+            executor.allowCoreThreadTimeOut(true);
+            sTileExecutor = executor;
+        }
+        return sTileExecutor;
+    }
+
+    /**
+     * 获取编码线程池，单线程
+     */
+    public static synchronized ExecutorService encode() {
+        if (sEncodeExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new BackgroundThreadFactory("clip-encode"));
+            executor.allowCoreThreadTimeOut(true);
+            sEncodeExecutor = executor;
+        }
+        return sEncodeExecutor;
+    }
+
+    /**
+     * 获取头像解码线程池，后提交的先执行：列表快速滚动时，刚滚入屏幕的头像优先解码
+     */
+    public static synchronized ExecutorService avatar() {
+        if (sAvatarExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(DECODE_THREAD_COUNT, DECODE_THREAD_COUNT,
+                    30, TimeUnit.SECONDS, new LifoBlockingDeque(),
+                    new BackgroundThreadFactory("clip-avatar"));
+            executor.allowCoreThreadTimeOut(true);
+            sAvatarExecutor = executor;
+        }
+        return sAvatarExecutor;
+    }
+
+    /**
+     * 获取多线程缩放，线程数与CPU核数相同（其中一个为调用线程）
+     */
+    public static synchronized ParallelResampler resampler() {
+        if (sResampler == null) {
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            int threads = Math.max(1, parallelism - 1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new BackgroundThreadFactory("clip-resample"));
+            executor.allowCoreThreadTimeOut(true);
+            sResampler = new ParallelResampler(executor, parallelism);
+        }
+        return sResampler;
+    }
+
+    /**
+     * 获取主线程Handler，用于把结果投递回UI线程
+     */
+    public static synchronized Handler mainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+
+    /**
+     * 新任务放在队首的队列
+     */
+    static class LifoBlockingDeque extends LinkedBlockingDeque<Runnable> {
+        @Override
+        public boolean offer(Runnable runnable) {
+            return offerFirst(runnable);
+        }
+    }
+
+    /**
+     * 后台优先级的线程工厂
+     */
+    static class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String name;
+
+        BackgroundThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+        }
+    }
+}
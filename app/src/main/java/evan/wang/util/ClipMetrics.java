@@ -0,0 +1,75 @@
+package evan.wang.util;
+
+import android.util.Log;
+
+import evan.wang.core.CropMetrics;
+
+/**
+ * 全局的性能指标入口
+ * <p/>
+ * 默认为CropMetrics.NONE，只多一次级别判断；需要时设置为HistogramMetrics等实现，之后随时dump。
+ * 逐个事件的日志在LEVEL_EVENT时才记录，同时输出到logcat，调用方先用isEventEnabled判断再拼接字符串。
+ */
+public class ClipMetrics {
+    private static volatile CropMetrics sMetrics = CropMetrics.NONE;
+
+    /**
+     * 设置指标实现，为null时恢复为不记录
+     */
+    public static void set(CropMetrics metrics) {
+        sMetrics = metrics != null ? metrics : CropMetrics.NONE;
+    }
+
+    public static CropMetrics get() {
+        return sMetrics;
+    }
+
+    public static boolean isTimingEnabled() {
+        return sMetrics.getLevel() >= CropMetrics.LEVEL_TIMING;
+    }
+
+    public static boolean isEventEnabled() {
+        return sMetrics.getLevel() >= CropMetrics.LEVEL_EVENT;
+    }
+
+    /**
+     * 开始计时，未开启时返回0
+     */
+    public static long start() {
+        return isTimingEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 结束计时，start为0时不记录
+     */
+    public static void stop(CropMetrics.Timer timer, long start) {
+        if (start != 0) {
+            sMetrics.recordTime(timer, System.nanoTime() - start);
+        }
+    }
+
+    public static void recordTime(CropMetrics.Timer timer, long nanos) {
+        CropMetrics metrics = sMetrics;
+        if (metrics.getLevel() >= CropMetrics.LEVEL_TIMING) {
+            metrics.recordTime(timer, nanos);
+        }
+    }
+
+    public static void recordSize(CropMetrics.Size size, long bytes) {
+        CropMetrics metrics = sMetrics;
+        if (metrics.getLevel() >= CropMetrics.LEVEL_TIMING) {
+            metrics.recordSize(size, bytes);
+        }
+    }
+
+    /**
+     * 记录事件日志
+     */
+    public static void event(String tag, String message) {
+        CropMetrics metrics = sMetrics;
+        if (metrics.getLevel() >= CropMetrics.LEVEL_EVENT) {
+            metrics.event(tag, message);
+            Log.d(tag, message);
+        }
+    }
+}
@@ -17,7 +17,10 @@ public class FileUtil {
     /**
      * 根据Uri返回文件绝对路径
      * 兼容了file:///开头的 和 content://开头的情况
+     *
+     * @deprecated _data列已废弃，文档和云端提供者返回null，读取图片使用{@link ImageSource}
      */
+    @Deprecated
     public static String getRealFilePathFromUri(final Context context, final Uri uri) {
         if (null == uri) return null;
         final String scheme = uri.getScheme();
@@ -0,0 +1,220 @@
+package evan.wang.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Future;
+
+import evan.wang.core.CountingOutputStream;
+import evan.wang.core.CropMetrics;
+import evan.wang.core.QualitySearch;
+
+/**
+ * 图片编码
+ * <p/>
+ * 在后台线程把bitmap按指定格式、质量压缩并直接写入输出Uri。
+ * 设置了字节数上限时，先按设定的质量直接写入，超出上限再二分查找满足上限的最高质量，
+ * 查找过程只计数不保存数据，不产生ByteArrayOutputStream拷贝。
+ */
+public class ImageEncoder {
+    private static final String TAG = "ImageEncoder";
+    //二分查找的最低质量
+    private static final int MIN_QUALITY = 5;
+
+    /**
+     * 编码参数
+     */
+    public static class Spec {
+        private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+        private int quality = 90;
+        private long maxBytes;
+
+        public Spec setFormat(Bitmap.CompressFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        public Spec setQuality(int quality) {
+            this.quality = Math.max(0, Math.min(100, quality));
+            return this;
+        }
+
+        /**
+         * 输出字节数上限，小于等于0表示不限制。PNG为无损格式，质量参数无效，不做查找
+         */
+        public Spec setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Bitmap.CompressFormat getFormat() {
+            return format;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * 格式对应的文件扩展名
+         */
+        public String getExtension() {
+            if (format == Bitmap.CompressFormat.PNG) {
+                return ".png";
+            } else if (format == Bitmap.CompressFormat.WEBP) {
+                return ".webp";
+            }
+            return ".jpg";
+        }
+    }
+
+    /**
+     * 编码结果
+     */
+    public static class Result {
+        //输出Uri
+        public Uri uri;
+        //写入的字节数
+        public long bytes;
+        //编码耗时（毫秒），包括查找质量的时间
+        public long encodeTimeMs;
+        //最终使用的质量
+        public int quality;
+        //是否满足字节数上限
+        public boolean withinBudget;
+    }
+
+    /**
+     * 编码回调，在UI线程执行
+     */
+    public interface Callback {
+        void onEncoded(Result result);
+
+        void onEncodeFailed(Throwable error);
+    }
+
+    /**
+     * 在后台线程编码，结果在UI线程回调
+     */
+    public static Future<?> encodeAsync(Context context, final Bitmap bitmap, final Uri uri,
+                                        final Spec spec, final Callback callback) {
+        final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        return ClipExecutors.encode().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Result result = encode(resolver, bitmap, uri, spec);
+                    ClipExecutors.mainHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onEncoded(result);
+                        }
+                    });
+                } catch (final Throwable e) {
+                    Log.e(TAG, "Cannot encode to: " + uri, e);
+                    ClipExecutors.mainHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onEncodeFailed(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * 同步编码，不要在UI线程调用
+     */
+    public static Result encode(ContentResolver resolver, final Bitmap bitmap, Uri uri, Spec spec) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        long metricsStart = ClipMetrics.start();
+        Result result = new Result();
+        result.uri = uri;
+        long maxBytes = spec.getFormat() == Bitmap.CompressFormat.PNG ? 0 : spec.getMaxBytes();
+        int quality = spec.getQuality();
+        //查找的下限不高于设定的质量，设定的质量已经不高于下限时没有更低的质量可选，直接完整写入
+        final int floor = Math.min(quality, MIN_QUALITY);
+        if (quality <= floor) {
+            maxBytes = 0;
+        }
+        //先按设定的质量直接写入输出，超出上限时立即中止
+        long bytes = write(resolver, bitmap, uri, spec.getFormat(), quality, maxBytes);
+        if (bytes < 0) {
+            //二分查找满足上限的最高质量
+            final Bitmap.CompressFormat format = spec.getFormat();
+            final long limit = maxBytes;
+            int best = QualitySearch.highestFitting(floor, quality - 1, new QualitySearch.Probe() {
+                @Override
+                public boolean fits(int quality) {
+                    return measure(bitmap, format, quality, limit) >= 0;
+                }
+            });
+            //最低质量也超出上限时，按最低质量输出
+            quality = best >= 0 ? best : floor;
+            bytes = write(resolver, bitmap, uri, spec.getFormat(), quality, 0);
+            if (bytes < 0) {
+                throw new IOException("Cannot write: " + uri);
+            }
+        }
+        result.quality = quality;
+        result.bytes = bytes;
+        result.withinBudget = spec.getMaxBytes() <= 0 || bytes <= spec.getMaxBytes();
+        result.encodeTimeMs = SystemClock.elapsedRealtime() - start;
+        ClipMetrics.stop(CropMetrics.Timer.ENCODE, metricsStart);
+        ClipMetrics.recordSize(CropMetrics.Size.BYTES_WRITTEN, bytes);
+        return result;
+    }
+
+    /**
+     * 压缩并写入输出Uri
+     *
+     * @return 写入的字节数，超出上限时返回-1
+     */
+    private static long write(ContentResolver resolver, Bitmap bitmap, Uri uri,
+                              Bitmap.CompressFormat format, int quality, long maxBytes) throws IOException {
+        OutputStream outputStream = resolver.openOutputStream(uri, "w");
+        if (outputStream == null) {
+            throw new IOException("Cannot open file: " + uri);
+        }
+        CountingOutputStream counting = new CountingOutputStream(outputStream, maxBytes);
+        try {
+            boolean success = bitmap.compress(format, quality, counting);
+            if (counting.isLimitExceeded()) {
+                return -1;
+            }
+            if (!success) {
+                throw new IOException("Compress failed: " + uri);
+            }
+            counting.flush();
+            return counting.getCount();
+        } finally {
+            try {
+                counting.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 只计算压缩后的大小，不保存数据
+     *
+     * @return 压缩后的字节数，超出上限时返回-1
+     */
+    private static long measure(Bitmap bitmap, Bitmap.CompressFormat format, int quality, long maxBytes) {
+        CountingOutputStream counting = new CountingOutputStream(null, maxBytes);
+        bitmap.compress(format, quality, counting);
+        return counting.isLimitExceeded() ? -1 : counting.getCount();
+    }
+}
@@ -0,0 +1,256 @@
+package evan.wang.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.media.ExifInterface;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import evan.wang.core.CropMetrics;
+import evan.wang.core.ImageHeader;
+
+/**
+ * 原图输入
+ * <p/>
+ * 通过ContentResolver把任意Uri（file://、content://、文档和云端提供者）打开一次为文件描述符，
+ * 读取宽高、EXIF方向、整图解码和区域解码都使用这一个描述符，不再查询已废弃的_data路径，
+ * 也不会把文件拷贝到临时路径。每次读取前把位置移回文件开头，多个线程共用时串行执行。
+ * 提供者返回管道等不能移动位置的描述符时，先复制到缓存目录的临时文件，之后同样只打开一次。
+ * <p/>
+ * 区域解码器创建后自己映射文件内容，之后关闭ImageSource不影响已经创建的解码器。
+ */
+public class ImageSource implements Closeable {
+    private static final String TAG = "ImageSource";
+
+    private final Uri uri;
+    private final ParcelFileDescriptor descriptor;
+    //关闭时同时关闭descriptor
+    private final ParcelFileDescriptor.AutoCloseInputStream input;
+    private final FileChannel channel;
+    //文件头，第一次读取后保存
+    private ImageHeader header;
+    private boolean closed;
+
+    private ImageSource(Uri uri, ParcelFileDescriptor descriptor) {
+        this.uri = uri;
+        this.descriptor = descriptor;
+        this.input = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        this.channel = input.getChannel();
+    }
+
+    /**
+     * 打开Uri，不要在UI线程调用，内容提供者可能需要下载或解密
+     */
+    public static ImageSource open(Context context, Uri uri) throws IOException {
+        if (uri == null) {
+            throw new FileNotFoundException("uri is null");
+        }
+        long start = ClipMetrics.start();
+        Uri target = uri.getScheme() == null ? Uri.fromFile(new File(uri.getPath())) : uri;
+        ContentResolver resolver = context.getContentResolver();
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(target, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Cannot open: " + uri);
+        }
+        //管道和socket不能移回开头，读取多次需要可以移动位置的文件
+        if (descriptor.getStatSize() < 0) {
+            descriptor = copyToCache(context, descriptor);
+        }
+        ClipMetrics.stop(CropMetrics.Timer.URI_RESOLVE, start);
+        return new ImageSource(uri, descriptor);
+    }
+
+    /**
+     * 把不能移动位置的描述符中的内容复制到缓存目录，返回临时文件的描述符
+     * 打开后立即删除临时文件，描述符关闭时空间才释放，不会留下文件
+     */
+    private static ParcelFileDescriptor copyToCache(Context context, ParcelFileDescriptor descriptor) throws IOException {
+        File temp = File.createTempFile("source", null, context.getCacheDir());
+        try {
+            InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    byte[] buffer = new byte[64 * 1024];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            return ParcelFileDescriptor.open(temp, ParcelFileDescriptor.MODE_READ_ONLY);
+        } finally {
+            if (!temp.delete()) {
+                Log.w(TAG, "Cannot delete " + temp);
+            }
+        }
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * 文件大小（字节）
+     */
+    public synchronized long length() throws IOException {
+        ensureOpen();
+        return channel.size();
+    }
+
+    /**
+     * 读取宽高、透明度和EXIF方向
+     * <p/>
+     * 先从文件开头读取一小段由ImageHeader解析，读不到宽高时（格式不支持或者文件头过长）
+     * 再用系统解码器读取宽高和EXIF。
+     */
+    public synchronized ImageHeader readHeader() throws IOException {
+        if (header != null) {
+            return header;
+        }
+        ensureOpen();
+        long start = ClipMetrics.start();
+        ImageHeader parsed;
+        try {
+            parsed = ImageHeader.read(channel);
+        } catch (IOException e) {
+            //文件头中的长度或偏移已损坏，交给系统解码器判断能否解码
+            Log.w(TAG, "Cannot parse header: " + uri, e);
+            parsed = null;
+        }
+        if (parsed == null || !parsed.hasSize()) {
+            BitmapFactory.Options options = decodeBounds();
+            //系统解码器不提供透明度，只有JPEG确定不透明
+            boolean jpeg = "image/jpeg".equals(options.outMimeType);
+            ImageHeader.Format format = parsed != null ? parsed.getFormat() : ImageHeader.Format.UNKNOWN;
+            parsed = new ImageHeader(jpeg ? ImageHeader.Format.JPEG : format,
+                    options.outWidth, options.outHeight, !jpeg, readOrientation());
+        }
+        ClipMetrics.stop(CropMetrics.Timer.BOUNDS_DECODE, start);
+        header = parsed;
+        return header;
+    }
+
+    /**
+     * 只读取宽高和格式，结果在outWidth、outHeight和outMimeType中
+     */
+    public synchronized BitmapFactory.Options decodeBounds() throws IOException {
+        FileDescriptor fd = rewind();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(fd, null, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode bounds: " + uri);
+        }
+        return options;
+    }
+
+    /**
+     * 整图解码，尽量复用BitmapPool中的bitmap
+     * options中需要已经有readHeader或decodeBounds得到的outWidth, outHeight
+     */
+    public synchronized Bitmap decode(BitmapFactory.Options options) throws IOException {
+        long start = ClipMetrics.start();
+        Bitmap bitmap = BitmapPool.getInstance().decodeFileDescriptor(rewind(), options);
+        ClipMetrics.stop(CropMetrics.Timer.FULL_DECODE, start);
+        //硬件bitmap只在显存中，不计入
+        if (bitmap != null && !BitmapConfigs.isHardware(bitmap)) {
+            ClipMetrics.recordSize(CropMetrics.Size.BITMAP_BYTES, BitmapPool.getBitmapBytes(bitmap));
+        }
+        return bitmap;
+    }
+
+    /**
+     * 解码EXIF中的缩略图（相机JPEG一般为160x120，未校正方向），没有缩略图时返回null
+     */
+    public synchronized Bitmap decodeThumbnail(BitmapFactory.Options options) throws IOException {
+        ImageHeader header = readHeader();
+        if (!header.hasThumbnail()) {
+            return null;
+        }
+        ensureOpen();
+        ByteBuffer buffer = ByteBuffer.allocate(header.getThumbnailLength());
+        long position = header.getThumbnailOffset();
+        int count;
+        while (buffer.hasRemaining() && (count = channel.read(buffer, position)) > 0) {
+            position += count;
+        }
+        return BitmapFactory.decodeByteArray(buffer.array(), 0, buffer.position(), options);
+    }
+
+    /**
+     * 创建区域解码器，使用者负责recycle
+     */
+    public synchronized BitmapRegionDecoder newRegionDecoder() throws IOException {
+        return BitmapRegionDecoder.newInstance(rewind(), false);
+    }
+
+    /**
+     * 读取EXIF方向，没有EXIF或读取失败时返回ORIENTATION_NORMAL
+     */
+    public synchronized int readOrientation() throws IOException {
+        rewind();
+        long start = ClipMetrics.start();
+        try {
+            //只按顺序读取到EXIF所在的段为止，不读取图像数据；流不关闭，描述符继续使用
+            ExifInterface exif = new ExifInterface(Channels.newInputStream(channel));
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        } finally {
+            ClipMetrics.stop(CropMetrics.Timer.EXIF, start);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            input.close();
+        } catch (IOException e) {
+            //已经不再使用，忽略
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 把读取位置移回文件开头
+     */
+    private FileDescriptor rewind() throws IOException {
+        ensureOpen();
+        channel.position(0);
+        return descriptor.getFileDescriptor();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("ImageSource closed: " + uri);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package evan.wang.util;
+
+import android.graphics.Bitmap;
+
+import evan.wang.core.Raster;
+
+/**
+ * clip-core中的像素数据与Bitmap之间的转换
+ */
+public class RasterUtil {
+
+    /**
+     * 读取bitmap的像素，硬件bitmap先复制为软件bitmap
+     */
+    public static Raster toRaster(Bitmap bitmap) {
+        Bitmap software = BitmapConfigs.toSoftware(bitmap);
+        int width = software.getWidth();
+        int height = software.getHeight();
+        int[] pixels = new int[width * height];
+        software.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (software != bitmap) {
+            software.recycle();
+        }
+        return new Raster(width, height, pixels);
+    }
+
+    /**
+     * 由像素数据生成ARGB_8888的bitmap
+     */
+    public static Bitmap toBitmap(Raster raster) {
+        return Bitmap.createBitmap(raster.getPixels(), raster.getWidth(), raster.getHeight(),
+                Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,100 @@
+package evan.wang.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+
+import evan.wang.core.CropEngine;
+import evan.wang.core.CropMetrics;
+import evan.wang.core.CropMapper;
+import evan.wang.core.ExifOrientation;
+import evan.wang.core.ParallelResampler;
+import evan.wang.core.Raster;
+import evan.wang.core.Resampler;
+
+/**
+ * 原图区域解码工具类
+ * 只解码原图文件中被裁剪的区域，并直接输出为指定尺寸
+ */
+public class RegionDecodeUtil {
+
+    /**
+     * 从原图解码指定区域，用Lanczos缩放到输出尺寸
+     */
+    public static Bitmap decodeRegion(ImageSource source, int[] srcRect, int orientation,
+                                      int outWidth, int outHeight) throws IOException {
+        return decodeRegion(source, srcRect, orientation, outWidth, outHeight, Resampler.Filter.LANCZOS3);
+    }
+
+    /**
+     * 从原图文件解码指定区域
+     * <p/>
+     * 先按2的次幂采样解码出不小于输出尺寸的区域，再校正方向并多线程缩放到输出尺寸
+     *
+     * @param source      原图
+     * @param srcRect     原图坐标下的区域 left, top, right, bottom
+     * @param orientation 原图的EXIF方向，输出时校正
+     * @param outWidth    输出宽度
+     * @param outHeight   输出高度
+     * @param filter      缩放使用的滤波器
+     * @return 校正方向并缩放到输出尺寸的bitmap
+     */
+    public static Bitmap decodeRegion(ImageSource source, int[] srcRect, int orientation,
+                                      int outWidth, int outHeight, Resampler.Filter filter) throws IOException {
+        Bitmap region = decodeSampledRegion(source, srcRect, orientation, outWidth, outHeight);
+        if (region == null) {
+            return null;
+        }
+        Raster raster = RasterUtil.toRaster(region);
+        //中间结果放回复用池，下次裁剪时复用
+        BitmapPool.getInstance().put(region);
+        return RasterUtil.toBitmap(orientAndResize(raster, orientation, outWidth, outHeight,
+                filter, ClipExecutors.resampler()));
+    }
+
+    /**
+     * 按2的次幂采样解码原图中的区域，解码结果不小于输出尺寸，未校正方向
+     */
+    public static Bitmap decodeSampledRegion(ImageSource source, int[] srcRect, int orientation,
+                                             int outWidth, int outHeight) throws IOException {
+        BitmapRegionDecoder decoder = source.newRegionDecoder();
+        try {
+            Rect rect = new Rect(srcRect[0], srcRect[1], srcRect[2], srcRect[3]);
+            //旋转90或270度时，区域的宽高与输出的宽高是对调的
+            boolean swap = ExifOrientation.swapsDimensions(orientation);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = CropMapper.regionSampleSize(rect.width(), rect.height(),
+                    swap ? outHeight : outWidth, swap ? outWidth : outHeight);
+            Bitmap region = BitmapPool.getInstance().decodeRegion(decoder, rect, options);
+            if (region != null) {
+                ClipMetrics.recordSize(CropMetrics.Size.BITMAP_BYTES, BitmapPool.getBitmapBytes(region));
+            }
+            return region;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * 校正方向并缩放到输出尺寸
+     *
+     * @param resampler 多线程缩放，为null时在当前线程缩放
+     */
+    public static Raster orientAndResize(Raster region, int orientation, int outWidth, int outHeight,
+                                         Resampler.Filter filter, ParallelResampler resampler) {
+        long start = ClipMetrics.start();
+        Raster oriented = CropEngine.orient(region, orientation);
+        Raster out;
+        if (oriented.getWidth() == outWidth && oriented.getHeight() == outHeight) {
+            out = oriented;
+        } else {
+            out = resampler != null ? resampler.resize(oriented, outWidth, outHeight, filter)
+                    : Resampler.resize(oriented, outWidth, outHeight, filter);
+        }
+        ClipMetrics.stop(CropMetrics.Timer.RESAMPLE, start);
+        return out;
+    }
+}
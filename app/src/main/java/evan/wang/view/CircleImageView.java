@@ -38,9 +38,15 @@ import android.util.AttributeSet;
 import android.widget.ImageView;
 
 import evan.wang.R;
+import evan.wang.util.AvatarCache;
+import evan.wang.util.AvatarLoader;
+import evan.wang.util.BitmapConfigs;
 
 /**
  * https://github.com/hdodenhof/CircleImageView
+ * <p/>
+ * 开启预渲染后，按（原图、边长、边框和填充参数）把圆形头像画好放入{@link AvatarCache}，
+ * 列表中反复绑定同一张头像时直接画缓存的bitmap。设置了ColorFilter时不使用预渲染。
  */
 public class CircleImageView extends ImageView {
 
@@ -53,6 +59,7 @@ public class CircleImageView extends ImageView {
     private static final int DEFAULT_BORDER_COLOR = Color.BLACK;
     private static final int DEFAULT_FILL_COLOR = Color.TRANSPARENT;
     private static final boolean DEFAULT_BORDER_OVERLAY = false;
+    private static final boolean DEFAULT_PRERENDER = false;
 
     private final RectF mDrawableRect = new RectF();
     private final RectF mBorderRect = new RectF();
@@ -61,6 +68,8 @@ public class CircleImageView extends ImageView {
     private final Paint mBitmapPaint = new Paint();
     private final Paint mBorderPaint = new Paint();
     private final Paint mFillPaint = new Paint();
+    private final Paint mAvatarPaint = new Paint();
+    private final AvatarCache.Key mAvatarKey = new AvatarCache.Key();
 
     private int mBorderColor = DEFAULT_BORDER_COLOR;
     private int mBorderWidth = DEFAULT_BORDER_WIDTH;
@@ -68,6 +77,12 @@ public class CircleImageView extends ImageView {
 
     private Bitmap mBitmap;
     private BitmapShader mBitmapShader;
+    //mBitmapShader对应的bitmap，原图不变时复用shader
+    private Bitmap mShaderBitmap;
+    //非BitmapDrawable转换得到的bitmap，尺寸不变时复用
+    private Bitmap mDrawableBitmap;
+    //预渲染的圆形头像，为null时用shader绘制
+    private Bitmap mAvatar;
     private int mBitmapWidth;
     private int mBitmapHeight;
 
@@ -80,6 +95,7 @@ public class CircleImageView extends ImageView {
     private boolean mSetupPending;
     private boolean mBorderOverlay;
     private boolean mDisableCircularTransformation;
+    private boolean mPrerender = DEFAULT_PRERENDER;
 
     public CircleImageView(Context context) {
         super(context);
@@ -100,6 +116,7 @@ public class CircleImageView extends ImageView {
         mBorderColor = a.getColor(R.styleable.CircleImageView_civ_border_color, DEFAULT_BORDER_COLOR);
         mBorderOverlay = a.getBoolean(R.styleable.CircleImageView_civ_border_overlay, DEFAULT_BORDER_OVERLAY);
         mFillColor = a.getColor(R.styleable.CircleImageView_civ_fill_color, DEFAULT_FILL_COLOR);
+        mPrerender = a.getBoolean(R.styleable.CircleImageView_civ_prerender, DEFAULT_PRERENDER);
 
         a.recycle();
 
@@ -108,6 +125,12 @@ public class CircleImageView extends ImageView {
 
     private void init() {
         super.setScaleType(SCALE_TYPE);
+        //画笔中不随参数变化的部分只设置一次
+        mBitmapPaint.setAntiAlias(true);
+        mBorderPaint.setStyle(Paint.Style.STROKE);
+        mBorderPaint.setAntiAlias(true);
+        mFillPaint.setStyle(Paint.Style.FILL);
+        mFillPaint.setAntiAlias(true);
         mReady = true;
 
         if (mSetupPending) {
@@ -146,6 +169,15 @@ public class CircleImageView extends ImageView {
             return;
         }
 
+        if (mAvatar != null) {
+            canvas.drawBitmap(mAvatar, mBorderRect.left, mBorderRect.top, mAvatarPaint);
+            return;
+        }
+
+        drawCircles(canvas);
+    }
+
+    private void drawCircles(Canvas canvas) {
         if (mFillColor != Color.TRANSPARENT) {
             canvas.drawCircle(mDrawableRect.centerX(), mDrawableRect.centerY(), mDrawableRadius, mFillPaint);
         }
@@ -184,7 +216,7 @@ public class CircleImageView extends ImageView {
 
         mBorderColor = borderColor;
         mBorderPaint.setColor(mBorderColor);
-        invalidate();
+        invalidateAvatar();
     }
 
     /**
@@ -223,7 +255,7 @@ public class CircleImageView extends ImageView {
 
         mFillColor = fillColor;
         mFillPaint.setColor(fillColor);
-        invalidate();
+        invalidateAvatar();
     }
 
     /**
@@ -266,6 +298,22 @@ public class CircleImageView extends ImageView {
         setup();
     }
 
+    public boolean isPrerender() {
+        return mPrerender;
+    }
+
+    /**
+     * 设置是否预渲染圆形头像，适合列表中大量头像反复绑定的场景
+     */
+    public void setPrerender(boolean prerender) {
+        if (prerender == mPrerender) {
+            return;
+        }
+
+        mPrerender = prerender;
+        setup();
+    }
+
     public boolean isDisableCircularTransformation() {
         return mDisableCircularTransformation;
     }
@@ -303,6 +351,20 @@ public class CircleImageView extends ImageView {
         initializeBitmap();
     }
 
+    /**
+     * 在后台按控件尺寸解码头像，见{@link AvatarLoader}
+     */
+    public void loadAvatar(Uri uri) {
+        AvatarLoader.getInstance(getContext()).load(uri, this);
+    }
+
+    /**
+     * 取消未完成的头像加载，列表中控件被回收时调用
+     */
+    public void cancelAvatar() {
+        AvatarLoader.getInstance(getContext()).cancel(this);
+    }
+
     @Override
     public void setColorFilter(ColorFilter cf) {
         if (cf == mColorFilter) {
@@ -311,7 +373,7 @@ public class CircleImageView extends ImageView {
 
         mColorFilter = cf;
         applyColorFilter();
-        invalidate();
+        invalidateAvatar();
     }
 
     @Override
@@ -335,12 +397,24 @@ public class CircleImageView extends ImageView {
         }
 
         try {
-            Bitmap bitmap;
+            int width;
+            int height;
 
             if (drawable instanceof ColorDrawable) {
-                bitmap = Bitmap.createBitmap(COLORDRAWABLE_DIMENSION, COLORDRAWABLE_DIMENSION, BITMAP_CONFIG);
+                width = COLORDRAWABLE_DIMENSION;
+                height = COLORDRAWABLE_DIMENSION;
+            } else {
+                width = drawable.getIntrinsicWidth();
+                height = drawable.getIntrinsicHeight();
+            }
+
+            //尺寸相同时清空后重画，eraseColor会更新generationId，缓存的旧头像不会再命中
+            Bitmap bitmap = mDrawableBitmap;
+            if (bitmap != null && !bitmap.isRecycled() && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                bitmap.eraseColor(Color.TRANSPARENT);
             } else {
-                bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), BITMAP_CONFIG);
+                bitmap = Bitmap.createBitmap(width, height, BITMAP_CONFIG);
+                mDrawableBitmap = bitmap;
             }
 
             Canvas canvas = new Canvas(bitmap);
@@ -373,28 +447,19 @@ public class CircleImageView extends ImageView {
         }
 
         if (mBitmap == null) {
+            mAvatar = null;
             invalidate();
             return;
         }
 
-        mBitmapShader = new BitmapShader(mBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
-
-        mBitmapPaint.setAntiAlias(true);
-        mBitmapPaint.setShader(mBitmapShader);
-
-        mBorderPaint.setStyle(Paint.Style.STROKE);
-        mBorderPaint.setAntiAlias(true);
         mBorderPaint.setColor(mBorderColor);
         mBorderPaint.setStrokeWidth(mBorderWidth);
-
-        mFillPaint.setStyle(Paint.Style.FILL);
-        mFillPaint.setAntiAlias(true);
         mFillPaint.setColor(mFillColor);
 
         mBitmapHeight = mBitmap.getHeight();
         mBitmapWidth = mBitmap.getWidth();
 
-        mBorderRect.set(calculateBounds());
+        calculateBounds(mBorderRect);
         mBorderRadius = Math.min((mBorderRect.height() - mBorderWidth) / 2.0f, (mBorderRect.width() - mBorderWidth) / 2.0f);
 
         mDrawableRect.set(mBorderRect);
@@ -403,12 +468,79 @@ public class CircleImageView extends ImageView {
         }
         mDrawableRadius = Math.min(mDrawableRect.height() / 2.0f, mDrawableRect.width() / 2.0f);
 
+        mAvatar = mPrerender ? obtainAvatar() : null;
+        if (mAvatar == null) {
+            updateShader();
+        }
+        invalidate();
+    }
+
+    /**
+     * 参数变化后重新查找预渲染的头像，没有开启预渲染时只需要重画
+     */
+    private void invalidateAvatar() {
+        if (mPrerender) {
+            setup();
+        } else {
+            invalidate();
+        }
+    }
+
+    /**
+     * 原图变化时才创建新的shader，只更新变换矩阵
+     */
+    private void updateShader() {
+        if (mBitmapShader == null || mShaderBitmap != mBitmap) {
+            mBitmapShader = new BitmapShader(mBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mShaderBitmap = mBitmap;
+            mBitmapPaint.setShader(mBitmapShader);
+        }
         applyColorFilter();
         updateShaderMatrix();
-        invalidate();
     }
 
-    private RectF calculateBounds() {
+    /**
+     * 从缓存取预渲染的头像，没有时画好放入缓存
+     * ColorFilter只作用于图片不作用于边框，硬件bitmap不能画到软件Canvas上，这两种情况返回null
+     */
+    private Bitmap obtainAvatar() {
+        if (mColorFilter != null || BitmapConfigs.isHardware(mBitmap)) {
+            return null;
+        }
+        int size = (int) mBorderRect.width();
+        if (size <= 0) {
+            return null;
+        }
+
+        AvatarCache cache = AvatarCache.getInstance();
+        mAvatarKey.set(mBitmap, size, mBorderWidth, mBorderColor, mFillColor, mBorderOverlay);
+        Bitmap avatar = cache.get(mAvatarKey);
+        if (avatar == null) {
+            updateShader();
+            avatar = Bitmap.createBitmap(size, size, BITMAP_CONFIG);
+            Canvas canvas = new Canvas(avatar);
+            canvas.translate(-mBorderRect.left, -mBorderRect.top);
+            drawCircles(canvas);
+            cache.put(mAvatarKey, avatar);
+        }
+        return avatar;
+    }
+
+    /**
+     * 当前使用的预渲染头像，测试中检查缓存复用
+     */
+    Bitmap getAvatar() {
+        return mAvatar;
+    }
+
+    /**
+     * 当前使用的shader，测试中检查shader复用
+     */
+    BitmapShader getBitmapShader() {
+        return mBitmapShader;
+    }
+
+    private void calculateBounds(RectF bounds) {
         int availableWidth  = getWidth() - getPaddingLeft() - getPaddingRight();
         int availableHeight = getHeight() - getPaddingTop() - getPaddingBottom();
 
@@ -417,7 +549,7 @@ public class CircleImageView extends ImageView {
         float left = getPaddingLeft() + (availableWidth - sideLength) / 2f;
         float top = getPaddingTop() + (availableHeight - sideLength) / 2f;
 
-        return new RectF(left, top, left + sideLength, top + sideLength);
+        bounds.set(left, top, left + sideLength, top + sideLength);
     }
 
     private void updateShaderMatrix() {
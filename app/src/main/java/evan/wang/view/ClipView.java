@@ -5,26 +5,27 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
+import android.graphics.Path;
 import android.graphics.Rect;
-import android.graphics.Xfermode;
 import android.os.Build;
 import android.support.annotation.RequiresApi;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
-import android.util.Log;
 import android.view.View;
 import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.RelativeLayout;
 
 import evan.wang.R;
+import evan.wang.util.ClipMetrics;
 
 /**
  * 头像上传裁剪框
  */
 public class ClipView extends View {
+    //遮罩颜色
+    private static final int MASK_COLOR = 0xa8000000;
+    //画遮罩的画笔
     private Paint paint = new Paint();
     //画裁剪区域边框的画笔
     private Paint borderPaint = new Paint();
@@ -42,7 +43,10 @@ public class ClipView extends View {
     private int clipWidth;
     //裁剪框类别，（圆形、矩形），默认为圆形
     private ClipType clipType = ClipType.CIRCLE;
-    private Xfermode xfermode;
+    //遮罩路径，整个控件的矩形加上中间的裁剪框，EVEN_ODD填充后裁剪框内部透明
+    private final Path maskPath = new Path();
+    //尺寸或裁剪框类别变化后需要重建遮罩路径
+    private boolean maskDirty = true;
 
 
     public ClipView(Context context) {
@@ -57,11 +61,13 @@ public class ClipView extends View {
         super(context, attrs, defStyle);
         //去锯齿
         paint.setAntiAlias(true);
+        paint.setStyle(Style.FILL);
+        paint.setColor(MASK_COLOR);
+        maskPath.setFillType(Path.FillType.EVEN_ODD);
         borderPaint.setStyle(Style.STROKE);
         borderPaint.setColor(Color.WHITE);
         borderPaint.setStrokeWidth(clipBorderWidth);
         borderPaint.setAntiAlias(true);
-        xfermode = new PorterDuffXfermode(PorterDuff.Mode.DST_OUT);
 
         this.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
             @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN)
@@ -76,50 +82,58 @@ public class ClipView extends View {
                             .setBorderWidth(5)
                             .setBorderColor(R.color.common_red_color)
                             .create();
-                    Log.d("ClipView", "onGlobalLayout innerView");
+                    if (ClipMetrics.isEventEnabled()) {
+                        ClipMetrics.event("ClipView", "onGlobalLayout innerView");
+                    }
                 }
                 ClipView.this.getViewTreeObserver().removeOnGlobalLayoutListener(this);
             }
         });
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        maskDirty = true;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        int LAYER_FLAGS = Canvas.MATRIX_SAVE_FLAG | Canvas.CLIP_SAVE_FLAG
-                | Canvas.HAS_ALPHA_LAYER_SAVE_FLAG | Canvas.FULL_COLOR_LAYER_SAVE_FLAG
-                | Canvas.CLIP_TO_LAYER_SAVE_FLAG;
-        //通过Xfermode的DST_OUT来产生中间的透明裁剪区域，一定要另起一个Layer（层）
-        canvas.saveLayer(0, 0, this.getWidth(), this.getHeight(), null, LAYER_FLAGS);
-        //设置背景
-        canvas.drawColor(Color.parseColor("#a8000000"));
-//        canvas.drawColor(getResources().getColor(R.color.colorAccent));
-        paint.setXfermode(xfermode);
+        if (maskDirty) {
+            buildMask();
+        }
+        //一次填充画出带透明裁剪区域的遮罩，不需要另起图层，也不需要DST_OUT
+        canvas.drawPath(maskPath, paint);
         //绘制圆形裁剪框
         if (clipType == ClipType.CIRCLE) {
-            //中间的透明的圆
-            canvas.drawCircle(this.getWidth() / 2, this.getHeight() / 2, clipRadiusWidth, paint);
             //白色的圆边框
             canvas.drawCircle(this.getWidth() / 2, this.getHeight() / 2, clipRadiusWidth, borderPaint);
-        } else if (clipType == ClipType.RECTANGLE) { //绘制矩形裁剪框
-            //绘制中间的矩形
-            int beginX = 0;
-            int endX = this.getWidth();
+        } else if (clipType == ClipType.RECTANGLE) { //绘制白色的矩形边框
+            canvas.drawRect(clipRect, borderPaint);
+        }
+    }
+
+    /**
+     * 重建遮罩路径，只在尺寸、间距或裁剪框类别变化后执行
+     */
+    private void buildMask() {
+        maskDirty = false;
+        maskPath.reset();
+        maskPath.addRect(0, 0, this.getWidth(), this.getHeight(), Path.Direction.CW);
+        if (clipType == ClipType.CIRCLE) {
+            //中间的透明的圆
+            maskPath.addCircle(this.getWidth() / 2, this.getHeight() / 2, clipRadiusWidth, Path.Direction.CW);
+        } else if (clipType == ClipType.RECTANGLE) {
+            //中间的透明的矩形，宽高比16:9
             int rectangleWidth = this.getWidth();
             int rectangleHeight = 9 * rectangleWidth / 16;
             int beginY = (this.getHeight() - rectangleHeight) / 2;
-            Log.d("ClipView", "ClipView onDraw beginX : " + beginX + "     endX : " + endX +
-                    "      rectangleWidth : " + rectangleWidth + "      rectangleHeight : " + rectangleHeight +
-                    "      beginY : " + beginY + "      this.getHeight() : " + this.getHeight() + "      clipWidth : " + clipWidth);
-            canvas.drawRect(mHorizontalPadding, beginY,
-                    rectangleWidth - mHorizontalPadding, beginY + rectangleHeight , paint);
-            //绘制白色的矩形边框
-            clipRect.set((int)mHorizontalPadding, beginY,
-                    (int)(rectangleWidth - mHorizontalPadding), beginY + rectangleHeight);
-            canvas.drawRect(clipRect, borderPaint);
+            clipRect.set((int) mHorizontalPadding, beginY,
+                    (int) (rectangleWidth - mHorizontalPadding), beginY + rectangleHeight);
+            maskPath.addRect(mHorizontalPadding, beginY,
+                    rectangleWidth - mHorizontalPadding, beginY + rectangleHeight, Path.Direction.CW);
         }
-        //出栈，恢复到之前的图层，意味着新建的图层会被删除，新建图层上的内容会被绘制到canvas (or the previous layer)
-        canvas.restore();
     }
 
     /**
@@ -129,6 +143,16 @@ public class ClipView extends View {
      */
     public Rect getClipRect() {
         Rect rect = new Rect();
+        getClipRect(rect);
+        return rect;
+    }
+
+    /**
+     * 获取裁剪区域的Rect，结果写入outRect，不分配新对象
+     *
+     * @param outRect
+     */
+    public void getClipRect(Rect outRect) {
 //        //宽度的一半 - 圆的半径
 //        rect.left = (this.getWidth() / 2 - clipRadiusWidth);
 //        //宽度的一半 + 圆的半径
@@ -137,12 +161,11 @@ public class ClipView extends View {
 //        rect.top = (this.getHeight() / 2 - clipRadiusWidth);
 //        //高度的一半 + 圆的半径
 //        rect.bottom = (this.getHeight() / 2 + clipRadiusWidth);
-        rect.left = 0;
-        rect.right = this.getWidth();
+        outRect.left = 0;
+        outRect.right = this.getWidth();
         int rectangleHeight = 9 * this.getWidth() / 16;
-        rect.top = (this.getHeight() - rectangleHeight) / 2;
-        rect.bottom = this.getHeight() - rect.top;
-        return rect;
+        outRect.top = (this.getHeight() - rectangleHeight) / 2;
+        outRect.bottom = this.getHeight() - outRect.top;
     }
 
     /**
@@ -165,6 +188,8 @@ public class ClipView extends View {
         this.mHorizontalPadding = mHorizontalPadding;
         this.clipRadiusWidth = (int) (getScreenWidth(getContext()) - 2 * mHorizontalPadding) / 2;
         this.clipWidth = clipRadiusWidth * 2;
+        maskDirty = true;
+        invalidate();
     }
 
     /**
@@ -201,6 +226,8 @@ public class ClipView extends View {
      */
     public void setClipType(ClipType clipType) {
         this.clipType = clipType;
+        maskDirty = true;
+        invalidate();
     }
 
     /**
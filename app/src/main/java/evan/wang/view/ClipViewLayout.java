@@ -1,36 +1,55 @@
 package evan.wang.view;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
-import android.graphics.PointF;
 import android.graphics.Rect;
-import android.graphics.RectF;
-import android.graphics.drawable.Drawable;
 import android.media.ExifInterface;
 import android.net.Uri;
-import android.text.TextUtils;
+import android.os.SystemClock;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.util.TypedValue;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewTreeObserver;
 import android.widget.ImageView;
+import android.widget.OverScroller;
 import android.widget.RelativeLayout;
 
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
 
 import evan.wang.R;
-
-import static evan.wang.util.FileUtil.getRealFilePathFromUri;
+import evan.wang.core.CropMapper;
+import evan.wang.core.CropMetrics;
+import evan.wang.core.DecodePlanner;
+import evan.wang.core.ExifOrientation;
+import evan.wang.core.ImageHeader;
+import evan.wang.core.Raster;
+import evan.wang.core.Resampler;
+import evan.wang.core.SampleSize;
+import evan.wang.core.TouchGesture;
+import evan.wang.core.TransformModel;
+import evan.wang.util.BitmapPool;
+import evan.wang.util.ClipExecutors;
+import evan.wang.util.ClipMetrics;
+import evan.wang.util.ImageSource;
+import evan.wang.util.RasterUtil;
+import evan.wang.util.RegionDecodeUtil;
 
 /**
  * 头像上传原图裁剪容器
  */
 public class ClipViewLayout extends RelativeLayout {
+    private static final String TAG = "ClipViewLayout";
     //裁剪原图
     private ImageView imageView;
     //裁剪框
@@ -39,32 +58,77 @@ public class ClipViewLayout extends RelativeLayout {
     private float mHorizontalPadding;
     //裁剪框垂直方向间距，计算得出
     private float mVerticalPadding;
-    //图片缩放、移动操作矩阵
+    //图片缩放、移动操作矩阵，由transform同步而来
     private Matrix matrix = new Matrix();
-    //图片原来已经缩放、移动过的操作矩阵
-    private Matrix savedMatrix = new Matrix();
-    //动作标志：无
-    private static final int NONE = 0;
-    //动作标志：拖动
-    private static final int DRAG = 1;
-    //动作标志：缩放
-    private static final int ZOOM = 2;
-    //初始化动作标志
-    private int mode = NONE;
-    //记录起始坐标
-    private PointF start = new PointF();
-    //记录缩放时两指中间点坐标
-    private PointF mid = new PointF();
-    private float oldDist = 1f;
+    //图片手势变换模型，拖动、缩放和边界检测都在模型中计算
+    private final TransformModel transform = new TransformModel();
+    //拖动和双指缩放的状态机
+    private final TouchGesture gesture = new TouchGesture(transform);
+    //显示方式
+    private RenderMode renderMode = RenderMode.MATRIX;
+    //API 26以上底图是否解码为硬件bitmap
+    private boolean hardwareBitmap = true;
+    //VIEW_PROPERTIES方式下ImageView固定使用的图片矩阵，换图后重新取当前矩阵
+    private final float[] baseValues = new float[9];
+    private boolean baseValid;
     //用于存放矩阵的9个值
     private final float[] matrixValues = new float[9];
+    //裁剪框位置，布局变化时更新，手势过程中不再重复计算
+    private final Rect clipRect = new Rect();
+    //松手后的惯性滑动和回弹
+    private OverScroller scroller;
+    //拖动速度
+    private VelocityTracker velocityTracker;
+    private int minFlingVelocity;
+    private int maxFlingVelocity;
+    //拖动超出边界的最大距离，也是惯性滑动越过边界的距离
+    private int overscrollDistance;
+    //上一帧的滚动位置，每帧只平移两帧之间的差值
+    private int lastScrollX;
+    private int lastScrollY;
+    //不超出边界时允许的平移范围
+    private final float[] translationRange = new float[4];
     //最小缩放比例
     private float minScale;
 
     private float normalScale;
 
-    //最大缩放比例
+    //相对初始比例的最大放大倍数
     private float maxScale = 4;
+    //显示底图的解码计划，按进程可用内存计算预算
+    private DecodePlanner decodePlanner;
+    //当前图片的解码计划
+    private DecodePlanner.Plan decodePlan;
+    //裁剪输出的最大宽高，输出保持裁剪区域的宽高比
+    private int outputWidth = 640;
+    private int outputHeight = 360;
+    //裁剪输出缩放使用的滤波器
+    private Resampler.Filter resampleFilter = Resampler.Filter.LANCZOS3;
+    //原图，裁剪和分块显示时从原图解码
+    private ImageSource source;
+    //原图文件的宽高
+    private final int[] srcSize = new int[2];
+    //原图的EXIF方向，已合并到显示矩阵中
+    private int orientation;
+    //解码出的bitmap的宽高（未旋转）
+    private int bitmapWidth;
+    private int bitmapHeight;
+    //当前的后台解码任务
+    private SrcDecodeTask decodeTask;
+    //图片加载监听
+    private OnImageLoadListener onImageLoadListener;
+    //大图分块显示层，未开启时为null
+    private TileLayer tileLayer;
+    //正在显示的预览图，原图解码完成后替换并放回BitmapPool
+    private Bitmap previewBitmap;
+    //首帧监听
+    private OnFirstPixelListener onFirstPixelListener;
+    //initSrcPic的时间，用于统计首帧耗时
+    private long loadStartTime;
+    //已设置第一张bitmap，等待下一次绘制时回调首帧
+    private boolean firstPixelPending;
+    private boolean firstPixelPreview;
+    private Uri firstPixelUri;
 
 
     public ClipViewLayout(Context context) {
@@ -93,9 +157,26 @@ public class ClipViewLayout extends RelativeLayout {
                 (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1, getResources().getDisplayMetrics()));
         //裁剪框类型(圆或者矩形)
         int clipType = array.getInt(R.styleable.ClipViewLayout_clipType, 1);
+        //是否开启大图分块显示
+        boolean tiledMode = array.getBoolean(R.styleable.ClipViewLayout_tiledMode, false);
+        //显示方式
+        int renderModeIndex = array.getInt(R.styleable.ClipViewLayout_renderMode, 0);
+        //底图是否使用硬件bitmap
+        hardwareBitmap = array.getBoolean(R.styleable.ClipViewLayout_hardwareBitmap, true);
+        //裁剪输出的最大宽高
+        outputWidth = array.getInt(R.styleable.ClipViewLayout_outputWidth, outputWidth);
+        outputHeight = array.getInt(R.styleable.ClipViewLayout_outputHeight, outputHeight);
 
         //回收
         array.recycle();
+        scroller = new OverScroller(context);
+        ViewConfiguration configuration = ViewConfiguration.get(context);
+        minFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        maxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+        overscrollDistance = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 48,
+                getResources().getDisplayMetrics());
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        decodePlanner = DecodePlanner.forMemoryClass(activityManager.getMemoryClass()).setMaxZoom(maxScale);
         clipView = new ClipView(context);
         //设置裁剪框类型
         clipView.setClipType(clipType == 1 ? ClipView.ClipType.CIRCLE : ClipView.ClipType.RECTANGLE);
@@ -111,6 +192,110 @@ public class ClipViewLayout extends RelativeLayout {
 //        imageView.setBackgroundColor(getResources().getColor(R.color.colorPrimary));
         this.addView(imageView, lp);
         this.addView(clipView, lp);
+        setTiledMode(tiledMode);
+        setRenderMode(RenderMode.values()[renderModeIndex]);
+    }
+
+    /**
+     * 设置拖动、缩放时图片的显示方式，裁剪结果与显示方式无关
+     */
+    public void setRenderMode(RenderMode renderMode) {
+        if (renderMode == this.renderMode) {
+            return;
+        }
+        this.renderMode = renderMode;
+        //缩放后图片会画到ImageView的范围之外
+        setClipChildren(renderMode == RenderMode.MATRIX);
+        imageView.setPivotX(0);
+        imageView.setPivotY(0);
+        imageView.setScaleX(1);
+        imageView.setScaleY(1);
+        imageView.setTranslationX(0);
+        imageView.setTranslationY(0);
+        baseValid = false;
+        applyMatrix();
+    }
+
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    /**
+     * 设置API 26以上底图是否解码为硬件bitmap，下次setImageSrc时生效
+     * 硬件bitmap不占用Java堆，裁剪和分块都从原图解码，不受影响；窗口未开启硬件加速时总是使用软件bitmap
+     */
+    public void setHardwareBitmapEnabled(boolean enabled) {
+        hardwareBitmap = enabled;
+    }
+
+    public boolean isHardwareBitmapEnabled() {
+        return hardwareBitmap;
+    }
+
+    /**
+     * 设置是否开启大图分块显示
+     * 开启后放大到底图清晰度不够时，在后台按可见区域分块从原图解码高清图，分块缓存大小只与控件尺寸有关
+     */
+    public void setTiledMode(boolean tiledMode) {
+        if (tiledMode == (tileLayer != null)) {
+            return;
+        }
+        if (tiledMode) {
+            tileLayer = new TileLayer(getContext());
+            //分块层位于原图和裁剪框之间
+            addView(tileLayer, indexOfChild(imageView) + 1, new LayoutParams(
+                    android.view.ViewGroup.LayoutParams.MATCH_PARENT,
+                    android.view.ViewGroup.LayoutParams.MATCH_PARENT));
+            if (source != null) {
+                tileLayer.setSource(source, srcSize[0], srcSize[1], bitmapWidth, bitmapHeight);
+                tileLayer.setDisplayMatrix(matrix);
+            }
+        } else {
+            tileLayer.clear();
+            removeView(tileLayer);
+            tileLayer = null;
+        }
+    }
+
+    /**
+     * 把当前矩阵应用到原图和分块层
+     */
+    private void applyMatrix() {
+        transform.getValues(matrixValues);
+        matrix.setValues(matrixValues);
+        if (renderMode == RenderMode.VIEW_PROPERTIES) {
+            applyViewProperties();
+        } else {
+            imageView.setImageMatrix(matrix);
+        }
+        if (tileLayer != null) {
+            tileLayer.setDisplayMatrix(matrix);
+        }
+    }
+
+    /**
+     * 图片矩阵固定为基准矩阵，当前矩阵相对基准的缩放和平移设置为ImageView的scaleX/Y、translationX/Y
+     * <p/>
+     * 拖动和缩放都是在基准矩阵之后等比缩放、平移，相对基准总是scale + translate的形式，EXIF方向留在基准矩阵中。
+     * 开启硬件加速时这些属性由RenderThread直接变换已录制的绘制指令，每个事件不需要重新录制ImageView的绘制。
+     */
+    private void applyViewProperties() {
+        if (!baseValid) {
+            System.arraycopy(matrixValues, 0, baseValues, 0, 9);
+            imageView.setImageMatrix(matrix);
+            baseValid = true;
+        }
+        float scale = scaleOf(matrixValues) / scaleOf(baseValues);
+        imageView.setScaleX(scale);
+        imageView.setScaleY(scale);
+        imageView.setTranslationX(matrixValues[Matrix.MTRANS_X] - scale * baseValues[Matrix.MTRANS_X]);
+        imageView.setTranslationY(matrixValues[Matrix.MTRANS_Y] - scale * baseValues[Matrix.MTRANS_Y]);
+    }
+
+    private static float scaleOf(float[] values) {
+        float x = values[Matrix.MSCALE_X];
+        float y = values[Matrix.MSKEW_Y];
+        return (float) Math.sqrt(x * x + y * y);
     }
 
 
@@ -118,6 +303,10 @@ public class ClipViewLayout extends RelativeLayout {
      * 初始化图片
      */
     public void setImageSrc(final Uri uri) {
+        if (imageView.getWidth() > 0 && imageView.getHeight() > 0) {
+            initSrcPic(uri);
+            return;
+        }
         //需要等到imageView绘制完毕再初始化原图
         ViewTreeObserver observer = imageView.getViewTreeObserver();
         observer.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
@@ -128,81 +317,233 @@ public class ClipViewLayout extends RelativeLayout {
         });
     }
 
+    /**
+     * 设置裁剪输出的最大宽高，输出保持裁剪区域的宽高比
+     */
+    public void setOutputSize(int maxWidth, int maxHeight) {
+        this.outputWidth = maxWidth;
+        this.outputHeight = maxHeight;
+    }
+
+    /**
+     * 设置裁剪输出缩放使用的滤波器，默认为Lanczos
+     */
+    public void setResampleFilter(Resampler.Filter filter) {
+        this.resampleFilter = filter;
+    }
+
+    /**
+     * 当前图片的解码计划（采样率、Bitmap.Config和预计字节数），图片未加载时为null
+     */
+    public DecodePlanner.Plan getDecodePlan() {
+        return decodePlan;
+    }
+
+    /**
+     * 设置图片加载监听
+     */
+    public void setOnImageLoadListener(OnImageLoadListener onImageLoadListener) {
+        this.onImageLoadListener = onImageLoadListener;
+    }
+
+    /**
+     * 设置首帧监听，统计从setImageSrc到第一次画出图片（预览图或原图）的耗时
+     */
+    public void setOnFirstPixelListener(OnFirstPixelListener onFirstPixelListener) {
+        this.onFirstPixelListener = onFirstPixelListener;
+    }
+
     /**
      * 初始化图片
-     * step 1: decode 出 720*1280 左右的照片  因为原图可能比较大 直接加载出来会OOM
-     * step 2: 将图片缩放 移动到imageView 中间
+     * 解码在后台线程执行，之前未完成的解码任务会被取消，完成后在UI线程设置bitmap和初始矩阵
      */
     public void initSrcPic(Uri uri) {
         if (uri == null) {
             return;
         }
-        Log.d("evan", "**********clip_view uri*******  " + uri);
-        String path = getRealFilePathFromUri(getContext(), uri);
-        Log.d("evan", "**********clip_view path*******  " + path);
-        if (TextUtils.isEmpty(path)) {
-            return;
+        cancelDecode();
+        if (tileLayer != null) {
+            tileLayer.clear();
         }
+        decodeTask = new SrcDecodeTask(getContext(), uri, imageView.getWidth(), imageView.getHeight(),
+                clipView.getClipRect(), decodePlanner, hardwareBitmap && isHardwareAccelerated(), decodeCallback);
+        decodeTask.submit(ClipExecutors.decode());
+        loadStartTime = SystemClock.uptimeMillis();
+        firstPixelUri = uri;
+        firstPixelPending = false;
+        if (onImageLoadListener != null) {
+            onImageLoadListener.onLoading(uri);
+        }
+    }
 
-        //这里decode出720*1280 左右的照片,防止OOM
-        Bitmap bitmap = decodeSampledBitmap(path, 720, 1280);
-        if (bitmap == null) {
-            return;
+    /**
+     * 关闭当前的原图，分块层已创建的解码器不受影响
+     */
+    private void closeSource() {
+        if (source != null) {
+            source.close();
+            source = null;
         }
+    }
 
-        //竖屏拍照的照片，直接使用的话，会旋转90度，下面代码把角度旋转过来
-        int rotation = getExifOrientation(path); //查询旋转角度
-        Matrix m = new Matrix();
-        m.setRotate(rotation);
-        bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), m, true);
-
-        //图片的缩放比
-        float scale;
-        if (bitmap.getWidth() >= bitmap.getHeight()) {//宽图
-            scale = (float) imageView.getWidth() / bitmap.getWidth();
-            //如果高缩放后小于裁剪区域 则将裁剪区域与高的缩放比作为最终的缩放比
-            Rect rect = clipView.getClipRect();
-            //高的最小缩放比
-            minScale = rect.height() / (float) bitmap.getHeight();
-            if (scale < minScale) {
-                scale = minScale;
-            }
-            Log.d("ClipViewLayout", "clip scale scale : scale : " + scale + "      minScale : " + minScale);
-        } else {//高图
-            //高的缩放比
-            scale = (float) imageView.getHeight() / bitmap.getHeight();
-            //如果宽缩放后小于裁剪区域 则将裁剪区域与宽的缩放比作为最终的缩放比
-            Rect rect = clipView.getClipRect();
-            //宽的最小缩放比
-            minScale = rect.width() / (float) bitmap.getWidth();
-            if (scale < minScale) {
-                scale = minScale;
-            }
+    /**
+     * 取消正在进行的解码
+     */
+    private void cancelDecode() {
+        if (decodeTask != null) {
+            decodeTask.cancel();
+            decodeTask = null;
         }
-        normalScale = scale;
-        // 缩放
-        matrix.postScale(scale, scale);
-        // 平移,将缩放后的图片平移到imageview的中心
-        //imageView的中心x
-        int midX = imageView.getWidth() / 2;
-        //imageView的中心y
-        int midY = imageView.getHeight() / 2;
-        //bitmap的中心x
-        int imageMidX = (int) (bitmap.getWidth() * scale / 2);
-        //bitmap的中心y
-        int imageMidY = (int) (bitmap.getHeight() * scale / 2);
-        matrix.postTranslate(midX - imageMidX, midY - imageMidY);
+    }
+
+    /**
+     * 显示新的bitmap，之前的预览图放回BitmapPool
+     */
+    private void showBitmap(Bitmap bitmap, boolean preview) {
+        baseValid = false;
+        Bitmap oldPreview = previewBitmap;
+        previewBitmap = preview ? bitmap : null;
         imageView.setScaleType(ImageView.ScaleType.MATRIX);
-        imageView.setImageMatrix(matrix);
         imageView.setImageBitmap(bitmap);
-        Log.d("ClipViewLayout", "clip scale initSrcPic : minScale : " + minScale + "      scale : " + scale);
+        if (oldPreview != null && oldPreview != bitmap) {
+            BitmapPool.getInstance().put(oldPreview);
+        }
+        if (firstPixelUri != null && !firstPixelPending) {
+            firstPixelPending = true;
+            firstPixelPreview = preview;
+            invalidate();
+        }
+    }
+
+    private final SrcDecodeTask.Callback decodeCallback = new SrcDecodeTask.Callback() {
+        @Override
+        public void onPreviewReady(SrcDecodeTask task, SrcDecodeTask.Result result) {
+            if (task != decodeTask) {
+                BitmapPool.getInstance().put(result.bitmap);
+                return;
+            }
+            //预览期间可以拖动缩放，原图还没有打开，不能裁剪
+            stopSettle();
+            closeSource();
+            if (tileLayer != null) {
+                tileLayer.clear();
+            }
+            srcSize[0] = result.srcSize[0];
+            srcSize[1] = result.srcSize[1];
+            orientation = result.orientation;
+            decodePlan = result.plan;
+            bitmapWidth = result.bitmap.getWidth();
+            bitmapHeight = result.bitmap.getHeight();
+            minScale = result.minScale;
+            normalScale = result.normalScale;
+            result.matrix.getValues(matrixValues);
+            transform.setValues(matrixValues);
+            transform.setContentSize(bitmapWidth, bitmapHeight);
+            transform.setScaleRange(normalScale, normalScale * maxScale);
+            showBitmap(result.bitmap, true);
+            applyMatrix();
+        }
+
+        @Override
+        public void onDecodeReady(SrcDecodeTask task, SrcDecodeTask.Result result) {
+            //bitmap在缓存中，过期的结果直接丢弃，不回收
+            if (task != decodeTask) {
+                result.source.close();
+                return;
+            }
+            decodeTask = null;
+            closeSource();
+            source = result.source;
+            srcSize[0] = result.srcSize[0];
+            srcSize[1] = result.srcSize[1];
+            orientation = result.orientation;
+            decodePlan = result.plan;
+            bitmapWidth = result.bitmap.getWidth();
+            bitmapHeight = result.bitmap.getHeight();
+            minScale = result.minScale;
+            normalScale = result.normalScale;
+            if (previewBitmap != null) {
+                //已经显示了预览图，保留用户的拖动和缩放，只把矩阵换算到原图的像素上
+                transform.rescaleContent(bitmapWidth, bitmapHeight);
+            } else {
+                stopSettle();
+                result.matrix.getValues(matrixValues);
+                transform.setValues(matrixValues);
+                transform.setContentSize(bitmapWidth, bitmapHeight);
+            }
+            //缩小不能小于初始比例，放大不能超过初始比例的maxScale倍，与底图的采样率无关
+            transform.setScaleRange(normalScale, normalScale * maxScale);
+            showBitmap(result.bitmap, false);
+            if (tileLayer != null) {
+                tileLayer.setSource(source, srcSize[0], srcSize[1], bitmapWidth, bitmapHeight);
+            }
+            applyMatrix();
+            if (onImageLoadListener != null) {
+                onImageLoadListener.onReady(task.getUri());
+            }
+        }
+
+        @Override
+        public void onDecodeFailed(SrcDecodeTask task, Throwable error) {
+            if (task != decodeTask) {
+                return;
+            }
+            decodeTask = null;
+            if (onImageLoadListener != null) {
+                onImageLoadListener.onFailed(task.getUri(), error);
+            }
+        }
+    };
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        //手势过程中每一帧的绘制耗时
+        long start = gesture.getMode() != TouchGesture.NONE ? ClipMetrics.start() : 0;
+        super.dispatchDraw(canvas);
+        ClipMetrics.stop(CropMetrics.Timer.GESTURE_FRAME, start);
+        if (firstPixelPending) {
+            firstPixelPending = false;
+            Uri uri = firstPixelUri;
+            firstPixelUri = null;
+            long elapsedMs = SystemClock.uptimeMillis() - loadStartTime;
+            ClipMetrics.recordTime(CropMetrics.Timer.FIRST_FRAME, TimeUnit.MILLISECONDS.toNanos(elapsedMs));
+            if (ClipMetrics.isEventEnabled()) {
+                ClipMetrics.event(TAG, "first frame " + uri + ": " + elapsedMs + "ms, preview " + firstPixelPreview);
+            }
+            if (onFirstPixelListener != null) {
+                onFirstPixelListener.onFirstPixel(uri, elapsedMs, firstPixelPreview);
+            }
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelDecode();
+        stopSettle();
+        closeSource();
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
     }
 
     /**
      * 查询图片旋转角度
      */
     public static int getExifOrientation(String filepath) {// YOUR MEDIA PATH AS STRING
-        int degree = 0;
+        return ExifOrientation.toDegrees(getExifOrientationTag(filepath));
+    }
+
+    /**
+     * 查询图片的EXIF方向，包括镜像方向，取值为ExifInterface.ORIENTATION_*
+     */
+    public static int getExifOrientationTag(String filepath) {
+        //文件头中读到宽高时EXIF已经解析完，不再创建ExifInterface
+        ImageHeader header = readHeader(filepath);
+        if (header != null && header.hasSize()) {
+            return header.getOrientation();
+        }
         ExifInterface exif = null;
         try {
             exif = new ExifInterface(filepath);
@@ -210,112 +551,90 @@ public class ClipViewLayout extends RelativeLayout {
             ex.printStackTrace();
         }
         if (exif != null) {
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, -1);
-            if (orientation != -1) {
-                switch (orientation) {
-                    case ExifInterface.ORIENTATION_ROTATE_90:
-                        degree = 90;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_180:
-                        degree = 180;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_270:
-                        degree = 270;
-                        break;
-                }
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }
+        return ExifInterface.ORIENTATION_NORMAL;
+    }
 
+    /**
+     * 读取文件开头解析文件头，读取失败时返回null
+     */
+    private static ImageHeader readHeader(String filepath) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(filepath, "r");
+            return ImageHeader.read(file.getChannel());
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    //只读，忽略
+                }
             }
         }
-        return degree;
     }
 
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        float beginX = event.getX();
-        float beginY = event.getY();
-//        if (beginX > clipView.getIn)
         switch (event.getAction() & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_DOWN:
-                savedMatrix.set(matrix);
+                //按下时停止惯性滑动和回弹，从当前位置开始拖动
+                stopSettle();
+                if (velocityTracker == null) {
+                    velocityTracker = VelocityTracker.obtain();
+                } else {
+                    velocityTracker.clear();
+                }
+                velocityTracker.addMovement(event);
                 //设置开始点位置
-                start.set(event.getX(), event.getY());
-                mode = DRAG;
+                gesture.down(event.getX(), event.getY());
                 break;
             case MotionEvent.ACTION_POINTER_DOWN:
-                //开始放下时候两手指间的距离
-                oldDist = spacing(event);
-                if (oldDist > 10f) {
-                    savedMatrix.set(matrix);
-                    midPoint(mid, event);
-                    mode = ZOOM;
-                }
+                //开始放下时候两手指间的距离和中心
+                gesture.pointerDown(event.getX(0), event.getY(0), event.getX(1), event.getY(1));
                 break;
             case MotionEvent.ACTION_UP:
+                if (gesture.up() == TouchGesture.DRAG && velocityTracker != null) {
+                    velocityTracker.addMovement(event);
+                    velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+                    settle(velocityTracker.getXVelocity(), velocityTracker.getYVelocity());
+                } else {
+                    settle(0, 0);
+                }
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                gesture.up();
+                settle(0, 0);
                 break;
             case MotionEvent.ACTION_POINTER_UP:
-                mode = NONE;
+                gesture.pointerUp();
                 break;
             case MotionEvent.ACTION_MOVE:
-                if (mode == DRAG) { //拖动
-                    matrix.set(savedMatrix);
-                    float dx = event.getX() - start.x;
-                    float dy = event.getY() - start.y;
-                    mVerticalPadding = clipView.getClipRect().top;
-                    matrix.postTranslate(dx, dy);
-                    //检查边界
-                    Log.d("ClipViewLayout", "ClipViewLayout move 1 mVerticalPadding : " + mVerticalPadding);
-                    checkBorder();
-//                    checkBorderAndMove(dx, dy);
-                } else if (mode == ZOOM) { //缩放
-                    //缩放后两手指间的距离
-                    float newDist = spacing(event);
-                    Log.d("ClipViewLayout", "ClipViewLayout ZOOM 1");
-                    if (newDist > 10f) {
-                        //手势缩放比例
-                        float scale = newDist / oldDist;
-                        if (scale < 1) { //缩小
-                            if (getScale() > normalScale) {
-                                matrix.set(savedMatrix);
-                                mVerticalPadding = clipView.getClipRect().top;
-                                matrix.postScale(scale, scale, mid.x, mid.y);
-                                //缩放到最小范围下面去了，则返回到最小范围大小
-                                while (getScale() < normalScale) {
-                                    //返回到最小范围的放大比例
-                                    scale = 1 + 0.01F;
-                                    matrix.postScale(scale, scale, mid.x, mid.y);
-                                }
-                            }
-                            //边界检查
-                            checkBorder();
-                        } else { //放大
-                            if (getScale() <= maxScale) {
-                                matrix.set(savedMatrix);
-                                mVerticalPadding = clipView.getClipRect().top;
-                                matrix.postScale(scale, scale, mid.x, mid.y);
-                            }
-                        }
-                    }
+                if (velocityTracker != null) {
+                    velocityTracker.addMovement(event);
                 }
-                imageView.setImageMatrix(matrix);
+                //拖动出边界的部分带阻尼，松手后回弹；缩放结果直接限制在[normalScale, normalScale * maxScale]范围内
+                mVerticalPadding = clipRect.top;
+                gesture.setBorder(imageView.getWidth(), imageView.getHeight(),
+                        mHorizontalPadding, mVerticalPadding, overscrollDistance);
+                if (ClipMetrics.isEventEnabled() && gesture.getMode() == TouchGesture.DRAG) {
+                    ClipMetrics.event(TAG, "ClipViewLayout move 1 mVerticalPadding : " + mVerticalPadding);
+                }
+                if (event.getPointerCount() > 1) {
+                    gesture.move(event.getX(0), event.getY(0), event.getX(1), event.getY(1));
+                } else {
+                    gesture.move(event.getX(), event.getY(), event.getX(), event.getY());
+                }
+                applyMatrix();
                 break;
         }
         return true;
     }
 
-    /**
-     * 根据当前图片的Matrix获得图片的范围
-     */
-    private RectF getMatrixRectF(Matrix matrix) {
-        RectF rect = new RectF();
-        Drawable d = imageView.getDrawable();
-        if (null != d) {
-            rect.set(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
-            matrix.mapRect(rect);
-        }
-        return rect;
-    }
-
     private boolean checkXBorder(int dx){
         float deltaX = 0;
         float deltaY = 0;
@@ -344,86 +663,193 @@ public class ClipViewLayout extends RelativeLayout {
      * 边界检测
      */
     private void checkBorder() {
-        RectF rect = getMatrixRectF(matrix);
-        float deltaX = 0;
-        float deltaY = 0;
-        int width = imageView.getWidth();
-        int height = imageView.getHeight();
-        // 如果宽或高大于屏幕，则控制范围 ; 这里的0.001是因为精度丢失会产生问题，但是误差一般很小，所以我们直接加了一个0.01
-        if (rect.width() >= width - 2 * mHorizontalPadding) {
-            if (rect.left > mHorizontalPadding) {
-                deltaX = -rect.left + mHorizontalPadding;
-            }
-            if (rect.right < width - mHorizontalPadding) {
-                deltaX = width - mHorizontalPadding - rect.right;
+        transform.clampToBorder(imageView.getWidth(), imageView.getHeight(), mHorizontalPadding, mVerticalPadding);
+    }
+
+    /**
+     * 松手后开始惯性滑动；图片已拖出边界时改为回弹到边界内
+     */
+    private void settle(float velocityX, float velocityY) {
+        mVerticalPadding = clipRect.top;
+        transform.getTranslationRange(imageView.getWidth(), imageView.getHeight(),
+                mHorizontalPadding, mVerticalPadding, translationRange);
+        int minX = Math.round(translationRange[0]);
+        int maxX = Math.round(translationRange[1]);
+        int minY = Math.round(translationRange[2]);
+        int maxY = Math.round(translationRange[3]);
+        lastScrollX = 0;
+        lastScrollY = 0;
+        boolean started;
+        if (minX > 0 || maxX < 0 || minY > 0 || maxY < 0) {
+            started = scroller.springBack(0, 0, minX, maxX, minY, maxY);
+        } else {
+            //图片比裁剪区域小的方向不滑动
+            int vx = minX == maxX ? 0 : (int) velocityX;
+            int vy = minY == maxY ? 0 : (int) velocityY;
+            started = Math.abs(vx) >= minFlingVelocity || Math.abs(vy) >= minFlingVelocity;
+            if (started) {
+                scroller.fling(0, 0, vx, vy, minX, maxX, minY, maxY, overscrollDistance, overscrollDistance);
             }
         }
-        if (rect.height() >= height - 2 * mVerticalPadding) {
-            if (rect.top > mVerticalPadding) {
-                deltaY = -rect.top + mVerticalPadding;
-            }
-            if (rect.bottom < height - mVerticalPadding) {
-                deltaY = height - mVerticalPadding - rect.bottom;
-            }
+        if (started) {
+            ViewCompat.postOnAnimation(this, settleRunnable);
+        } else {
+            checkBorder();
+            applyMatrix();
         }
-
-        Rect imageRect = new Rect();
-        imageView.getHitRect(imageRect);
-        Log.d("ClipViewLayout", "ClipViewLayout move 2 imageRect : top : " + imageRect.top + "      left : " + imageRect.left +
-                "      bottom : " + imageRect.bottom + "      right : " + imageRect.right + "      view height : " + this.getHeight() + "      view width : " + this.getWidth());
-        Log.d("ClipViewLayout", "ClipViewLayout move 2 postTranslate");
-        matrix.postTranslate(deltaX, deltaY);
     }
 
     /**
-     * 获得当前的缩放比例
+     * 停止惯性滑动和回弹
      */
-    public final float getScale() {
-        matrix.getValues(matrixValues);
-        return matrixValues[Matrix.MSCALE_X];
+    private void stopSettle() {
+        scroller.forceFinished(true);
+        removeCallbacks(settleRunnable);
     }
 
-
     /**
-     * 多点触控时，计算最先放下的两指距离
+     * 惯性滑动和回弹的每一帧，只修改图片矩阵，不触发布局
      */
-    private float spacing(MotionEvent event) {
-        float x = event.getX(0) - event.getX(1);
-        float y = event.getY(0) - event.getY(1);
-        return (float) Math.sqrt(x * x + y * y);
-    }
+    private final Runnable settleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!scroller.computeScrollOffset()) {
+                //去掉取整带来的误差
+                checkBorder();
+                applyMatrix();
+                return;
+            }
+            int x = scroller.getCurrX();
+            int y = scroller.getCurrY();
+            transform.postTranslate(x - lastScrollX, y - lastScrollY);
+            lastScrollX = x;
+            lastScrollY = y;
+            applyMatrix();
+            ViewCompat.postOnAnimation(ClipViewLayout.this, this);
+        }
+    };
 
     /**
-     * 多点触控时，计算最先放下的两指中心坐标
+     * 获得当前的缩放比例
+     * 矩阵中包含EXIF方向的旋转或镜像，MSCALE_X可能为0或负数，这里取x轴方向向量的长度
      */
-    private void midPoint(PointF point, MotionEvent event) {
-        float x = event.getX(0) + event.getX(1);
-        float y = event.getY(0) + event.getY(1);
-        point.set(x / 2, y / 2);
+    public final float getScale() {
+        return transform.getScale();
     }
 
 
     /**
      * 获取剪切图
+     * 通过显示矩阵的逆矩阵把裁剪框映射回原图坐标，直接从原图文件解码该区域并输出为指定尺寸，
+     * 不再截取屏幕绘制缓存，输出清晰度不受屏幕分辨率限制
+     * <p/>
+     * 在调用线程中同步解码和缩放，大图耗时较长，UI线程中请使用{@link #clip(OnClipListener)}
      */
     public Bitmap clip() {
-        imageView.setDrawingCacheEnabled(true);
-        imageView.buildDrawingCache();
-        Rect rect = clipView.getClipRect();
-        Bitmap cropBitmap = null;
-        Bitmap zoomedCropBitmap = null;
+        ClipJob job = prepareClip();
+        if (job == null) {
+            return null;
+        }
         try {
-            cropBitmap = Bitmap.createBitmap(imageView.getDrawingCache(), rect.left, rect.top, rect.width(), rect.height());
-            zoomedCropBitmap = zoomBitmap(cropBitmap, 640, 360);
+            return job.run();
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
-        if (cropBitmap != null) {
-            cropBitmap.recycle();
+    }
+
+    /**
+     * 异步裁剪：在UI线程记录当前的裁剪区域，区域解码和缩放在后台线程执行，结果在UI线程回调
+     */
+    public void clip(final OnClipListener listener) {
+        final ClipJob job = prepareClip();
+        if (job == null) {
+            listener.onClipFailed(new IllegalStateException("No image to clip"));
+            return;
+        }
+        ClipExecutors.decode().execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                Throwable error = null;
+                try {
+                    bitmap = job.run();
+                    if (bitmap == null) {
+                        error = new IOException("Cannot decode region: " + job.source.getUri());
+                    }
+                } catch (Throwable e) {
+                    error = e;
+                }
+                final Bitmap result = bitmap;
+                final Throwable failure = error;
+                ClipExecutors.mainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure != null) {
+                            listener.onClipFailed(failure);
+                        } else {
+                            listener.onClipped(result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 在UI线程把裁剪框映射回原图坐标，计算输出尺寸，没有图片或裁剪框在图片外时返回null
+     */
+    private ClipJob prepareClip() {
+        if (source == null) {
+            return null;
+        }
+        Rect rect = clipView.getClipRect();
+        transform.getValues(matrixValues);
+        float[] clipBounds = new float[]{rect.left, rect.top, rect.right, rect.bottom};
+        int[] srcRect = new int[4];
+        if (!CropMapper.mapClipRect(matrixValues, clipBounds, bitmapWidth, bitmapHeight,
+                srcSize[0], srcSize[1], srcRect)) {
+            return null;
+        }
+        //保持裁剪区域（校正方向后）的宽高比，放入输出的最大宽高范围内
+        boolean swap = ExifOrientation.swapsDimensions(orientation);
+        int regionWidth = srcRect[2] - srcRect[0];
+        int regionHeight = srcRect[3] - srcRect[1];
+        int[] outSize = new int[2];
+        Resampler.fitSize(swap ? regionHeight : regionWidth, swap ? regionWidth : regionHeight,
+                outputWidth, outputHeight, outSize);
+        return new ClipJob(source, srcRect, orientation, outSize[0], outSize[1], resampleFilter);
+    }
+
+    /**
+     * 一次裁剪需要的参数，与控件之后的状态无关，可以在后台线程执行
+     */
+    private static class ClipJob {
+        final ImageSource source;
+        final int[] srcRect;
+        final int orientation;
+        final int outWidth;
+        final int outHeight;
+        final Resampler.Filter filter;
+
+        ClipJob(ImageSource source, int[] srcRect, int orientation, int outWidth, int outHeight,
+                Resampler.Filter filter) {
+            this.source = source;
+            this.srcRect = srcRect;
+            this.orientation = orientation;
+            this.outWidth = outWidth;
+            this.outHeight = outHeight;
+            this.filter = filter;
+        }
+
+        Bitmap run() throws IOException {
+            long start = ClipMetrics.start();
+            try {
+                return RegionDecodeUtil.decodeRegion(source, srcRect, orientation, outWidth, outHeight, filter);
+            } finally {
+                ClipMetrics.stop(CropMetrics.Timer.CROP, start);
+            }
         }
-        // 释放资源
-        imageView.destroyDrawingCache();
-        return zoomedCropBitmap;
     }
 
 
@@ -437,27 +863,48 @@ public class ClipViewLayout extends RelativeLayout {
      */
     public static Bitmap decodeSampledBitmap(String filePath, int reqWidth,
                                              int reqHeight) {
+        return decodeSampledBitmap(filePath, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * 图片等比例压缩
+     *
+     * @param filePath
+     * @param reqWidth  期望的宽
+     * @param reqHeight 期望的高
+     * @param outSrcSize 不为null时输出原图的宽高
+     * @return
+     */
+    public static Bitmap decodeSampledBitmap(String filePath, int reqWidth,
+                                             int reqHeight, int[] outSrcSize) {
 
-        // First decode with inJustDecodeBounds=true to check dimensions
         final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
         options.inPreferredConfig = Bitmap.Config.RGB_565;
-        //bitmap is null
-        Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
+        //先从文件头读取宽高，不支持的格式再用inJustDecodeBounds
+        ImageHeader header = readHeader(filePath);
+        if (header != null && header.hasSize()) {
+            options.outWidth = header.getWidth();
+            options.outHeight = header.getHeight();
+        } else {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(filePath, options);
+        }
+        if (outSrcSize != null) {
+            outSrcSize[0] = options.outWidth;
+            outSrcSize[1] = options.outHeight;
+        }
 
         // Calculate inSampleSize
         options.inSampleSize = calculateInSampleSize(options, reqWidth,
                 reqHeight);
 
-        // Decode bitmap with inSampleSize set
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(filePath, options);
+        // Decode bitmap with inSampleSize set, reusing a pooled bitmap when possible
+        return BitmapPool.getInstance().decodeFile(filePath, options);
     }
 
     /**
      * 计算InSampleSize
-     * 宽的压缩比和高的压缩比的较小值  取接近的2的次幂的值
-     * 比如宽的压缩比是3 高的压缩比是5 取较小值3  而InSampleSize必须是2的次幂，取接近的2的次幂4
+     * 解码后宽高都不小于期望宽高的最大2的次幂，部分解码器会把非2的次幂向下取整
      *
      * @param options
      * @param reqWidth
@@ -466,36 +913,7 @@ public class ClipViewLayout extends RelativeLayout {
      */
     public static int calculateInSampleSize(BitmapFactory.Options options,
                                             int reqWidth, int reqHeight) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-
-            // Calculate ratios of height and width to requested height and
-            // width
-            final int heightRatio = Math.round((float) height
-                    / (float) reqHeight);
-            final int widthRatio = Math.round((float) width / (float) reqWidth);
-
-            // Choose the smallest ratio as inSampleSize value, this will
-            // guarantee
-            // a final image with both dimensions larger than or equal to the
-            // requested height and width.
-            int ratio = heightRatio < widthRatio ? heightRatio : widthRatio;
-            // inSampleSize只能是2的次幂  将ratio就近取2的次幂的值
-            if (ratio < 3)
-                inSampleSize = ratio;
-            else if (ratio < 6.5)
-                inSampleSize = 4;
-            else if (ratio < 8)
-                inSampleSize = 8;
-            else
-                inSampleSize = ratio;
-        }
-
-        return inSampleSize;
+        return SampleSize.powerOfTwo(options.outWidth, options.outHeight, reqWidth, reqHeight);
     }
 
     /**
@@ -509,38 +927,85 @@ public class ClipViewLayout extends RelativeLayout {
      * @return 新Bitmap对象
      */
     public static Bitmap zoomBitmap(Bitmap bitmap, int w, int h) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Matrix matrix = new Matrix();
-        float scaleWidth = ((float) w / width);
-        float scaleHeight = ((float) h / height);
-        matrix.postScale(scaleWidth, scaleHeight);
-        Bitmap newBmp = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, false);
-        return newBmp;
+        Raster raster = Resampler.resize(RasterUtil.toRaster(bitmap), w, h, Resampler.Filter.LANCZOS3);
+        return RasterUtil.toBitmap(raster);
     }
 
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        int childCount = getChildCount();
-        int clipViewTop = 0;
         super.onLayout(changed, l, t, r, b);
+        //布局变化后更新缓存的裁剪框位置
+        clipView.getClipRect(clipRect);
+        int childCount = getChildCount();
         for (int i = 0; i < childCount; i++){
             View childView = getChildAt(i);
-            if (childView instanceof ClipView){
-                Rect rect = ((ClipView)childView).getClipRect();
-                if (rect != null) {
-                    clipViewTop = rect.top;
-                }
-            }
-            else if (childView instanceof InnerView && clipViewTop > 0){
+            if (childView instanceof InnerView && clipRect.top > 0){
                 //getMeasuredWidth的值来自于InnerView的onMeasure方法
                 int left = (this.getWidth() - childView.getMeasuredWidth()) / 2;
                 int right = (this.getWidth() + childView.getMeasuredHeight()) / 2;
-                int bottom = clipViewTop + clipView.getMeasuredHeight();
-                childView.layout(left, clipViewTop + 2, right, bottom);
+                int bottom = clipRect.top + clipView.getMeasuredHeight();
+                childView.layout(left, clipRect.top + 2, right, bottom);
                 break;
             }
         }
     }
+
+    /**
+     * 拖动、缩放时图片的显示方式
+     */
+    public enum RenderMode {
+        //每个事件设置ImageView的图片矩阵，ImageView重新录制绘制指令
+        MATRIX,
+        //图片矩阵不变，手势变换设置为ImageView的缩放和平移属性，由RenderThread完成
+        VIEW_PROPERTIES
+    }
+
+    /**
+     * 图片加载监听，回调都在UI线程执行
+     */
+    public interface OnImageLoadListener {
+        /**
+         * 开始加载
+         */
+        void onLoading(Uri uri);
+
+        /**
+         * 图片已显示，可以进行裁剪
+         */
+        void onReady(Uri uri);
+
+        /**
+         * 加载失败
+         */
+        void onFailed(Uri uri, Throwable error);
+    }
+
+    /**
+     * 异步裁剪的结果，在UI线程执行
+     */
+    public interface OnClipListener {
+        /**
+         * 裁剪完成
+         */
+        void onClipped(Bitmap bitmap);
+
+        /**
+         * 裁剪失败，例如图片已更换或者原图无法读取
+         */
+        void onClipFailed(Throwable error);
+    }
+
+    /**
+     * 首帧监听，在UI线程执行
+     */
+    public interface OnFirstPixelListener {
+        /**
+         * 第一次画出图片
+         *
+         * @param elapsedMs 从setImageSrc开始的耗时
+         * @param preview   画出的是预览图还是原图
+         */
+        void onFirstPixel(Uri uri, long elapsedMs, boolean preview);
+    }
 }
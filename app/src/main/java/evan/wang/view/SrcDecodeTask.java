@@ -0,0 +1,352 @@
+package evan.wang.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import evan.wang.core.AffineTransform;
+import evan.wang.core.DecodePlanner;
+import evan.wang.core.ExifOrientation;
+import evan.wang.core.ImageHeader;
+import evan.wang.util.BitmapCache;
+import evan.wang.util.BitmapConfigs;
+import evan.wang.util.ClipExecutors;
+import evan.wang.util.ClipMetrics;
+import evan.wang.util.ImageSource;
+
+/**
+ * 原图后台解码任务
+ * 每次setImageSrc对应一个任务，可取消；只把最终的bitmap和初始矩阵投递回UI线程
+ */
+class SrcDecodeTask implements Runnable {
+    private static final String TAG = "SrcDecodeTask";
+    //没有EXIF缩略图时，预览图在原图采样率基础上再缩小的倍数，JPEG解码器缩小8倍时最快
+    private static final int PREVIEW_SAMPLE_FACTOR = 8;
+    //预览图与原图宽高比的最大误差，超出时（例如缩略图加了黑边）不使用
+    private static final float PREVIEW_ASPECT_TOLERANCE = 0.05f;
+
+    /**
+     * 解码结果回调，在UI线程执行
+     */
+    interface Callback {
+        /**
+         * 预览图已解码，原图仍在解码中
+         */
+        void onPreviewReady(SrcDecodeTask task, Result result);
+
+        void onDecodeReady(SrcDecodeTask task, Result result);
+
+        void onDecodeFailed(SrcDecodeTask task, Throwable error);
+    }
+
+    /**
+     * 解码结果
+     */
+    static class Result {
+        //显示用的bitmap
+        Bitmap bitmap;
+        //是否为预览图，预览图的矩阵与原图在屏幕上的位置和大小相同
+        boolean preview;
+        //原图，由接收结果的一方关闭
+        ImageSource source;
+        //原图文件的宽高
+        final int[] srcSize = new int[2];
+        //原图的EXIF方向，已合并到初始矩阵中
+        int orientation;
+        //解码计划
+        DecodePlanner.Plan plan;
+        //最小缩放比例
+        float minScale;
+        //初始缩放比例
+        float normalScale;
+        //初始矩阵，图片缩放并居中，由clip-core计算，接收方通过getValues设置到Matrix
+        final AffineTransform matrix = new AffineTransform();
+    }
+
+    private final Context context;
+    private final Uri uri;
+    private final int viewWidth;
+    private final int viewHeight;
+    private final Rect clipRect;
+    private final DecodePlanner planner;
+    //底图是否可以解码为硬件bitmap
+    private final boolean allowHardware;
+    private final Callback callback;
+    private volatile boolean cancelled;
+    private Future<?> future;
+
+    SrcDecodeTask(Context context, Uri uri, int viewWidth, int viewHeight, Rect clipRect,
+                  DecodePlanner planner, boolean allowHardware, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.clipRect = clipRect;
+        this.planner = planner;
+        this.allowHardware = allowHardware;
+        this.callback = callback;
+    }
+
+    Uri getUri() {
+        return uri;
+    }
+
+    void submit(ExecutorService executor) {
+        future = executor.submit(this);
+    }
+
+    /**
+     * 取消任务，已经在解码中的任务会在下一个步骤检查点退出，结果不会投递
+     */
+    void cancel() {
+        cancelled = true;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void run() {
+        final Result result;
+        try {
+            result = decode();
+        } catch (final Throwable e) {
+            Log.e(TAG, "decode failed: " + uri, e);
+            if (!cancelled) {
+                postFailed(e);
+            }
+            return;
+        }
+        if (result == null) {
+            return;
+        }
+        ClipExecutors.mainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                //bitmap已放入缓存，取消时不回收
+                if (cancelled) {
+                    result.source.close();
+                    return;
+                }
+                callback.onDecodeReady(SrcDecodeTask.this, result);
+            }
+        });
+    }
+
+    private void postFailed(final Throwable error) {
+        ClipExecutors.mainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    callback.onDecodeFailed(SrcDecodeTask.this, error);
+                }
+            }
+        });
+    }
+
+    /**
+     * step 1: 按控件尺寸、最大放大倍数和内存预算计算采样率和Bitmap.Config后解码，原图可能比较大 直接加载出来会OOM
+     * step 2: 计算把图片缩放 移动到imageView 中间的矩阵
+     * 被取消时返回null
+     */
+    private Result decode() throws IOException {
+        //宽高、EXIF和整图解码共用一次打开的文件描述符，成功时交给ClipViewLayout继续用于裁剪和分块解码
+        ImageSource source = ImageSource.open(context, uri);
+        Result result = null;
+        try {
+            result = decode(source);
+            return result;
+        } finally {
+            if (result == null) {
+                source.close();
+            }
+        }
+    }
+
+    private Result decode(ImageSource source) throws IOException {
+        if (cancelled) {
+            return null;
+        }
+        Result result = new Result();
+        //宽高、透明度和EXIF方向从文件头一次读出
+        ImageHeader header = source.readHeader();
+        result.srcSize[0] = header.getWidth();
+        result.srcSize[1] = header.getHeight();
+        //竖屏拍照的照片，直接使用的话，会旋转90度，方向合并到显示矩阵中，不再生成旋转后的bitmap
+        result.orientation = header.getOrientation();
+        if (cancelled) {
+            return null;
+        }
+        //没有透明度时，超出内存预算可以使用RGB_565；初始比例与initMatrix一致，不小于填满裁剪框的比例
+        result.plan = planner.plan(header.getWidth(), header.getHeight(), result.orientation,
+                viewWidth, viewHeight, clipRect.width(), clipRect.height(), !header.hasAlpha());
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = header.getWidth();
+        options.outHeight = header.getHeight();
+        if (ClipMetrics.isEventEnabled()) {
+            ClipMetrics.event(TAG, "decode plan " + uri + ": " + result.plan);
+        }
+        options.inSampleSize = result.plan.sampleSize;
+        Bitmap.Config software = result.plan.format == DecodePlanner.PixelFormat.RGB_565
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        //底图只用于显示，裁剪和分块都从原图重新解码，支持时解码为硬件bitmap
+        options.inPreferredConfig = BitmapConfigs.forDisplay(software, allowHardware);
+        //同一张图片同样的采样率已经解码过，直接使用缓存
+        Bitmap bitmap = BitmapCache.getInstance().get(BitmapCache.key(uri, options.inSampleSize, options.inPreferredConfig));
+        if (bitmap == null && options.inPreferredConfig != software) {
+            //之前硬件解码失败时，退回的软件bitmap按软件格式缓存
+            bitmap = BitmapCache.getInstance().get(BitmapCache.key(uri, options.inSampleSize, software));
+        }
+        if (bitmap == null) {
+            if (cancelled) {
+                return null;
+            }
+            //原图解码较慢，先显示预览图
+            decodePreview(source, header, result);
+            if (cancelled) {
+                return null;
+            }
+            bitmap = decodeDisplay(source, options, software);
+            if (bitmap == null) {
+                throw new IOException("Cannot decode: " + uri);
+            }
+            //按实际解码出的格式缓存，硬件解码失败退回软件格式时不会放在硬件格式的key下
+            BitmapCache.getInstance().put(BitmapCache.key(uri, options.inSampleSize, bitmap.getConfig()), bitmap);
+        }
+        if (cancelled) {
+            return null;
+        }
+        result.source = source;
+        result.bitmap = bitmap;
+        initMatrix(result, bitmap.getWidth(), bitmap.getHeight());
+        return result;
+    }
+
+    /**
+     * 解码底图，硬件bitmap解码失败（格式或显存不支持）时退回软件格式
+     */
+    private Bitmap decodeDisplay(ImageSource source, BitmapFactory.Options options, Bitmap.Config software)
+            throws IOException {
+        if (!BitmapConfigs.isHardware(options.inPreferredConfig)) {
+            return source.decode(options);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = source.decode(options);
+        } catch (IllegalArgumentException e) {
+            bitmap = null;
+        }
+        if (bitmap == null && !cancelled) {
+            Log.w(TAG, "hardware decode failed, fall back to " + software + ": " + uri);
+            options.inPreferredConfig = software;
+            bitmap = source.decode(options);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 解码很小的预览图并投递到UI线程：优先使用EXIF缩略图，没有时JPEG用更大的采样率快速解码
+     * 矩阵按原图解码后的尺寸计算，再换算到预览图的像素上，换成原图时屏幕上的位置和大小不变
+     */
+    private void decodePreview(ImageSource source, ImageHeader header, Result full) {
+        Bitmap preview;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = header.hasAlpha() ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+            preview = source.decodeThumbnail(options);
+            if (preview != null && !sameAspect(preview, header)) {
+                preview.recycle();
+                preview = null;
+            }
+            if (preview == null && header.getFormat() == ImageHeader.Format.JPEG && !cancelled) {
+                options = new BitmapFactory.Options();
+                options.outWidth = header.getWidth();
+                options.outHeight = header.getHeight();
+                options.inSampleSize = full.plan.sampleSize * PREVIEW_SAMPLE_FACTOR;
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                preview = source.decode(options);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "decode preview failed: " + uri, e);
+            return;
+        }
+        if (preview == null || cancelled) {
+            return;
+        }
+        final Result result = new Result();
+        result.preview = true;
+        result.bitmap = preview;
+        result.srcSize[0] = full.srcSize[0];
+        result.srcSize[1] = full.srcSize[1];
+        result.orientation = full.orientation;
+        result.plan = full.plan;
+        initMatrix(result, full.plan.width, full.plan.height);
+        float sx = (float) full.plan.width / preview.getWidth();
+        float sy = (float) full.plan.height / preview.getHeight();
+        AffineTransform previewScale = new AffineTransform();
+        previewScale.setScale(sx, sy);
+        result.matrix.preConcat(previewScale);
+        result.minScale *= sx;
+        result.normalScale *= sx;
+        ClipExecutors.mainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    callback.onPreviewReady(SrcDecodeTask.this, result);
+                }
+            }
+        });
+    }
+
+    private static boolean sameAspect(Bitmap preview, ImageHeader header) {
+        float expected = (float) header.getWidth() / header.getHeight();
+        float actual = (float) preview.getWidth() / preview.getHeight();
+        return Math.abs(actual - expected) <= expected * PREVIEW_ASPECT_TOLERANCE;
+    }
+
+    private void initMatrix(Result result, int rawWidth, int rawHeight) {
+        //先校正方向，之后按校正后的宽高计算缩放和平移
+        float[] values = new float[9];
+        ExifOrientation.getMatrix(result.orientation, rawWidth, rawHeight, values);
+        result.matrix.setValues(values);
+        int bitmapWidth = ExifOrientation.orientedWidth(result.orientation, rawWidth, rawHeight);
+        int bitmapHeight = ExifOrientation.orientedHeight(result.orientation, rawWidth, rawHeight);
+        //图片的缩放比
+        float scale;
+        if (bitmapWidth >= bitmapHeight) {//宽图
+            scale = (float) viewWidth / bitmapWidth;
+            //如果高缩放后小于裁剪区域 则将裁剪区域与高的缩放比作为最终的缩放比
+            //高的最小缩放比
+            result.minScale = clipRect.height() / (float) bitmapHeight;
+        } else {//高图
+            //高的缩放比
+            scale = (float) viewHeight / bitmapHeight;
+            //如果宽缩放后小于裁剪区域 则将裁剪区域与宽的缩放比作为最终的缩放比
+            //宽的最小缩放比
+            result.minScale = clipRect.width() / (float) bitmapWidth;
+        }
+        if (scale < result.minScale) {
+            scale = result.minScale;
+        }
+        result.normalScale = scale;
+        // 缩放
+        result.matrix.postScale(scale, scale);
+        // 平移,将缩放后的图片平移到imageview的中心
+        int midX = viewWidth / 2;
+        int midY = viewHeight / 2;
+        int imageMidX = (int) (bitmapWidth * scale / 2);
+        int imageMidY = (int) (bitmapHeight * scale / 2);
+        result.matrix.postTranslate(midX - imageMidX, midY - imageMidY);
+    }
+}
@@ -0,0 +1,323 @@
+package evan.wang.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import evan.wang.core.TileGrid;
+import evan.wang.util.BitmapPool;
+import evan.wang.util.ClipExecutors;
+import evan.wang.util.ImageSource;
+
+/**
+ * 大图分块显示层
+ * <p/>
+ * 叠加在底图ImageView之上，使用相同的显示矩阵。放大到底图清晰度不够时，
+ * 在后台按当前缩放比例对可见区域分块从原图解码，分块缓存的上限只与控件尺寸有关，与原图分辨率无关。
+ */
+class TileLayer extends View {
+    private static final String TAG = "TileLayer";
+    //分块使用RGB_565，每像素2字节
+    private static final int BYTES_PER_PIXEL = 2;
+
+    /**
+     * 分块
+     */
+    private static class Tile {
+        int sampleSize;
+        int col;
+        int row;
+        final Rect srcRect = new Rect();
+        //只在UI线程读写
+        Bitmap bitmap;
+        boolean loading;
+        volatile boolean evicted;
+        //最后一次被绘制的帧序号，用于LRU淘汰以及判断解码前是否仍然可见
+        volatile long lastUsedFrame;
+        int generation;
+    }
+
+    //分块，只在UI线程访问
+    private final ArrayList<Tile> tiles = new ArrayList<Tile>();
+    private final Matrix displayMatrix = new Matrix();
+    private final float[] displayValues = new float[9];
+    private final float[] inverse = new float[9];
+    private final float[] rect = new float[4];
+    private final int[] visible = new int[4];
+    private final int[] tileRect = new int[4];
+    private final RectF dst = new RectF();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    //原图
+    private ImageSource source;
+    private int srcWidth;
+    private int srcHeight;
+    //原图与底图的尺寸之比
+    private float srcPerBaseX;
+    private float srcPerBaseY;
+    //分块缓存上限（字节）
+    private long maxCacheBytes;
+    //当前帧序号
+    private volatile long frame;
+    //每次更换原图加1，丢弃旧图的解码结果
+    private volatile int generation;
+    //区域解码器，只在分块解码线程访问
+    private BitmapRegionDecoder decoder;
+    private ImageSource decoderSource;
+
+    TileLayer(Context context) {
+        super(context);
+    }
+
+    /**
+     * 设置原图
+     *
+     * @param source     原图，由调用方关闭
+     * @param srcWidth   原图宽
+     * @param srcHeight  原图高
+     * @param baseWidth  底图宽
+     * @param baseHeight 底图高
+     */
+    void setSource(ImageSource source, int srcWidth, int srcHeight, int baseWidth, int baseHeight) {
+        clear();
+        this.source = source;
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.srcPerBaseX = (float) srcWidth / baseWidth;
+        this.srcPerBaseY = (float) srcHeight / baseHeight;
+        invalidate();
+    }
+
+    /**
+     * 清除所有分块并关闭解码器
+     */
+    void clear() {
+        generation++;
+        //当前帧可能还在绘制这些分块，不放回复用池，避免被解码线程覆盖
+        for (int i = 0; i < tiles.size(); i++) {
+            evict(tiles.get(i), false);
+        }
+        tiles.clear();
+        source = null;
+        ClipExecutors.tile().execute(new Runnable() {
+            @Override
+            public void run() {
+                closeDecoder();
+            }
+        });
+    }
+
+    /**
+     * 同步显示矩阵
+     */
+    void setDisplayMatrix(Matrix matrix) {
+        displayMatrix.set(matrix);
+        displayMatrix.getValues(displayValues);
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        //两倍余量，缩放过程中前后两个采样率的分块可以同时保留
+        maxCacheBytes = 2L * TileGrid.maxVisibleTiles(w, h) * TileGrid.maxTileBytes(BYTES_PER_PIXEL);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        clear();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (source == null) {
+            return;
+        }
+        float scaleX = displayValues[Matrix.MSCALE_X];
+        float skewY = displayValues[Matrix.MSKEW_Y];
+        //每个原图像素对应的屏幕像素数
+        float viewPixelsPerSrcPixel = (float) Math.sqrt(scaleX * scaleX + skewY * skewY) / srcPerBaseX;
+        int sampleSize = TileGrid.sampleSize(viewPixelsPerSrcPixel);
+        //底图清晰度已经足够
+        if (sampleSize >= srcPerBaseX) {
+            return;
+        }
+        if (!TileGrid.visibleSourceRect(displayValues, getWidth(), getHeight(), srcPerBaseX, srcPerBaseY,
+                srcWidth, srcHeight, inverse, rect, visible)) {
+            return;
+        }
+        frame++;
+        int colStart = TileGrid.tileIndex(visible[0], sampleSize);
+        int colEnd = TileGrid.tileIndex(visible[2] - 1, sampleSize);
+        int rowStart = TileGrid.tileIndex(visible[1], sampleSize);
+        int rowEnd = TileGrid.tileIndex(visible[3] - 1, sampleSize);
+        canvas.save();
+        canvas.concat(displayMatrix);
+        for (int row = rowStart; row <= rowEnd; row++) {
+            for (int col = colStart; col <= colEnd; col++) {
+                Tile tile = obtainTile(sampleSize, col, row);
+                tile.lastUsedFrame = frame;
+                Bitmap bitmap = tile.bitmap;
+                if (bitmap != null) {
+                    dst.set(tile.srcRect.left / srcPerBaseX, tile.srcRect.top / srcPerBaseY,
+                            tile.srcRect.right / srcPerBaseX, tile.srcRect.bottom / srcPerBaseY);
+                    canvas.drawBitmap(bitmap, null, dst, paint);
+                } else if (!tile.loading) {
+                    tile.loading = true;
+                    loadTile(tile);
+                }
+            }
+        }
+        canvas.restore();
+        trimCache();
+    }
+
+    private Tile obtainTile(int sampleSize, int col, int row) {
+        for (int i = 0; i < tiles.size(); i++) {
+            Tile tile = tiles.get(i);
+            if (tile.sampleSize == sampleSize && tile.col == col && tile.row == row) {
+                return tile;
+            }
+        }
+        Tile tile = new Tile();
+        tile.sampleSize = sampleSize;
+        tile.col = col;
+        tile.row = row;
+        tile.generation = generation;
+        TileGrid.tileRect(col, row, sampleSize, srcWidth, srcHeight, tileRect);
+        tile.srcRect.set(tileRect[0], tileRect[1], tileRect[2], tileRect[3]);
+        tiles.add(tile);
+        return tile;
+    }
+
+    /**
+     * 按LRU淘汰超出上限的分块，当前帧可见的分块不淘汰
+     */
+    private void trimCache() {
+        long bytes = 0;
+        for (int i = tiles.size() - 1; i >= 0; i--) {
+            Tile tile = tiles.get(i);
+            //不可见且没有内容的分块直接移除
+            if (tile.bitmap == null && !tile.loading && tile.lastUsedFrame != frame) {
+                tiles.remove(i);
+                continue;
+            }
+            bytes += tileBytes(tile);
+        }
+        while (bytes > maxCacheBytes) {
+            Tile oldest = null;
+            for (int i = 0; i < tiles.size(); i++) {
+                Tile tile = tiles.get(i);
+                if (tile.lastUsedFrame != frame && tile.bitmap != null
+                        && (oldest == null || tile.lastUsedFrame < oldest.lastUsedFrame)) {
+                    oldest = tile;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            bytes -= tileBytes(oldest);
+            tiles.remove(oldest);
+            evict(oldest, true);
+        }
+    }
+
+    private static long tileBytes(Tile tile) {
+        Bitmap bitmap = tile.bitmap;
+        return bitmap == null ? 0 : BitmapPool.getBitmapBytes(bitmap);
+    }
+
+    /**
+     * @param pool 是否放回复用池，只有当前帧不会再绘制的分块才能放回
+     */
+    private static void evict(Tile tile, boolean pool) {
+        tile.evicted = true;
+        Bitmap bitmap = tile.bitmap;
+        tile.bitmap = null;
+        //淘汰的分块放回复用池，之后解码的分块复用其内存
+        if (pool) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    private void loadTile(final Tile tile) {
+        final ImageSource tileSource = source;
+        ClipExecutors.tile().execute(new Runnable() {
+            @Override
+            public void run() {
+                //已经滑出可见区域或者已更换原图，不再解码
+                if (tile.evicted || tile.generation != generation || tile.lastUsedFrame < frame - 1) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            tile.loading = false;
+                        }
+                    });
+                    return;
+                }
+                final Bitmap bitmap = decodeTile(tileSource, tile);
+                //在UI线程检查是否已淘汰再设置，与evict()不会交错
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        //解码失败时复位，下次绘制时重试，也可以被淘汰
+                        tile.loading = false;
+                        if (bitmap == null) {
+                            return;
+                        }
+                        if (tile.evicted || tile.generation != generation) {
+                            //没有画过，可以直接放回复用池
+                            BitmapPool.getInstance().put(bitmap);
+                            return;
+                        }
+                        tile.bitmap = bitmap;
+                        invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 在分块解码线程中执行
+     */
+    private Bitmap decodeTile(ImageSource tileSource, Tile tile) {
+        try {
+            if (decoder == null || tileSource != decoderSource) {
+                closeDecoder();
+                decoder = tileSource.newRegionDecoder();
+                decoderSource = tileSource;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = tile.sampleSize;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            return BitmapPool.getInstance().decodeRegion(decoder, tile.srcRect, options);
+        } catch (IOException e) {
+            Log.e(TAG, "open region decoder failed: " + tileSource.getUri(), e);
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "decode tile failed: " + tile.srcRect, e);
+        }
+        return null;
+    }
+
+    private void closeDecoder() {
+        if (decoder != null) {
+            decoder.recycle();
+            decoder = null;
+            decoderSource = null;
+        }
+    }
+}
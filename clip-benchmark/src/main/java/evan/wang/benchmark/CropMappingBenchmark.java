@@ -0,0 +1,78 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.CropMapper;
+import evan.wang.core.ExifOrientation;
+import evan.wang.core.TileGrid;
+
+/**
+ * 裁剪框映射回原图坐标，以及分块模式下可见区域的计算
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CropMappingBenchmark {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int SRC_WIDTH = 4032;
+    private static final int SRC_HEIGHT = 3024;
+    private static final int BITMAP_WIDTH = 1008;
+    private static final int BITMAP_HEIGHT = 756;
+
+    //EXIF方向
+    @Param({"1", "6", "7"})
+    public int orientation;
+
+    private final float[] matrix = new float[9];
+    private final float[] clipRect = new float[4];
+    private final int[] outRect = new int[4];
+    private final float[] inverse = new float[9];
+    private final float[] rect = new float[4];
+    private final int[] visible = new int[4];
+
+    @Setup
+    public void setUp() {
+        ExifOrientation.getMatrix(orientation, BITMAP_WIDTH, BITMAP_HEIGHT, matrix);
+        //放大两倍后居中
+        float scale = 2f * VIEW_WIDTH / ExifOrientation.orientedWidth(orientation, BITMAP_WIDTH, BITMAP_HEIGHT);
+        for (int i = 0; i < 6; i++) {
+            matrix[i] *= scale;
+        }
+        matrix[CropMapper.MTRANS_X] -= VIEW_WIDTH / 2;
+        matrix[CropMapper.MTRANS_Y] += VIEW_HEIGHT / 4;
+        int clipHeight = VIEW_WIDTH * 9 / 16;
+        clipRect[0] = 0;
+        clipRect[1] = (VIEW_HEIGHT - clipHeight) / 2;
+        clipRect[2] = VIEW_WIDTH;
+        clipRect[3] = clipRect[1] + clipHeight;
+    }
+
+    @Benchmark
+    public int mapClipRect() {
+        CropMapper.mapClipRect(matrix, clipRect, BITMAP_WIDTH, BITMAP_HEIGHT, SRC_WIDTH, SRC_HEIGHT, outRect);
+        return outRect[2] - outRect[0];
+    }
+
+    @Benchmark
+    public int visibleSourceRect() {
+        TileGrid.visibleSourceRect(matrix, VIEW_WIDTH, VIEW_HEIGHT, 4, 4, SRC_WIDTH, SRC_HEIGHT,
+                inverse, rect, visible);
+        return visible[2] - visible[0];
+    }
+}
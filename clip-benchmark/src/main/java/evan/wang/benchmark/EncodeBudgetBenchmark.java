@@ -0,0 +1,94 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.CountingOutputStream;
+import evan.wang.core.QualitySearch;
+
+/**
+ * 按字节数上限编码时的纯Java部分：计数输出流和质量查找
+ * <p/>
+ * 压缩本身由Bitmap.compress在native层完成，这里用固定大小的数据块模拟编码器的写入，
+ * 压缩后的大小按质量的经验曲线估算。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBudgetBenchmark {
+    //编码器每次写入的块大小
+    private static final int CHUNK = 8192;
+    //640x360输出
+    private static final int PIXELS = 640 * 360;
+
+    //字节数上限
+    @Param({"51200", "204800"})
+    public long maxBytes;
+
+    private final byte[] chunk = new byte[CHUNK];
+
+    @Setup
+    public void setUp() {
+        new Random(42).nextBytes(chunk);
+    }
+
+    /**
+     * 估算的压缩后大小，随质量单调增加
+     */
+    private static long estimatedBytes(int quality) {
+        double bitsPerPixel = 0.25 + 3.5 * Math.pow(quality / 100.0, 3);
+        return (long) (PIXELS * bitsPerPixel / 8);
+    }
+
+    /**
+     * 按估算大小写入计数流，超出上限时中止
+     */
+    private long write(int quality, long limit) {
+        CountingOutputStream out = new CountingOutputStream(null, limit);
+        long remaining = estimatedBytes(quality);
+        try {
+            while (remaining > 0) {
+                int len = (int) Math.min(CHUNK, remaining);
+                out.write(chunk, 0, len);
+                remaining -= len;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long countingWrite() {
+        return write(90, 0);
+    }
+
+    @Benchmark
+    public int qualitySearch() {
+        if (write(90, maxBytes) >= 0) {
+            return 90;
+        }
+        return QualitySearch.highestFitting(5, 89, new QualitySearch.Probe() {
+            @Override
+            public boolean fits(int quality) {
+                return write(quality, maxBytes) >= 0;
+            }
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package evan.wang.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import evan.wang.core.GestureTrace;
+import evan.wang.core.TouchGesture;
+import evan.wang.core.TransformModel;
+
+/**
+ * 手势回放报告
+ * <p/>
+ * 逐个事件回放traces目录下记录的手势，统计每个事件的CPU时间和分配字节数的分位数，不需要设备，在CI中运行。
+ * 预热之后超过1%的事件分配对象时以非0退出，与设备上的ClipViewLayoutAllocationTest对应。
+ * <p/>
+ * 参数为要回放的记录名，默认全部；-Dreplay.rounds=回放轮数，默认200。
+ */
+public class GestureReplay {
+    public static final String[] TRACES = {"drag", "fast_pinch", "pinch_out", "zoom_to_max"};
+    //与ClipViewLayout一致：最大放大到初始比例的4倍，拖动时最多超出边界48dp（xxhdpi为144px）
+    static final float MAX_ZOOM = 4;
+    static final float MAX_OVERSCROLL = 144;
+    private static final int WARMUP_ROUNDS = 2000;
+
+    public static void main(String[] args) throws IOException {
+        String[] names = args.length > 0 ? args : TRACES;
+        int rounds = Integer.getInteger("replay.rounds", 200);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        boolean allocated = false;
+        for (String name : names) {
+            GestureTrace trace = load(name);
+            TransformModel transform = new TransformModel();
+            TouchGesture gesture = new TouchGesture(transform);
+            long[] cpu = new long[rounds * trace.size()];
+            long[] bytes = new long[cpu.length];
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                replay(trace, transform, gesture, null, null, null, null, 0);
+            }
+            for (int i = 0; i < rounds; i++) {
+                replay(trace, transform, gesture, threads, allocations, cpu, bytes, i * trace.size());
+            }
+            System.out.println(name + " events=" + trace.size() + " rounds=" + rounds
+                    + " scale=" + transform.getScale()
+                    + "\n  cpu(ns)   " + percentiles(cpu)
+                    + "\n  alloc(B)  " + (allocations != null ? percentiles(bytes) : "n/a"));
+            //偶尔一次的分配来自JIT和计数本身，超过1%的事件分配时才算失败
+            if (allocations != null && percentile(bytes, 0.99) > 0) {
+                allocated = true;
+            }
+        }
+        if (allocated) {
+            System.err.println("Gesture events allocated after warmup");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 从初始状态回放一遍，cpu为null时不统计
+     */
+    private static void replay(GestureTrace trace, TransformModel transform, TouchGesture gesture,
+                               ThreadMXBean threads, com.sun.management.ThreadMXBean allocations,
+                               long[] cpu, long[] bytes, int offset) {
+        trace.initTransform(transform, gesture, MAX_ZOOM, MAX_OVERSCROLL);
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < trace.size(); i++) {
+            if (cpu == null) {
+                trace.dispatch(gesture, i);
+                continue;
+            }
+            long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0;
+            long cpuBefore = threads.getCurrentThreadCpuTime();
+            trace.dispatch(gesture, i);
+            cpu[offset + i] = threads.getCurrentThreadCpuTime() - cpuBefore;
+            if (allocations != null) {
+                bytes[offset + i] = allocations.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            }
+        }
+    }
+
+    /**
+     * 排序后输出分位数
+     */
+    private static String percentiles(long[] samples) {
+        Arrays.sort(samples);
+        return "p50=" + percentile(samples, 0.5) + " p90=" + percentile(samples, 0.9)
+                + " p99=" + percentile(samples, 0.99) + " max=" + samples[samples.length - 1];
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * 读取resources/traces下的记录
+     */
+    static GestureTrace load(String name) throws IOException {
+        InputStream in = GestureReplay.class.getResourceAsStream("/traces/" + name + ".trace");
+        if (in == null) {
+            throw new IOException("No trace: " + name);
+        }
+        try {
+            return GestureTrace.parse(name, new InputStreamReader(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.GestureTrace;
+import evan.wang.core.TouchGesture;
+import evan.wang.core.TransformModel;
+
+/**
+ * 回放记录的手势，每次调用处理一个触摸事件，按采样统计每个事件耗时的分位数
+ * <p/>
+ * 事件经过与ClipViewLayout.onTouchEvent相同的TouchGesture和TransformModel，
+ * 加上-prof gc可以得到每个事件的分配字节数；ClipView的绘制只能在设备上测量，见androidTest中的GestureReplayTest。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GestureReplayBenchmark {
+
+    @Param({"drag", "fast_pinch", "pinch_out", "zoom_to_max"})
+    public String trace;
+
+    private final TransformModel transform = new TransformModel();
+    private final TouchGesture gesture = new TouchGesture(transform);
+    private final float[] initialValues = new float[9];
+    private GestureTrace events;
+    private int index;
+
+    @Setup
+    public void setUp() throws IOException {
+        events = GestureReplay.load(trace);
+        events.initTransform(transform, gesture, GestureReplay.MAX_ZOOM, GestureReplay.MAX_OVERSCROLL);
+        transform.getValues(initialValues);
+    }
+
+    @Benchmark
+    public float replayEvent() {
+        if (index == events.size()) {
+            //回放完一遍，回到初始状态重新开始
+            index = 0;
+            transform.setValues(initialValues);
+            gesture.up();
+        }
+        events.dispatch(gesture, index++);
+        return transform.getScale();
+    }
+}
@@ -0,0 +1,139 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import evan.wang.core.ImageHeader;
+
+/**
+ * 文件头解析
+ * <p/>
+ * ExifInterface和inJustDecodeBounds只能在设备上运行（见androidTest中的ImageHeaderComparisonTest），
+ * 这里以ImageIO读取宽高作为JVM上的对照：parse只解析已读入的字节，read包括从文件读取一次。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageHeaderBenchmark {
+
+    @Param({"jpg", "png"})
+    public String format;
+
+    private File file;
+    private RandomAccessFile access;
+    private byte[] prefix;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] data = encode(1600, 1200, format);
+        if ("jpg".equals(format)) {
+            //相机JPEG的EXIF中带有160x120的缩略图
+            data = withExif(data, encode(160, 120, "jpg"));
+        }
+        file = File.createTempFile("header", "." + format);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        access = new RandomAccessFile(file, "r");
+        prefix = new byte[Math.min(data.length, ImageHeader.PREFETCH_SIZE)];
+        System.arraycopy(data, 0, prefix, 0, prefix.length);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        access.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public ImageHeader parse() throws IOException {
+        return ImageHeader.parse(prefix, prefix.length);
+    }
+
+    @Benchmark
+    public ImageHeader read() throws IOException {
+        return ImageHeader.read(access.getChannel());
+    }
+
+    @Benchmark
+    public int imageIoBounds() throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                return reader.getWidth(0) + reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] encode(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ((x & 0xff) << 16) | ((y & 0xff) << 8) | ((x ^ y) & 0xff));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 在SOI之后插入APP1 EXIF段：IFD0中的方向，IFD1中的缩略图
+     */
+    private static byte[] withExif(byte[] jpeg, byte[] thumbnail) {
+        int thumbnailOffset = 8 + 18 + 30;
+        int tiffLength = thumbnailOffset + thumbnail.length;
+        ByteBuffer out = ByteBuffer.allocate(jpeg.length + 10 + tiffLength);
+        out.put(jpeg, 0, 2);
+        out.put((byte) 0xff).put((byte) 0xe1).putShort((short) (8 + tiffLength));
+        out.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        out.put(new byte[]{'M', 'M'}).putShort((short) 42).putInt(8);
+        out.putShort((short) 1);
+        out.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        out.putInt(8 + 18);
+        out.putShort((short) 2);
+        out.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbnailOffset);
+        out.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        out.putInt(0);
+        out.put(thumbnail);
+        out.put(jpeg, 2, jpeg.length - 2);
+        return out.array();
+    }
+}
@@ -0,0 +1,76 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.ParallelResampler;
+import evan.wang.core.Raster;
+import evan.wang.core.Resampler;
+
+/**
+ * 24MP原图多线程缩放，按线程数比较扩展性
+ * <p/>
+ * -p threads=1,2,4,8 可以按机器的核数调整
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParallelResampleBenchmark {
+    private static final int SRC_WIDTH = 6000;
+    private static final int SRC_HEIGHT = 4000;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"BILINEAR", "LANCZOS3"})
+    public Resampler.Filter filter;
+
+    //输出宽度：640为头像大小，主要耗时在区域平均；3000为大图缩小一半，主要耗时在滤波
+    @Param({"640", "3000"})
+    public int outWidth;
+
+    private Raster src;
+    private int[] dst;
+    private int outHeight;
+    private ParallelResampler resampler;
+
+    @Setup
+    public void setUp() {
+        src = new Raster(SRC_WIDTH, SRC_HEIGHT);
+        Random random = new Random(42);
+        int[] pixels = src.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        outHeight = outWidth * SRC_HEIGHT / SRC_WIDTH;
+        dst = new int[outWidth * outHeight];
+        resampler = new ParallelResampler(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        resampler.shutdown();
+    }
+
+    @Benchmark
+    public int[] resize() {
+        resampler.resize(src.getPixels(), SRC_WIDTH, SRC_HEIGHT, dst, outWidth, outHeight, filter);
+        return dst;
+    }
+}
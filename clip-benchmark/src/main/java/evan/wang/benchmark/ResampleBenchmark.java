@@ -0,0 +1,100 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.AffineTransform;
+import evan.wang.core.CropEngine;
+import evan.wang.core.Raster;
+import evan.wang.core.Resampler;
+
+/**
+ * 裁剪输出的缩放
+ * <p/>
+ * nearest对应原来zoomBitmap中Bitmap.createBitmap(..., matrix, false)的最近邻缩放，
+ * singlePassBilinear对应createBitmap(..., matrix, true)的一次双线性变换，
+ * resize为Resampler的逐级减半加可分离滤波。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ResampleBenchmark {
+    private static final int OUT_WIDTH = 640;
+
+    //原图尺寸，宽x高
+    @Param({"1280x720", "4032x3024", "6000x4000"})
+    public String size;
+
+    @Param({"BOX", "BILINEAR", "LANCZOS3"})
+    public Resampler.Filter filter;
+
+    private Raster src;
+    private int outHeight;
+    private Raster dst;
+    private final AffineTransform scale = new AffineTransform();
+    private int[] bounds;
+
+    @Setup
+    public void setUp() {
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        src = new Raster(width, height);
+        //平滑渐变加噪声，接近照片的频率分布
+        Random random = new Random(42);
+        int[] pixels = src.getPixels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xff000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8
+                        | random.nextInt(256);
+            }
+        }
+        int[] out = new int[2];
+        Resampler.fitSize(width, height, OUT_WIDTH, OUT_WIDTH, out);
+        outHeight = out[1];
+        dst = new Raster(OUT_WIDTH, outHeight);
+        scale.setScale((float) OUT_WIDTH / width, (float) outHeight / height);
+        bounds = new int[]{0, 0, width, height};
+    }
+
+    @Benchmark
+    public Raster resize() {
+        return Resampler.resize(src, OUT_WIDTH, outHeight, filter);
+    }
+
+    @Benchmark
+    public Raster singlePassBilinear() {
+        CropEngine.transform(src, scale, bounds, dst);
+        return dst;
+    }
+
+    @Benchmark
+    public Raster nearest() {
+        int[] srcPixels = src.getPixels();
+        int[] dstPixels = dst.getPixels();
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        for (int y = 0; y < outHeight; y++) {
+            int row = (int) ((y + 0.5f) * srcHeight / outHeight) * srcWidth;
+            for (int x = 0; x < OUT_WIDTH; x++) {
+                dstPixels[y * OUT_WIDTH + x] = srcPixels[row + (int) ((x + 0.5f) * srcWidth / OUT_WIDTH)];
+            }
+        }
+        return dst;
+    }
+}
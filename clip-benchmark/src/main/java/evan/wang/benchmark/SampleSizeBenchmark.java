@@ -0,0 +1,74 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.CropMapper;
+import evan.wang.core.DecodePlanner;
+import evan.wang.core.ExifOrientation;
+import evan.wang.core.SampleSize;
+import evan.wang.core.TileGrid;
+
+/**
+ * 采样率计算
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleSizeBenchmark {
+    //常见的相机和截图尺寸
+    private static final int[][] SIZES = {
+            {4032, 3024}, {3024, 4032}, {6000, 4000}, {1920, 1080},
+            {1080, 2340}, {8000, 6000}, {640, 480}, {12000, 9000}
+    };
+
+    private final DecodePlanner planner = DecodePlanner.forMemoryClass(192).setMaxZoom(4);
+    private int index;
+
+    private int[] next() {
+        index = (index + 1) & (SIZES.length - 1);
+        return SIZES[index];
+    }
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        int[] size = next();
+        return SampleSize.calculateInSampleSize(size[0], size[1], 720, 1280);
+    }
+
+    @Benchmark
+    public int powerOfTwo() {
+        int[] size = next();
+        return SampleSize.powerOfTwo(size[0], size[1], 720, 1280);
+    }
+
+    @Benchmark
+    public DecodePlanner.Plan decodePlan() {
+        int[] size = next();
+        return planner.plan(size[0], size[1], ExifOrientation.NORMAL, 1080, 1920, true);
+    }
+
+    @Benchmark
+    public int regionSampleSize() {
+        int[] size = next();
+        return CropMapper.regionSampleSize(size[0], size[1], 640, 360);
+    }
+
+    @Benchmark
+    public int tileSampleSize() {
+        int[] size = next();
+        return TileGrid.sampleSize(1080f / size[0]);
+    }
+}
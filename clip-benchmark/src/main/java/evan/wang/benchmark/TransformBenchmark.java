@@ -0,0 +1,82 @@
+package evan.wang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import evan.wang.core.TransformModel;
+
+/**
+ * 手势每个事件的计算：拖动、缩放和边界检测（原ClipViewLayout.checkBorder）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+    private static final float VIEW_WIDTH = 1080;
+    private static final float VIEW_HEIGHT = 1920;
+    //16:9裁剪框的垂直间距
+    private static final float VERTICAL_PADDING = (VIEW_HEIGHT - VIEW_WIDTH * 9 / 16) / 2;
+
+    private final TransformModel transform = new TransformModel();
+    private final float[] range = new float[4];
+    private int step;
+
+    @Setup
+    public void setUp() {
+        //720x960的底图，旋转90度后铺满控件宽度
+        float scale = VIEW_WIDTH / 960;
+        transform.setValues(new float[]{0, -scale, VIEW_WIDTH, scale, 0, 0, 0, 0, 1});
+        transform.setContentSize(720, 960);
+        transform.setScaleRange(scale, 4);
+        transform.save();
+    }
+
+    private float nextOffset() {
+        step = (step + 1) & 255;
+        return step - 128;
+    }
+
+    @Benchmark
+    public float dragAndClamp() {
+        float offset = nextOffset();
+        transform.dragFromSaved(offset * 3, offset * 2);
+        transform.clampToBorder(VIEW_WIDTH, VIEW_HEIGHT, 0, VERTICAL_PADDING);
+        return transform.getScale();
+    }
+
+    @Benchmark
+    public float dragAndDamp() {
+        float offset = nextOffset();
+        transform.dragFromSaved(offset * 3, offset * 2);
+        transform.dampToBorder(VIEW_WIDTH, VIEW_HEIGHT, 0, VERTICAL_PADDING, 144);
+        return transform.getScale();
+    }
+
+    @Benchmark
+    public float zoomAndClamp() {
+        float factor = 1 + nextOffset() / 64f;
+        transform.zoomFromSaved(factor, VIEW_WIDTH / 2, VIEW_HEIGHT / 2);
+        transform.clampToBorder(VIEW_WIDTH, VIEW_HEIGHT, 0, VERTICAL_PADDING);
+        return transform.getScale();
+    }
+
+    @Benchmark
+    public float translationRange() {
+        transform.dragFromSaved(nextOffset(), 0);
+        transform.getTranslationRange(VIEW_WIDTH, VIEW_HEIGHT, 0, VERTICAL_PADDING, range);
+        return range[0] + range[3];
+    }
+}
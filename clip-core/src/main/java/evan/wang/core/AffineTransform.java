@@ -0,0 +1,168 @@
+package evan.wang.core;
+
+/**
+ * 仿射变换
+ * <p/>
+ * 与android.graphics.Matrix相同的9个float排列，可以通过getValues/setValues与Matrix互相转换，
+ * 变换的组合顺序也与Matrix一致：postXxx在当前变换之后执行，preXxx在当前变换之前执行。
+ */
+public final class AffineTransform {
+    private final float[] values = new float[9];
+    //组合变换时的临时数组
+    private final float[] temp = new float[9];
+
+    public AffineTransform() {
+        reset();
+    }
+
+    public AffineTransform(AffineTransform src) {
+        set(src);
+    }
+
+    /**
+     * 重置为单位变换
+     */
+    public void reset() {
+        setValues(1, 0, 0, 0, 1, 0);
+    }
+
+    public void set(AffineTransform src) {
+        System.arraycopy(src.values, 0, values, 0, 9);
+    }
+
+    public void setValues(float[] src) {
+        System.arraycopy(src, 0, values, 0, 9);
+    }
+
+    public void getValues(float[] dst) {
+        System.arraycopy(values, 0, dst, 0, 9);
+    }
+
+    /**
+     * 获取某个值，下标见CropMapper.MSCALE_X等常量
+     */
+    public float get(int index) {
+        return values[index];
+    }
+
+    public void setScale(float sx, float sy) {
+        setValues(sx, 0, 0, 0, sy, 0);
+    }
+
+    public void setTranslate(float dx, float dy) {
+        setValues(1, 0, dx, 0, 1, dy);
+    }
+
+    public void postTranslate(float dx, float dy) {
+        values[CropMapper.MTRANS_X] += dx;
+        values[CropMapper.MTRANS_Y] += dy;
+    }
+
+    public void postScale(float sx, float sy) {
+        values[CropMapper.MSCALE_X] *= sx;
+        values[CropMapper.MSKEW_X] *= sx;
+        values[CropMapper.MTRANS_X] *= sx;
+        values[CropMapper.MSKEW_Y] *= sy;
+        values[CropMapper.MSCALE_Y] *= sy;
+        values[CropMapper.MTRANS_Y] *= sy;
+    }
+
+    /**
+     * 以(px, py)为中心缩放
+     */
+    public void postScale(float sx, float sy, float px, float py) {
+        postTranslate(-px, -py);
+        postScale(sx, sy);
+        postTranslate(px, py);
+    }
+
+    /**
+     * this = other * this，先执行当前变换再执行other
+     */
+    public void postConcat(AffineTransform other) {
+        multiply(other.values, values, values);
+    }
+
+    /**
+     * this = this * other，先执行other再执行当前变换
+     */
+    public void preConcat(AffineTransform other) {
+        multiply(values, other.values, values);
+    }
+
+    /**
+     * 求逆变换
+     *
+     * @return 不可逆时返回false，out不变
+     */
+    public boolean invert(AffineTransform out) {
+        if (!CropMapper.invert(values, temp)) {
+            return false;
+        }
+        out.setValues(temp);
+        return true;
+    }
+
+    /**
+     * 映射点
+     *
+     * @param points 输入输出，依次为x0, y0, x1, y1...
+     */
+    public void mapPoints(float[] points) {
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            float x = points[i];
+            float y = points[i + 1];
+            points[i] = values[CropMapper.MSCALE_X] * x + values[CropMapper.MSKEW_X] * y + values[CropMapper.MTRANS_X];
+            points[i + 1] = values[CropMapper.MSKEW_Y] * x + values[CropMapper.MSCALE_Y] * y + values[CropMapper.MTRANS_Y];
+        }
+    }
+
+    /**
+     * 映射矩形，结果为外接矩形
+     *
+     * @param rect 输入输出，依次为left, top, right, bottom
+     */
+    public void mapRect(float[] rect) {
+        CropMapper.mapRect(values, rect);
+    }
+
+    /**
+     * 缩放比例，包含旋转或镜像时取x轴方向向量的长度
+     */
+    public float getScale() {
+        float scaleX = values[CropMapper.MSCALE_X];
+        float skewY = values[CropMapper.MSKEW_Y];
+        return (float) Math.sqrt(scaleX * scaleX + skewY * skewY);
+    }
+
+    private void setValues(float scaleX, float skewX, float transX, float skewY, float scaleY, float transY) {
+        values[CropMapper.MSCALE_X] = scaleX;
+        values[CropMapper.MSKEW_X] = skewX;
+        values[CropMapper.MTRANS_X] = transX;
+        values[CropMapper.MSKEW_Y] = skewY;
+        values[CropMapper.MSCALE_Y] = scaleY;
+        values[CropMapper.MTRANS_Y] = transY;
+        values[CropMapper.MPERSP_0] = 0;
+        values[CropMapper.MPERSP_1] = 0;
+        values[CropMapper.MPERSP_2] = 1;
+    }
+
+    /**
+     * out = a * b，out可以与a或b为同一个数组
+     */
+    private void multiply(float[] a, float[] b, float[] out) {
+        float[] t = temp;
+        t[CropMapper.MSCALE_X] = a[CropMapper.MSCALE_X] * b[CropMapper.MSCALE_X] + a[CropMapper.MSKEW_X] * b[CropMapper.MSKEW_Y];
+        t[CropMapper.MSKEW_X] = a[CropMapper.MSCALE_X] * b[CropMapper.MSKEW_X] + a[CropMapper.MSKEW_X] * b[CropMapper.MSCALE_Y];
+        t[CropMapper.MTRANS_X] = a[CropMapper.MSCALE_X] * b[CropMapper.MTRANS_X] + a[CropMapper.MSKEW_X] * b[CropMapper.MTRANS_Y]
+                + a[CropMapper.MTRANS_X];
+        t[CropMapper.MSKEW_Y] = a[CropMapper.MSKEW_Y] * b[CropMapper.MSCALE_X] + a[CropMapper.MSCALE_Y] * b[CropMapper.MSKEW_Y];
+        t[CropMapper.MSCALE_Y] = a[CropMapper.MSKEW_Y] * b[CropMapper.MSKEW_X] + a[CropMapper.MSCALE_Y] * b[CropMapper.MSCALE_Y];
+        t[CropMapper.MTRANS_Y] = a[CropMapper.MSKEW_Y] * b[CropMapper.MTRANS_X] + a[CropMapper.MSCALE_Y] * b[CropMapper.MTRANS_Y]
+                + a[CropMapper.MTRANS_Y];
+        t[CropMapper.MPERSP_0] = 0;
+        t[CropMapper.MPERSP_1] = 0;
+        t[CropMapper.MPERSP_2] = 1;
+        System.arraycopy(t, 0, out, 0, 9);
+    }
+}
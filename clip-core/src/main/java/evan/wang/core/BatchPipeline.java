@@ -0,0 +1,292 @@
+package evan.wang.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量处理流水线：解码 -> 变换 -> 编码
+ * <p/>
+ * 每个阶段有自己的线程数，阶段之间的等待数量有上限：下一阶段已满时，上一阶段的线程会等待，
+ * 不会把解码结果无限堆积在内存中。每张图片完成后立即回调结果和各阶段耗时，不等待整批完成。
+ *
+ * @param <I> 输入
+ * @param <D> 解码结果
+ * @param <T> 变换结果
+ * @param <O> 编码结果
+ */
+public final class BatchPipeline<I, D, T, O> {
+    //阶段下标
+    public static final int DECODE = 0;
+    public static final int TRANSFORM = 1;
+    public static final int ENCODE = 2;
+    private static final int STAGE_COUNT = 3;
+    private static final String[] STAGE_NAMES = {"decode", "transform", "encode"};
+
+    /**
+     * 处理阶段
+     */
+    public interface Stage<In, Out> {
+        Out process(In input) throws Exception;
+    }
+
+    /**
+     * 结果回调，在流水线的线程中执行
+     */
+    public interface Listener<I, O> {
+        /**
+         * 一张图片完成或失败
+         */
+        void onResult(Result<I, O> result);
+
+        /**
+         * 整批完成
+         */
+        void onFinished(int succeeded, int failed, boolean cancelled);
+    }
+
+    /**
+     * 一张图片的结果
+     */
+    public static final class Result<I, O> {
+        //输入
+        public final I input;
+        //编码结果，失败时为null
+        public O output;
+        //失败原因，取消时为CancellationException
+        public Throwable error;
+        //失败的阶段，成功时为-1
+        public int failedStage = -1;
+        //各阶段的处理耗时（纳秒），不包括排队等待
+        public final long[] stageNanos = new long[STAGE_COUNT];
+        //从开始解码到完成的总耗时（纳秒），包括排队等待
+        public long totalNanos;
+        private long startNanos;
+
+        Result(I input) {
+            this.input = input;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * 一批任务
+     */
+    public final class Batch {
+        private final ExecutorService[] executors = new ExecutorService[STAGE_COUNT];
+        private final Semaphore[] permits = new Semaphore[STAGE_COUNT];
+        private final Listener<I, O> listener;
+        //未完成的图片数，加上输入线程自己的1
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean cancelled;
+
+        Batch(Listener<I, O> listener) {
+            this.listener = listener;
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism[i], parallelism[i],
+                        30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory(STAGE_NAMES[i]));
+                executor.allowCoreThreadTimeOut(true);
+                executors[i] = executor;
+                //正在处理的加上排队等待的
+                permits[i] = new Semaphore(parallelism[i] + queueCapacity);
+            }
+        }
+
+        /**
+         * 取消，未开始的阶段不再执行，以CancellationException回调
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 等待整批完成
+         */
+        public void await() throws InterruptedException {
+            finished.await();
+        }
+
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return finished.await(timeout, unit);
+        }
+
+        private void feed(Iterable<? extends I> inputs) {
+            try {
+                for (I input : inputs) {
+                    //解码阶段已满时在这里等待
+                    permits[DECODE].acquireUninterruptibly();
+                    if (cancelled) {
+                        permits[DECODE].release();
+                        break;
+                    }
+                    pending.incrementAndGet();
+                    Result<I, O> result = new Result<I, O>(input);
+                    result.startNanos = System.nanoTime();
+                    submit(DECODE, input, result);
+                }
+            } finally {
+                done();
+            }
+        }
+
+        private void submit(final int stage, final Object input, final Result<I, O> result) {
+            executors[stage].execute(new Runnable() {
+                @Override
+                public void run() {
+                    runStage(stage, input, result);
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private void runStage(int stage, Object input, Result<I, O> result) {
+            Object output = null;
+            boolean success = false;
+            try {
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                long start = System.nanoTime();
+                output = ((Stage<Object, Object>) stages[stage]).process(input);
+                result.stageNanos[stage] = System.nanoTime() - start;
+                success = true;
+            } catch (Throwable e) {
+                result.error = e;
+                result.failedStage = stage;
+            }
+            if (success && stage < ENCODE) {
+                //下一阶段已满时当前线程等待，形成反压
+                permits[stage + 1].acquireUninterruptibly();
+                permits[stage].release();
+                submit(stage + 1, output, result);
+                return;
+            }
+            permits[stage].release();
+            if (success) {
+                result.output = (O) output;
+            }
+            finish(result);
+        }
+
+        private void finish(Result<I, O> result) {
+            result.totalNanos = System.nanoTime() - result.startNanos;
+            if (result.isSuccess()) {
+                succeeded.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            try {
+                listener.onResult(result);
+            } finally {
+                done();
+            }
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() != 0) {
+                return;
+            }
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+            }
+            try {
+                listener.onFinished(succeeded.get(), failed.get(), cancelled);
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+
+    private final Object[] stages;
+    private final int[] parallelism = new int[STAGE_COUNT];
+    private int queueCapacity = 4;
+    private ThreadFactory threadFactory;
+
+    /**
+     * 默认线程数：解码2个（解码很耗内存），变换与CPU核数相同，编码1个
+     */
+    public BatchPipeline(Stage<I, D> decode, Stage<D, T> transform, Stage<T, O> encode) {
+        stages = new Object[]{decode, transform, encode};
+        parallelism[DECODE] = 2;
+        parallelism[TRANSFORM] = Runtime.getRuntime().availableProcessors();
+        parallelism[ENCODE] = 1;
+    }
+
+    /**
+     * 设置某个阶段的线程数
+     *
+     * @param stage DECODE、TRANSFORM或ENCODE
+     */
+    public BatchPipeline<I, D, T, O> setParallelism(int stage, int threads) {
+        parallelism[stage] = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * 设置每个阶段最多排队等待的数量，超出时上一阶段等待
+     */
+    public BatchPipeline<I, D, T, O> setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(0, queueCapacity);
+        return this;
+    }
+
+    /**
+     * 设置创建线程的工厂，为null时使用普通的后台线程
+     */
+    public BatchPipeline<I, D, T, O> setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        return this;
+    }
+
+    /**
+     * 开始处理，立即返回。inputs在调用时拷贝，之后在单独的线程中按顺序送入解码阶段
+     */
+    public Batch start(Iterable<? extends I> inputs, Listener<I, O> listener) {
+        final Batch batch = new Batch(listener);
+        final List<I> snapshot = new ArrayList<I>();
+        for (I input : inputs) {
+            snapshot.add(input);
+        }
+        threadFactory("feed").newThread(new Runnable() {
+            @Override
+            public void run() {
+                batch.feed(snapshot);
+            }
+        }).start();
+        return batch;
+    }
+
+    private ThreadFactory threadFactory(final String name) {
+        if (threadFactory != null) {
+            return threadFactory;
+        }
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "clip-batch-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
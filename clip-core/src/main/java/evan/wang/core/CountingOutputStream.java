@@ -0,0 +1,89 @@
+package evan.wang.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 统计写入字节数的输出流
+ * <p/>
+ * out为null时只计数不写入，用于估算压缩后的大小；设置了上限时，超出上限立即抛出异常中止压缩，不做无用功。
+ */
+public class CountingOutputStream extends OutputStream {
+
+    /**
+     * 写入字节数超出上限
+     */
+    public static class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public LimitExceededException(long limit) {
+            super("Output exceeds " + limit + " bytes");
+        }
+    }
+
+    private final OutputStream out;
+    private final long limit;
+    private long count;
+    private boolean limitExceeded;
+
+    /**
+     * @param out   实际写入的流，为null时只计数
+     * @param limit 字节数上限，小于等于0表示不限制
+     */
+    public CountingOutputStream(OutputStream out, long limit) {
+        this.out = out;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        if (out != null) {
+            out.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(len);
+        if (out != null) {
+            out.write(b, off, len);
+        }
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+        count += len;
+        if (limit > 0 && count > limit) {
+            limitExceeded = true;
+            throw new LimitExceededException(limit);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * 已写入的字节数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 是否因为超出上限而中止
+     */
+    public boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+}
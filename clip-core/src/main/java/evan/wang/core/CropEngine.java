@@ -0,0 +1,162 @@
+package evan.wang.core;
+
+/**
+ * 裁剪引擎
+ * <p/>
+ * 从原图像素中取出裁剪区域，校正EXIF方向并缩放到输出尺寸。纯Java实现，
+ * Android中由BitmapRegionDecoder解码区域，在服务端或者JVM测试中直接使用Raster。
+ */
+public final class CropEngine {
+
+    private CropEngine() {
+    }
+
+    /**
+     * 区域坐标到输出坐标的变换：校正方向后缩放到输出尺寸
+     *
+     * @param orientation  EXIF方向
+     * @param regionWidth  区域宽（未旋转）
+     * @param regionHeight 区域高（未旋转）
+     * @param out          输出变换
+     */
+    public static void outputTransform(int orientation, int regionWidth, int regionHeight,
+                                       int outWidth, int outHeight, AffineTransform out) {
+        float[] values = new float[9];
+        ExifOrientation.getMatrix(orientation, regionWidth, regionHeight, values);
+        out.setValues(values);
+        out.postScale((float) outWidth / ExifOrientation.orientedWidth(orientation, regionWidth, regionHeight),
+                (float) outHeight / ExifOrientation.orientedHeight(orientation, regionWidth, regionHeight));
+    }
+
+    /**
+     * 从原图中裁剪区域，校正方向并用Lanczos缩放到输出尺寸
+     *
+     * @param src         原图
+     * @param srcRect     原图坐标下的区域 left, top, right, bottom，可由CropMapper.mapClipRect得到
+     * @param orientation 原图的EXIF方向
+     */
+    public static Raster crop(Raster src, int[] srcRect, int orientation, int outWidth, int outHeight) {
+        return crop(src, srcRect, orientation, outWidth, outHeight, Resampler.Filter.LANCZOS3);
+    }
+
+    /**
+     * 从原图中裁剪区域，校正方向并缩放到输出尺寸
+     * <p/>
+     * 方向校正只是像素的重新排列，不损失清晰度，缩放由Resampler完成
+     */
+    public static Raster crop(Raster src, int[] srcRect, int orientation, int outWidth, int outHeight,
+                              Resampler.Filter filter) {
+        Raster region = src.crop(srcRect[0], srcRect[1], srcRect[2], srcRect[3]);
+        Raster oriented = orient(region, orientation);
+        if (oriented.getWidth() == outWidth && oriented.getHeight() == outHeight) {
+            return oriented;
+        }
+        return Resampler.resize(oriented, outWidth, outHeight, filter);
+    }
+
+    /**
+     * 按EXIF方向旋转或镜像像素
+     */
+    public static Raster orient(Raster src, int orientation) {
+        if (orientation <= ExifOrientation.NORMAL || orientation > ExifOrientation.ROTATE_270) {
+            return src;
+        }
+        int width = src.getWidth();
+        int height = src.getHeight();
+        float[] m = new float[9];
+        ExifOrientation.getMatrix(orientation, width, height, m);
+        Raster dst = new Raster(ExifOrientation.orientedWidth(orientation, width, height),
+                ExifOrientation.orientedHeight(orientation, width, height));
+        int[] srcPixels = src.getPixels();
+        int[] dstPixels = dst.getPixels();
+        int dstWidth = dst.getWidth();
+        //方向矩阵只包含0和±1，像素中心映射后取整即为目标像素
+        int stepX = Math.round(m[CropMapper.MSCALE_X]) + Math.round(m[CropMapper.MSKEW_Y]) * dstWidth;
+        for (int y = 0; y < height; y++) {
+            int dx = (int) (m[CropMapper.MSKEW_X] * (y + 0.5f) + m[CropMapper.MSCALE_X] * 0.5f + m[CropMapper.MTRANS_X]);
+            int dy = (int) (m[CropMapper.MSCALE_Y] * (y + 0.5f) + m[CropMapper.MSKEW_Y] * 0.5f + m[CropMapper.MTRANS_Y]);
+            int index = dy * dstWidth + dx;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                dstPixels[index] = srcPixels[row + x];
+                index += stepX;
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * 按变换把src绘制到dst，dst的每个像素中心逆映射回src做双线性插值，采样限制在bounds范围内
+     *
+     * @param transform src坐标到dst坐标的变换
+     * @param bounds    src中允许采样的范围 left, top, right, bottom
+     */
+    public static void transform(Raster src, AffineTransform transform, int[] bounds, Raster dst) {
+        AffineTransform inverse = new AffineTransform();
+        if (!transform.invert(inverse)) {
+            throw new IllegalArgumentException("Transform is not invertible");
+        }
+        float a = inverse.get(CropMapper.MSCALE_X);
+        float b = inverse.get(CropMapper.MSKEW_X);
+        float c = inverse.get(CropMapper.MTRANS_X);
+        float d = inverse.get(CropMapper.MSKEW_Y);
+        float e = inverse.get(CropMapper.MSCALE_Y);
+        float f = inverse.get(CropMapper.MTRANS_Y);
+        int[] srcPixels = src.getPixels();
+        int srcStride = src.getWidth();
+        int[] dstPixels = dst.getPixels();
+        int dstWidth = dst.getWidth();
+        int dstHeight = dst.getHeight();
+        //采样点坐标限制在像素中心之间
+        float minX = bounds[0];
+        float minY = bounds[1];
+        float maxX = bounds[2] - 1;
+        float maxY = bounds[3] - 1;
+        for (int y = 0; y < dstHeight; y++) {
+            float cy = y + 0.5f;
+            //行首像素中心映射回src，-0.5转换为像素下标
+            float u = a * 0.5f + b * cy + c - 0.5f;
+            float v = d * 0.5f + e * cy + f - 0.5f;
+            int row = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                dstPixels[row + x] = sample(srcPixels, srcStride, clamp(u, minX, maxX), clamp(v, minY, maxY),
+                        (int) maxX, (int) maxY);
+                u += a;
+                v += d;
+            }
+        }
+    }
+
+    /**
+     * 双线性插值，ARGB四个通道分别计算
+     */
+    private static int sample(int[] pixels, int stride, float u, float v, int maxX, int maxY) {
+        int x0 = (int) u;
+        int y0 = (int) v;
+        int x1 = x0 < maxX ? x0 + 1 : x0;
+        int y1 = y0 < maxY ? y0 + 1 : y0;
+        //权重放大到0~256，整数运算
+        int fx = (int) ((u - x0) * 256);
+        int fy = (int) ((v - y0) * 256);
+        int p00 = pixels[y0 * stride + x0];
+        int p10 = pixels[y0 * stride + x1];
+        int p01 = pixels[y1 * stride + x0];
+        int p11 = pixels[y1 * stride + x1];
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int c00 = (p00 >>> shift) & 0xff;
+            int c10 = (p10 >>> shift) & 0xff;
+            int c01 = (p01 >>> shift) & 0xff;
+            int c11 = (p11 >>> shift) & 0xff;
+            int top = c00 * (256 - fx) + c10 * fx;
+            int bottom = c01 * (256 - fx) + c11 * fx;
+            int value = (top * (256 - fy) + bottom * fy + (1 << 15)) >>> 16;
+            result |= value << shift;
+        }
+        return result;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
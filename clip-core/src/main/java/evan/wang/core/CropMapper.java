@@ -0,0 +1,138 @@
+package evan.wang.core;
+
+/**
+ * 裁剪框坐标映射
+ * <p/>
+ * 把屏幕上裁剪框的位置通过显示矩阵的逆矩阵映射回原图文件的像素坐标，
+ * 这样裁剪时可以直接从原图解码对应区域，而不是截取屏幕上的绘制缓存。
+ * <p/>
+ * 纯Java实现，不依赖android.graphics，矩阵采用与Matrix#getValues一致的9个float排列。
+ */
+public final class CropMapper {
+    //矩阵数组下标，与android.graphics.Matrix保持一致
+    public static final int MSCALE_X = 0;
+    public static final int MSKEW_X = 1;
+    public static final int MTRANS_X = 2;
+    public static final int MSKEW_Y = 3;
+    public static final int MSCALE_Y = 4;
+    public static final int MTRANS_Y = 5;
+    public static final int MPERSP_0 = 6;
+    public static final int MPERSP_1 = 7;
+    public static final int MPERSP_2 = 8;
+
+    private CropMapper() {
+    }
+
+    /**
+     * 求仿射矩阵的逆矩阵
+     *
+     * @param src 原矩阵
+     * @param dst 逆矩阵输出，可以与src为同一个数组
+     * @return 矩阵不可逆时返回false
+     */
+    public static boolean invert(float[] src, float[] dst) {
+        double a = src[MSCALE_X];
+        double b = src[MSKEW_X];
+        double c = src[MTRANS_X];
+        double d = src[MSKEW_Y];
+        double e = src[MSCALE_Y];
+        double f = src[MTRANS_Y];
+        double det = a * e - b * d;
+        if (Math.abs(det) < 1e-12) {
+            return false;
+        }
+        double invDet = 1.0 / det;
+        dst[MSCALE_X] = (float) (e * invDet);
+        dst[MSKEW_X] = (float) (-b * invDet);
+        dst[MTRANS_X] = (float) ((b * f - c * e) * invDet);
+        dst[MSKEW_Y] = (float) (-d * invDet);
+        dst[MSCALE_Y] = (float) (a * invDet);
+        dst[MTRANS_Y] = (float) ((c * d - a * f) * invDet);
+        dst[MPERSP_0] = 0;
+        dst[MPERSP_1] = 0;
+        dst[MPERSP_2] = 1;
+        return true;
+    }
+
+    /**
+     * 用矩阵映射矩形，结果为四个顶点映射后的外接矩形
+     *
+     * @param m    矩阵
+     * @param rect 输入输出，依次为left, top, right, bottom
+     */
+    public static void mapRect(float[] m, float[] rect) {
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            float x = (i & 1) == 0 ? rect[0] : rect[2];
+            float y = (i & 2) == 0 ? rect[1] : rect[3];
+            float mx = m[MSCALE_X] * x + m[MSKEW_X] * y + m[MTRANS_X];
+            float my = m[MSKEW_Y] * x + m[MSCALE_Y] * y + m[MTRANS_Y];
+            minX = Math.min(minX, mx);
+            minY = Math.min(minY, my);
+            maxX = Math.max(maxX, mx);
+            maxY = Math.max(maxY, my);
+        }
+        rect[0] = minX;
+        rect[1] = minY;
+        rect[2] = maxX;
+        rect[3] = maxY;
+    }
+
+    /**
+     * 把裁剪框映射到原图文件坐标
+     * <p/>
+     * 显示矩阵把解码出的bitmap（按采样率缩小、未做旋转）映射到控件坐标，EXIF方向已经合并在矩阵中，
+     * 映射过程依次为：逆显示矩阵 -> 按缩放比例放大到原图尺寸。
+     *
+     * @param displayMatrix 显示矩阵的9个值
+     * @param clipRect      裁剪框 left, top, right, bottom（控件坐标）
+     * @param bitmapWidth   解码出的bitmap的宽
+     * @param bitmapHeight  解码出的bitmap的高
+     * @param srcWidth      原图文件的宽
+     * @param srcHeight     原图文件的高
+     * @param outRect       输出原图坐标 left, top, right, bottom，已限制在原图范围内
+     * @return 矩阵不可逆或映射结果为空时返回false
+     */
+    public static boolean mapClipRect(float[] displayMatrix, float[] clipRect,
+                                      int bitmapWidth, int bitmapHeight,
+                                      int srcWidth, int srcHeight, int[] outRect) {
+        float[] inverse = new float[9];
+        if (!invert(displayMatrix, inverse)) {
+            return false;
+        }
+        float[] rect = new float[]{clipRect[0], clipRect[1], clipRect[2], clipRect[3]};
+        //控件坐标 -> bitmap坐标
+        mapRect(inverse, rect);
+        //采样后的bitmap坐标 -> 原图坐标
+        float scaleX = (float) srcWidth / bitmapWidth;
+        float scaleY = (float) srcHeight / bitmapHeight;
+        outRect[0] = clamp(Math.round(rect[0] * scaleX), 0, srcWidth);
+        outRect[1] = clamp(Math.round(rect[1] * scaleY), 0, srcHeight);
+        outRect[2] = clamp(Math.round(rect[2] * scaleX), 0, srcWidth);
+        outRect[3] = clamp(Math.round(rect[3] * scaleY), 0, srcHeight);
+        return outRect[2] > outRect[0] && outRect[3] > outRect[1];
+    }
+
+    /**
+     * 计算区域解码时的采样率：不超过区域与输出尺寸之比的最大2的次幂，
+     * 保证解码结果不小于输出尺寸
+     */
+    public static int regionSampleSize(int regionWidth, int regionHeight, int outWidth, int outHeight) {
+        int sampleSize = 1;
+        if (outWidth <= 0 || outHeight <= 0) {
+            return sampleSize;
+        }
+        while (regionWidth / (sampleSize * 2) >= outWidth
+                && regionHeight / (sampleSize * 2) >= outHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
@@ -0,0 +1,83 @@
+package evan.wang.core;
+
+/**
+ * 裁剪性能指标
+ * <p/>
+ * 热点路径上的耗时、字节数和逐个事件的日志都通过这个接口记录，默认为NONE，什么都不做。
+ * 调用方先用getLevel判断级别，级别不够时不取时间、不拼接日志字符串。
+ */
+public interface CropMetrics {
+    //不记录
+    int LEVEL_OFF = 0;
+    //记录耗时和字节数
+    int LEVEL_TIMING = 1;
+    //同时记录逐个事件的日志
+    int LEVEL_EVENT = 2;
+
+    /**
+     * 耗时
+     */
+    enum Timer {
+        //打开Uri
+        URI_RESOLVE,
+        //读取宽高（文件头或inJustDecodeBounds）
+        BOUNDS_DECODE,
+        //整图解码
+        FULL_DECODE,
+        //读取EXIF方向
+        EXIF,
+        //从设置原图到第一次画出图片
+        FIRST_FRAME,
+        //手势过程中每一帧的绘制
+        GESTURE_FRAME,
+        //裁剪，包括区域解码、校正方向和缩放
+        CROP,
+        //校正方向和缩放
+        RESAMPLE,
+        //编码并写入输出
+        ENCODE
+    }
+
+    /**
+     * 字节数
+     */
+    enum Size {
+        //编码输出的字节数
+        BYTES_WRITTEN,
+        //解码出的bitmap的字节数，最大值即峰值
+        BITMAP_BYTES
+    }
+
+    /**
+     * 不记录任何指标
+     */
+    CropMetrics NONE = new CropMetrics() {
+        @Override
+        public int getLevel() {
+            return LEVEL_OFF;
+        }
+
+        @Override
+        public void recordTime(Timer timer, long nanos) {
+        }
+
+        @Override
+        public void recordSize(Size size, long bytes) {
+        }
+
+        @Override
+        public void event(String tag, String message) {
+        }
+    };
+
+    /**
+     * 记录级别，LEVEL_OFF、LEVEL_TIMING或LEVEL_EVENT
+     */
+    int getLevel();
+
+    void recordTime(Timer timer, long nanos);
+
+    void recordSize(Size size, long bytes);
+
+    void event(String tag, String message);
+}
@@ -0,0 +1,93 @@
+package evan.wang.core;
+
+/**
+ * 与图片尺寸无关的裁剪区域
+ * <p/>
+ * 以校正方向后的图片为准，可以是居中的固定宽高比区域，也可以是按比例（0~1）表示的矩形，
+ * 例如保存下来的人脸区域。批量处理时同一个CropSpec应用到不同尺寸的图片上。
+ */
+public final class CropSpec {
+    //按比例表示的矩形
+    private final float left;
+    private final float top;
+    private final float right;
+    private final float bottom;
+    //大于0时为居中的固定宽高比区域
+    private final float aspectRatio;
+
+    private CropSpec(float left, float top, float right, float bottom, float aspectRatio) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.aspectRatio = aspectRatio;
+    }
+
+    /**
+     * 居中的最大的固定宽高比区域，例如centerAspect(16, 9)
+     */
+    public static CropSpec centerAspect(float width, float height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid aspect ratio: " + width + ":" + height);
+        }
+        return new CropSpec(0, 0, 1, 1, width / height);
+    }
+
+    /**
+     * 按比例表示的矩形，取值0~1，相对于校正方向后的图片宽高
+     */
+    public static CropSpec normalizedRect(float left, float top, float right, float bottom) {
+        if (!(left >= 0 && top >= 0 && right <= 1 && bottom <= 1 && left < right && top < bottom)) {
+            throw new IllegalArgumentException("Invalid rect: " + left + ", " + top + ", " + right + ", " + bottom);
+        }
+        return new CropSpec(left, top, right, bottom, 0);
+    }
+
+    /**
+     * 计算校正方向后的图片中的裁剪区域
+     *
+     * @param out left, top, right, bottom
+     */
+    public void resolve(int width, int height, int[] out) {
+        if (aspectRatio > 0) {
+            int cropWidth = width;
+            int cropHeight = Math.round(width / aspectRatio);
+            if (cropHeight > height) {
+                cropHeight = height;
+                cropWidth = Math.round(height * aspectRatio);
+            }
+            out[0] = (width - cropWidth) / 2;
+            out[1] = (height - cropHeight) / 2;
+            out[2] = out[0] + cropWidth;
+            out[3] = out[1] + cropHeight;
+        } else {
+            out[0] = Math.round(left * width);
+            out[1] = Math.round(top * height);
+            out[2] = Math.max(out[0] + 1, Math.round(right * width));
+            out[3] = Math.max(out[1] + 1, Math.round(bottom * height));
+        }
+    }
+
+    /**
+     * 计算原图文件（未校正方向）中的裁剪区域，可以直接用于区域解码
+     *
+     * @param orientation EXIF方向
+     * @param srcWidth    原图文件的宽
+     * @param srcHeight   原图文件的高
+     * @param out         left, top, right, bottom
+     */
+    public void toSourceRect(int orientation, int srcWidth, int srcHeight, int[] out) {
+        resolve(ExifOrientation.orientedWidth(orientation, srcWidth, srcHeight),
+                ExifOrientation.orientedHeight(orientation, srcWidth, srcHeight), out);
+        //原图 -> 校正方向后的图片 的逆变换
+        float[] matrix = new float[9];
+        ExifOrientation.getMatrix(orientation, srcWidth, srcHeight, matrix);
+        CropMapper.invert(matrix, matrix);
+        float[] rect = {out[0], out[1], out[2], out[3]};
+        CropMapper.mapRect(matrix, rect);
+        out[0] = Math.max(0, Math.round(rect[0]));
+        out[1] = Math.max(0, Math.round(rect[1]));
+        out[2] = Math.min(srcWidth, Math.round(rect[2]));
+        out[3] = Math.min(srcHeight, Math.round(rect[3]));
+    }
+}
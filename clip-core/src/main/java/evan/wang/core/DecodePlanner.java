@@ -0,0 +1,168 @@
+package evan.wang.core;
+
+import java.util.Locale;
+
+/**
+ * 显示用底图的解码计划
+ * <p/>
+ * 根据控件尺寸和最大放大倍数计算需要的分辨率，取不低于该分辨率的最大2的次幂采样率；
+ * 解码后的字节数超过内存预算时，不透明的图片先改用RGB_565，仍然超出再加倍采样率。
+ * 单边也不超过maxTextureSize，避免硬件加速时bitmap过大无法上传为纹理。
+ */
+public final class DecodePlanner {
+    //显示底图的内存预算占进程可用内存的比例，与BitmapCache的大小一致，解码结果能放入缓存
+    private static final int BUDGET_DIVISOR = 8;
+    //大多数设备的GL_MAX_TEXTURE_SIZE不小于4096
+    private static final int DEFAULT_MAX_TEXTURE_SIZE = 4096;
+
+    /**
+     * 像素格式，对应Bitmap.Config
+     */
+    public enum PixelFormat {
+        ARGB_8888(4),
+        RGB_565(2);
+
+        public final int bytesPerPixel;
+
+        PixelFormat(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    /**
+     * 解码计划，用于解码、日志和测试
+     */
+    public static final class Plan {
+        //采样率，2的次幂
+        public int sampleSize;
+        public PixelFormat format;
+        //解码后的宽高（未校正方向），按向上取整估算
+        public int width;
+        public int height;
+        //解码后bitmap的字节数
+        public long expectedBytes;
+        //需要的宽高（未校正方向）
+        public int targetWidth;
+        public int targetHeight;
+        //内存预算
+        public long budgetBytes;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "sampleSize=%d %s %dx%d %.1fKB (target %dx%d, budget %.1fKB)",
+                    sampleSize, format, width, height, expectedBytes / 1024f,
+                    targetWidth, targetHeight, budgetBytes / 1024f);
+        }
+    }
+
+    private final long budgetBytes;
+    private float maxZoom = 1;
+    private int maxTextureSize = DEFAULT_MAX_TEXTURE_SIZE;
+
+    /**
+     * @param budgetBytes 显示底图最多占用的字节数
+     */
+    public DecodePlanner(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * 按ActivityManager.getMemoryClass()计算内存预算
+     *
+     * @param memoryClassMb 进程可用内存（MB）
+     */
+    public static DecodePlanner forMemoryClass(int memoryClassMb) {
+        return new DecodePlanner((long) memoryClassMb * 1024 * 1024 / BUDGET_DIVISOR);
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * 相对初始显示比例的最大放大倍数，放大到最大时仍然保持一个像素对应屏幕上一个像素
+     */
+    public DecodePlanner setMaxZoom(float maxZoom) {
+        this.maxZoom = Math.max(1, maxZoom);
+        return this;
+    }
+
+    public DecodePlanner setMaxTextureSize(int maxTextureSize) {
+        this.maxTextureSize = Math.max(1, maxTextureSize);
+        return this;
+    }
+
+    /**
+     * 计算解码计划，不考虑裁剪框
+     *
+     * @see #plan(int, int, int, int, int, int, int, boolean)
+     */
+    public Plan plan(int srcWidth, int srcHeight, int orientation, int viewWidth, int viewHeight, boolean opaque) {
+        return plan(srcWidth, srcHeight, orientation, viewWidth, viewHeight, 0, 0, opaque);
+    }
+
+    /**
+     * 计算解码计划
+     *
+     * @param srcWidth    原图宽（未校正方向）
+     * @param srcHeight   原图高（未校正方向）
+     * @param orientation EXIF方向
+     * @param viewWidth   控件宽
+     * @param viewHeight  控件高
+     * @param clipWidth   裁剪框宽，初始显示比例不小于图片填满裁剪框的比例，为0时不考虑
+     * @param clipHeight  裁剪框高
+     * @param opaque      图片不透明（例如JPEG），可以使用RGB_565
+     */
+    public Plan plan(int srcWidth, int srcHeight, int orientation, int viewWidth, int viewHeight,
+                     int clipWidth, int clipHeight, boolean opaque) {
+        Plan plan = new Plan();
+        plan.budgetBytes = budgetBytes;
+        int orientedWidth = ExifOrientation.orientedWidth(orientation, srcWidth, srcHeight);
+        int orientedHeight = ExifOrientation.orientedHeight(orientation, srcWidth, srcHeight);
+        //初始显示比例与ClipViewLayout相同：宽图宽度铺满，高图高度铺满，
+        //但短边不能小于裁剪框，例如全景图的初始比例由裁剪框的高决定
+        float fitScale;
+        float minScale;
+        if (orientedWidth >= orientedHeight) {
+            fitScale = (float) viewWidth / orientedWidth;
+            minScale = (float) clipHeight / orientedHeight;
+        } else {
+            fitScale = (float) viewHeight / orientedHeight;
+            minScale = (float) clipWidth / orientedWidth;
+        }
+        float scale = Math.min(1, Math.max(fitScale, minScale) * maxZoom);
+        int targetWidth = Math.max(1, (int) Math.ceil(orientedWidth * scale));
+        int targetHeight = Math.max(1, (int) Math.ceil(orientedHeight * scale));
+        boolean swap = ExifOrientation.swapsDimensions(orientation);
+        plan.targetWidth = swap ? targetHeight : targetWidth;
+        plan.targetHeight = swap ? targetWidth : targetHeight;
+
+        int sampleSize = SampleSize.powerOfTwo(srcWidth, srcHeight, plan.targetWidth, plan.targetHeight);
+        while (ceilDiv(Math.max(srcWidth, srcHeight), sampleSize) > maxTextureSize) {
+            sampleSize *= 2;
+        }
+        PixelFormat format = PixelFormat.ARGB_8888;
+        while (bytes(srcWidth, srcHeight, sampleSize, format) > budgetBytes
+                && (ceilDiv(srcWidth, sampleSize) > 1 || ceilDiv(srcHeight, sampleSize) > 1)) {
+            if (opaque && format == PixelFormat.ARGB_8888) {
+                format = PixelFormat.RGB_565;
+            } else {
+                sampleSize *= 2;
+            }
+        }
+        plan.sampleSize = sampleSize;
+        plan.format = format;
+        plan.width = ceilDiv(srcWidth, sampleSize);
+        plan.height = ceilDiv(srcHeight, sampleSize);
+        plan.expectedBytes = bytes(srcWidth, srcHeight, sampleSize, format);
+        return plan;
+    }
+
+    private static long bytes(int width, int height, int sampleSize, PixelFormat format) {
+        return (long) ceilDiv(width, sampleSize) * ceilDiv(height, sampleSize) * format.bytesPerPixel;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
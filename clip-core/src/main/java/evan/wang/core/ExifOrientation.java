@@ -0,0 +1,147 @@
+package evan.wang.core;
+
+/**
+ * EXIF方向
+ * <p/>
+ * 把EXIF的8种方向（含镜像）转换为仿射矩阵，矩阵把解码出的原始像素坐标映射到正确朝向的坐标，
+ * 映射后的图片左上角位于原点。旋转直接合并到显示矩阵和裁剪映射中，不需要再生成一份旋转后的bitmap。
+ * <p/>
+ * 矩阵采用与Matrix#getValues一致的9个float排列。
+ */
+public final class ExifOrientation {
+    //取值与ExifInterface.ORIENTATION_*一致
+    public static final int UNDEFINED = 0;
+    public static final int NORMAL = 1;
+    public static final int FLIP_HORIZONTAL = 2;
+    public static final int ROTATE_180 = 3;
+    public static final int FLIP_VERTICAL = 4;
+    public static final int TRANSPOSE = 5;
+    public static final int ROTATE_90 = 6;
+    public static final int TRANSVERSE = 7;
+    public static final int ROTATE_270 = 8;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * 方向是否会交换宽高
+     */
+    public static boolean swapsDimensions(int orientation) {
+        return orientation >= TRANSPOSE && orientation <= ROTATE_270;
+    }
+
+    /**
+     * 方向是否包含镜像
+     */
+    public static boolean isMirrored(int orientation) {
+        return orientation == FLIP_HORIZONTAL || orientation == FLIP_VERTICAL
+                || orientation == TRANSPOSE || orientation == TRANSVERSE;
+    }
+
+    /**
+     * 方向对应的顺时针旋转角度（不含镜像部分）
+     */
+    public static int toDegrees(int orientation) {
+        switch (orientation) {
+            case ROTATE_90:
+            case TRANSPOSE:
+                return 90;
+            case ROTATE_180:
+            case FLIP_VERTICAL:
+                return 180;
+            case ROTATE_270:
+            case TRANSVERSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 朝向校正后的宽
+     */
+    public static int orientedWidth(int orientation, int width, int height) {
+        return swapsDimensions(orientation) ? height : width;
+    }
+
+    /**
+     * 朝向校正后的高
+     */
+    public static int orientedHeight(int orientation, int width, int height) {
+        return swapsDimensions(orientation) ? width : height;
+    }
+
+    /**
+     * 计算方向矩阵
+     *
+     * @param orientation EXIF方向
+     * @param width       原始像素的宽
+     * @param height      原始像素的高
+     * @param out         输出9个值
+     */
+    public static void getMatrix(int orientation, float width, float height, float[] out) {
+        float a = 1, b = 0, c = 0, d = 0, e = 1, f = 0;
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+                //(x, y) -> (w - x, y)
+                a = -1;
+                c = width;
+                break;
+            case ROTATE_180:
+                //(x, y) -> (w - x, h - y)
+                a = -1;
+                c = width;
+                e = -1;
+                f = height;
+                break;
+            case FLIP_VERTICAL:
+                //(x, y) -> (x, h - y)
+                e = -1;
+                f = height;
+                break;
+            case TRANSPOSE:
+                //(x, y) -> (y, x)
+                a = 0;
+                b = 1;
+                d = 1;
+                e = 0;
+                break;
+            case ROTATE_90:
+                //(x, y) -> (h - y, x)
+                a = 0;
+                b = -1;
+                c = height;
+                d = 1;
+                e = 0;
+                break;
+            case TRANSVERSE:
+                //(x, y) -> (h - y, w - x)
+                a = 0;
+                b = -1;
+                c = height;
+                d = -1;
+                e = 0;
+                f = width;
+                break;
+            case ROTATE_270:
+                //(x, y) -> (y, w - x)
+                a = 0;
+                b = 1;
+                d = -1;
+                e = 0;
+                f = width;
+                break;
+            default:
+                break;
+        }
+        out[CropMapper.MSCALE_X] = a;
+        out[CropMapper.MSKEW_X] = b;
+        out[CropMapper.MTRANS_X] = c;
+        out[CropMapper.MSKEW_Y] = d;
+        out[CropMapper.MSCALE_Y] = e;
+        out[CropMapper.MTRANS_Y] = f;
+        out[CropMapper.MPERSP_0] = 0;
+        out[CropMapper.MPERSP_1] = 0;
+        out[CropMapper.MPERSP_2] = 1;
+    }
+}
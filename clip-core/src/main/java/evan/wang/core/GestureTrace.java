@@ -0,0 +1,220 @@
+package evan.wang.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * 记录的触摸事件序列
+ * <p/>
+ * 文本格式，每行一项，#开头为注释：
+ * <pre>
+ * view 1080 1920              控件宽高
+ * clip 0 420 1080 1500        裁剪框 left top right bottom
+ * content 1500 2000           底图宽高
+ * down 0 540 960              动作 时间(ms) x0 y0 [x1 y1]
+ * pointer_down 120 400 960 680 960
+ * move 128 390 960 690 960
+ * pointer_up 400 390 960 690 960
+ * up 420 390 960
+ * </pre>
+ * 动作与MotionEvent的ACTION_DOWN、ACTION_POINTER_DOWN、ACTION_MOVE、ACTION_POINTER_UP、ACTION_UP对应，
+ * 单指事件只有一组坐标。同一份文件在JVM基准测试和设备上的回放测试中共用。
+ */
+public final class GestureTrace {
+    public static final int DOWN = 0;
+    public static final int POINTER_DOWN = 1;
+    public static final int MOVE = 2;
+    public static final int POINTER_UP = 3;
+    public static final int UP = 4;
+
+    private static final String[] ACTION_NAMES = {"down", "pointer_down", "move", "pointer_up", "up"};
+
+    private final String name;
+    private int viewWidth;
+    private int viewHeight;
+    private final int[] clipRect = new int[4];
+    private int contentWidth;
+    private int contentHeight;
+    private int size;
+    private int[] actions = new int[64];
+    private long[] times = new long[64];
+    private int[] pointerCounts = new int[64];
+    //每个事件4个值：x0, y0, x1, y1
+    private float[] coords = new float[64 * 4];
+
+    private GestureTrace(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 解析记录文件，格式错误时抛出IOException并给出行号
+     */
+    public static GestureTrace parse(String name, Reader reader) throws IOException {
+        GestureTrace trace = new GestureTrace(name);
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            try {
+                trace.parseLine(parts);
+            } catch (RuntimeException e) {
+                throw new IOException(name + ":" + lineNumber + ": " + line, e);
+            }
+        }
+        if (trace.viewWidth <= 0 || trace.contentWidth <= 0 || trace.size == 0) {
+            throw new IOException(name + ": missing view, content or events");
+        }
+        return trace;
+    }
+
+    private void parseLine(String[] parts) {
+        String key = parts[0];
+        if ("view".equals(key)) {
+            viewWidth = Integer.parseInt(parts[1]);
+            viewHeight = Integer.parseInt(parts[2]);
+        } else if ("clip".equals(key)) {
+            for (int i = 0; i < 4; i++) {
+                clipRect[i] = Integer.parseInt(parts[i + 1]);
+            }
+        } else if ("content".equals(key)) {
+            contentWidth = Integer.parseInt(parts[1]);
+            contentHeight = Integer.parseInt(parts[2]);
+        } else {
+            int action = Arrays.asList(ACTION_NAMES).indexOf(key);
+            if (action < 0) {
+                throw new IllegalArgumentException("unknown action: " + key);
+            }
+            int pointers = (parts.length - 2) / 2;
+            if (pointers < 1 || pointers > 2 || parts.length != 2 + pointers * 2) {
+                throw new IllegalArgumentException("expected 1 or 2 pointers");
+            }
+            ensureCapacity(size + 1);
+            actions[size] = action;
+            times[size] = Long.parseLong(parts[1]);
+            pointerCounts[size] = pointers;
+            for (int i = 0; i < 4; i++) {
+                //单指事件第二组坐标与第一组相同
+                coords[size * 4 + i] = Float.parseFloat(parts[2 + (i < pointers * 2 ? i : i - 2)]);
+            }
+            size++;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= actions.length) {
+            return;
+        }
+        int newLength = Math.max(capacity, actions.length * 2);
+        actions = Arrays.copyOf(actions, newLength);
+        times = Arrays.copyOf(times, newLength);
+        pointerCounts = Arrays.copyOf(pointerCounts, newLength);
+        coords = Arrays.copyOf(coords, newLength * 4);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getViewWidth() {
+        return viewWidth;
+    }
+
+    public int getViewHeight() {
+        return viewHeight;
+    }
+
+    /**
+     * @param out left, top, right, bottom
+     */
+    public void getClipRect(int[] out) {
+        System.arraycopy(clipRect, 0, out, 0, 4);
+    }
+
+    public int getContentWidth() {
+        return contentWidth;
+    }
+
+    public int getContentHeight() {
+        return contentHeight;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getAction(int index) {
+        return actions[index];
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public int getPointerCount(int index) {
+        return pointerCounts[index];
+    }
+
+    public float getX(int index, int pointer) {
+        return coords[index * 4 + pointer * 2];
+    }
+
+    public float getY(int index, int pointer) {
+        return coords[index * 4 + pointer * 2 + 1];
+    }
+
+    /**
+     * 按ClipViewLayout的初始状态设置变换：图片按较长边铺满控件并居中，不小于裁剪框，
+     * 缩放范围为[初始比例, 初始比例 * maxZoom]，同时设置手势的边界
+     */
+    public void initTransform(TransformModel transform, TouchGesture gesture, float maxZoom, float maxOverscroll) {
+        float scale;
+        float minScale;
+        if (contentWidth >= contentHeight) {
+            scale = (float) viewWidth / contentWidth;
+            minScale = (float) (clipRect[3] - clipRect[1]) / contentHeight;
+        } else {
+            scale = (float) viewHeight / contentHeight;
+            minScale = (float) (clipRect[2] - clipRect[0]) / contentWidth;
+        }
+        scale = Math.max(scale, minScale);
+        transform.reset();
+        transform.setValues(new float[]{scale, 0, (viewWidth - contentWidth * scale) / 2,
+                0, scale, (viewHeight - contentHeight * scale) / 2, 0, 0, 1});
+        transform.setContentSize(contentWidth, contentHeight);
+        transform.setScaleRange(scale, scale * maxZoom);
+        gesture.up();
+        gesture.setBorder(viewWidth, viewHeight, clipRect[0], clipRect[1], maxOverscroll);
+    }
+
+    /**
+     * 把第index个事件交给手势状态机，与ClipViewLayout.onTouchEvent中的处理一致
+     */
+    public void dispatch(TouchGesture gesture, int index) {
+        int offset = index * 4;
+        switch (actions[index]) {
+            case DOWN:
+                gesture.down(coords[offset], coords[offset + 1]);
+                break;
+            case POINTER_DOWN:
+                gesture.pointerDown(coords[offset], coords[offset + 1], coords[offset + 2], coords[offset + 3]);
+                break;
+            case MOVE:
+                gesture.move(coords[offset], coords[offset + 1], coords[offset + 2], coords[offset + 3]);
+                break;
+            case POINTER_UP:
+                gesture.pointerUp();
+                break;
+            default:
+                gesture.up();
+                break;
+        }
+    }
+}
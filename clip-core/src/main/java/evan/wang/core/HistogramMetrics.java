@@ -0,0 +1,196 @@
+package evan.wang.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * 内存中的指标记录
+ * <p/>
+ * 每个耗时和字节数对应一个按2的次幂分桶的直方图，记录次数、总和、最大值和近似分位数，
+ * 占用的内存固定，与记录次数无关；事件日志只保留最近的一部分。可以在任意线程记录，dump输出文本。
+ */
+public class HistogramMetrics implements CropMetrics {
+    //保留的事件条数
+    private static final int MAX_EVENTS = 256;
+
+    private final int level;
+    private final Histogram[] timers = new Histogram[Timer.values().length];
+    private final Histogram[] sizes = new Histogram[Size.values().length];
+    private final ArrayDeque<String> events = new ArrayDeque<String>();
+
+    public HistogramMetrics() {
+        this(LEVEL_TIMING);
+    }
+
+    public HistogramMetrics(int level) {
+        this.level = level;
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Histogram();
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 耗时按微秒记录
+     */
+    @Override
+    public void recordTime(Timer timer, long nanos) {
+        timers[timer.ordinal()].add(nanos / 1000);
+    }
+
+    @Override
+    public void recordSize(Size size, long bytes) {
+        sizes[size.ordinal()].add(bytes);
+    }
+
+    @Override
+    public void event(String tag, String message) {
+        synchronized (events) {
+            if (events.size() == MAX_EVENTS) {
+                events.removeFirst();
+            }
+            events.addLast(tag + ": " + message);
+        }
+    }
+
+    /**
+     * 耗时的直方图，单位为微秒
+     */
+    public Histogram getHistogram(Timer timer) {
+        return timers[timer.ordinal()];
+    }
+
+    public Histogram getHistogram(Size size) {
+        return sizes[size.ordinal()];
+    }
+
+    public void reset() {
+        for (Histogram histogram : timers) {
+            histogram.reset();
+        }
+        for (Histogram histogram : sizes) {
+            histogram.reset();
+        }
+        synchronized (events) {
+            events.clear();
+        }
+    }
+
+    /**
+     * 输出有记录的指标和最近的事件，每项一行
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        Timer[] timerValues = Timer.values();
+        for (int i = 0; i < timerValues.length; i++) {
+            timers[i].appendTo(out, timerValues[i].name(), "us");
+        }
+        Size[] sizeValues = Size.values();
+        for (int i = 0; i < sizeValues.length; i++) {
+            sizes[i].appendTo(out, sizeValues[i].name(), "B");
+        }
+        synchronized (events) {
+            for (String event : events) {
+                out.append(event).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * 按2的次幂分桶的直方图：第0个桶为0，第i个桶为[2^(i-1), 2^i)
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        synchronized void add(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets[bucketOf(value)]++;
+            count++;
+            sum += value;
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        synchronized void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getSum() {
+            return sum;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        public synchronized long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * 近似分位数：第p分位所在桶的上界，不超过最大值，误差在2倍以内
+         *
+         * @param p 0到1之间
+         */
+        public synchronized long getPercentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        synchronized void appendTo(StringBuilder out, String name, String unit) {
+            if (count == 0) {
+                return;
+            }
+            out.append(name)
+                    .append(" count=").append(count)
+                    .append(" mean=").append(getMean()).append(unit)
+                    .append(" p50=").append(getPercentile(0.5)).append(unit)
+                    .append(" p90=").append(getPercentile(0.9)).append(unit)
+                    .append(" p99=").append(getPercentile(0.99)).append(unit)
+                    .append(" max=").append(max).append(unit)
+                    .append('\n');
+        }
+
+        private static int bucketOf(long value) {
+            return 64 - Long.numberOfLeadingZeros(value);
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package evan.wang.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 图片文件头解析
+ * <p/>
+ * 从文件开头一次读取的少量字节中解析JPEG、PNG、WebP的宽高、是否有透明度、EXIF方向和EXIF缩略图的位置，
+ * 不解码图像数据。宽高所在的位置超出读取范围时{@link #hasSize()}为false，调用方改用系统解码器读取。
+ * <p/>
+ * JPEG的EXIF总是在SOF之前，读到宽高时方向也已确定；WebP的EXIF块通常在图像数据之后，超出读取范围时按NORMAL处理。
+ * <p/>
+ * 块长度和IFD偏移按long计算，超出文件可能的范围（构造的或损坏的文件）时抛出IOException。
+ */
+public final class ImageHeader {
+    //建议一次读取的字节数，覆盖相机JPEG的EXIF（包括缩略图）和SOF
+    public static final int PREFETCH_SIZE = 64 * 1024;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    /**
+     * 文件格式
+     */
+    public enum Format {
+        UNKNOWN,
+        JPEG,
+        PNG,
+        WEBP
+    }
+
+    private Format format = Format.UNKNOWN;
+    private int width;
+    private int height;
+    private boolean alpha;
+    private int orientation = ExifOrientation.NORMAL;
+    private int thumbnailOffset = -1;
+    private int thumbnailLength;
+
+    private ImageHeader() {
+    }
+
+    /**
+     * 文件头无法解析时，由系统解码器读取的结果构造
+     */
+    public ImageHeader(Format format, int width, int height, boolean alpha, int orientation) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        this.orientation = orientation;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * 宽（未校正方向）
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 高（未校正方向）
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 是否读到了宽高
+     */
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * 可能有透明像素；JPEG总是false，此时可以用RGB_565解码
+     */
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * EXIF方向，见ExifOrientation
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * EXIF缩略图（JPEG）在文件中的位置，没有缩略图时为-1
+     */
+    public int getThumbnailOffset() {
+        return thumbnailOffset;
+    }
+
+    public int getThumbnailLength() {
+        return thumbnailLength;
+    }
+
+    public boolean hasThumbnail() {
+        return thumbnailOffset >= 0 && thumbnailLength > 0;
+    }
+
+    /**
+     * 从文件开头一次读取PREFETCH_SIZE个字节并解析，不改变channel的位置
+     */
+    public static ImageHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PREFETCH_SIZE);
+        long position = 0;
+        int count;
+        //一般一次读完，读到文件末尾或读满为止
+        while (buffer.hasRemaining() && (count = channel.read(buffer, position)) > 0) {
+            position += count;
+        }
+        buffer.flip();
+        return parse(buffer);
+    }
+
+    /**
+     * 解析文件开头的length个字节
+     */
+    public static ImageHeader parse(byte[] data, int length) throws IOException {
+        return parse(ByteBuffer.wrap(data, 0, Math.min(length, data.length)));
+    }
+
+    /**
+     * 解析[0, limit)范围内的字节，下标0对应文件开头；不改变buffer的position
+     */
+    public static ImageHeader parse(ByteBuffer buffer) throws IOException {
+        ImageHeader header = new ImageHeader();
+        int limit = buffer.limit();
+        if (limit >= 4 && u8(buffer, 0) == 0xff && u8(buffer, 1) == 0xd8) {
+            header.format = Format.JPEG;
+            header.parseJpeg(buffer, limit);
+        } else if (limit >= PNG_SIGNATURE.length && startsWith(buffer, 0, PNG_SIGNATURE)) {
+            header.format = Format.PNG;
+            header.parsePng(buffer, limit);
+        } else if (limit >= 12 && fourCc(buffer, 0, "RIFF") && fourCc(buffer, 8, "WEBP")) {
+            header.format = Format.WEBP;
+            header.parseWebp(buffer, limit);
+        }
+        return header;
+    }
+
+    private void parseJpeg(ByteBuffer buffer, int limit) throws IOException {
+        int pos = 2;
+        while (pos + 4 <= limit) {
+            if (u8(buffer, pos) != 0xff) {
+                //段之间不应有其他数据，文件已损坏
+                return;
+            }
+            int marker = u8(buffer, pos + 1);
+            if (marker == 0xff) {
+                //填充字节
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                //没有长度的标记
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xd9 || marker == 0xda) {
+                //到达图像数据仍未读到SOF
+                return;
+            }
+            int length = u16(buffer, pos + 2, false);
+            if (length < 2) {
+                return;
+            }
+            int data = pos + 4;
+            int end = pos + 2 + length;
+            if (marker == 0xe1 && end <= limit && end - data >= 14
+                    && fourCc(buffer, data, "Exif") && u8(buffer, data + 4) == 0 && u8(buffer, data + 5) == 0) {
+                parseTiff(buffer, data + 6, end);
+            } else if (isStartOfFrame(marker)) {
+                if (data + 5 <= limit) {
+                    height = u16(buffer, data + 1, false);
+                    width = u16(buffer, data + 3, false);
+                }
+                return;
+            }
+            pos = end;
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        //C4（DHT）、C8（JPG）、CC（DAC）不是SOF
+        return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+    }
+
+    private void parsePng(ByteBuffer buffer, int limit) throws IOException {
+        //第一个块必须是IHDR
+        if (limit < 33 || !fourCc(buffer, 12, "IHDR")) {
+            return;
+        }
+        width = s32(buffer, 16, false);
+        height = s32(buffer, 20, false);
+        int colorType = u8(buffer, 25);
+        alpha = colorType == 4 || colorType == 6;
+        //IDAT之前的块中查找透明色和EXIF
+        int pos = 33;
+        while (pos + 8 <= limit) {
+            //PNG块的长度不超过2^31-1
+            int length = s32(buffer, pos, false);
+            if (length < 0) {
+                throw new IOException("PNG chunk length out of range at " + pos);
+            }
+            int data = pos + 8;
+            if (fourCc(buffer, pos + 4, "IDAT") || fourCc(buffer, pos + 4, "IEND")) {
+                return;
+            }
+            if (fourCc(buffer, pos + 4, "tRNS")) {
+                alpha = true;
+            } else if (fourCc(buffer, pos + 4, "eXIf") && (long) data + length <= limit) {
+                parseTiff(buffer, data, data + length);
+            }
+            //数据加CRC
+            pos = nextChunk((long) data + length + 4, limit, "PNG");
+        }
+    }
+
+    private void parseWebp(ByteBuffer buffer, int limit) throws IOException {
+        //扩展格式的宽高以VP8X为准，之后继续查找EXIF块
+        boolean extended = false;
+        int pos = 12;
+        while (pos + 8 <= limit) {
+            int length = s32(buffer, pos + 4, true);
+            if (length < 0) {
+                throw new IOException("WebP chunk length out of range at " + pos);
+            }
+            int data = pos + 8;
+            if (extended) {
+                if (fourCc(buffer, pos, "EXIF") && (long) data + length <= limit) {
+                    //部分编码器在TIFF头前保留了"Exif\0\0"
+                    int tiff = fourCc(buffer, data, "Exif") ? data + 6 : data;
+                    parseTiff(buffer, tiff, data + length);
+                    return;
+                }
+            } else if (fourCc(buffer, pos, "VP8 ")) {
+                //帧标签3字节，起始码9d 01 2a，之后是14位的宽和高
+                if (data + 10 <= limit && u8(buffer, data + 3) == 0x9d
+                        && u8(buffer, data + 4) == 0x01 && u8(buffer, data + 5) == 0x2a) {
+                    width = u16(buffer, data + 6, true) & 0x3fff;
+                    height = u16(buffer, data + 8, true) & 0x3fff;
+                }
+                return;
+            } else if (fourCc(buffer, pos, "VP8L")) {
+                //签名0x2f，之后按位排列：14位宽-1，14位高-1，1位透明
+                if (data + 5 <= limit && u8(buffer, data) == 0x2f) {
+                    int bits = s32(buffer, data + 1, true);
+                    width = (bits & 0x3fff) + 1;
+                    height = ((bits >>> 14) & 0x3fff) + 1;
+                    alpha = ((bits >>> 28) & 1) != 0;
+                }
+                return;
+            } else if (fourCc(buffer, pos, "VP8X")) {
+                //画布尺寸
+                if (data + 10 > limit) {
+                    return;
+                }
+                extended = true;
+                alpha = (u8(buffer, data) & 0x10) != 0;
+                width = u24(buffer, data + 4) + 1;
+                height = u24(buffer, data + 7) + 1;
+                if ((u8(buffer, data) & 0x08) == 0) {
+                    //没有EXIF
+                    return;
+                }
+            } else {
+                return;
+            }
+            //块的长度为奇数时补齐一个字节
+            pos = nextChunk((long) data + length + (length & 1), limit, "WebP");
+        }
+    }
+
+    /**
+     * 下一个块的位置：超出读取范围时返回limit结束解析，超出int范围说明长度字段已损坏
+     */
+    private static int nextChunk(long next, int limit, String format) throws IOException {
+        if (next > Integer.MAX_VALUE) {
+            throw new IOException(format + " chunk length out of range: " + next);
+        }
+        return next > limit ? limit : (int) next;
+    }
+
+    /**
+     * 解析[start, end)范围内的TIFF结构：IFD0中的方向，IFD1中的缩略图
+     */
+    private void parseTiff(ByteBuffer buffer, int start, int end) throws IOException {
+        if (start + 8 > end) {
+            return;
+        }
+        boolean little;
+        if (u8(buffer, start) == 'I' && u8(buffer, start + 1) == 'I') {
+            little = true;
+        } else if (u8(buffer, start) == 'M' && u8(buffer, start + 1) == 'M') {
+            little = false;
+        } else {
+            return;
+        }
+        if (u16(buffer, start + 2, little) != 42) {
+            return;
+        }
+        int ifd0 = s32(buffer, start + 4, little);
+        int ifd1 = parseIfd(buffer, start, end, ifd0, little, true);
+        if (ifd1 != 0) {
+            parseIfd(buffer, start, end, ifd1, little, false);
+        }
+    }
+
+    /**
+     * EXIF段已完整读入，IFD偏移超出段的范围说明文件已损坏
+     *
+     * @return 下一个IFD的偏移，没有时为0
+     */
+    private int parseIfd(ByteBuffer buffer, int start, int end, int offset, boolean little, boolean first)
+            throws IOException {
+        if (offset == 0) {
+            return 0;
+        }
+        long ifd = (long) start + offset;
+        if (offset < 8 || ifd + 2 > end) {
+            throw new IOException("EXIF IFD offset out of range: " + (offset & 0xffffffffL));
+        }
+        int pos = (int) ifd;
+        int count = u16(buffer, pos, little);
+        pos += 2;
+        if (pos + count * 12 + 4 > end) {
+            throw new IOException("EXIF IFD entries out of range: " + count);
+        }
+        int thumbnail = -1;
+        int length = 0;
+        for (int i = 0; i < count; i++, pos += 12) {
+            int tag = u16(buffer, pos, little);
+            int type = u16(buffer, pos + 2, little);
+            //SHORT的值在值字段的前两个字节，LONG占满四个字节
+            int value = type == 3 ? u16(buffer, pos + 8, little) : s32(buffer, pos + 8, little);
+            if (first && tag == TAG_ORIENTATION) {
+                if (value >= ExifOrientation.NORMAL && value <= ExifOrientation.ROTATE_270) {
+                    orientation = value;
+                }
+            } else if (!first && tag == TAG_THUMBNAIL_OFFSET) {
+                thumbnail = value;
+            } else if (!first && tag == TAG_THUMBNAIL_LENGTH) {
+                length = value;
+            }
+        }
+        if (thumbnail > 0 && length > 0 && start + (long) thumbnail + length <= end) {
+            thumbnailOffset = start + thumbnail;
+            thumbnailLength = length;
+        }
+        return first ? s32(buffer, pos, little) : 0;
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xff;
+    }
+
+    private static int u16(ByteBuffer buffer, int index, boolean little) {
+        int a = u8(buffer, index);
+        int b = u8(buffer, index + 1);
+        return little ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static int u24(ByteBuffer buffer, int index) {
+        return u8(buffer, index) | (u8(buffer, index + 1) << 8) | (u8(buffer, index + 2) << 16);
+    }
+
+    private static int s32(ByteBuffer buffer, int index, boolean little) {
+        int high = u16(buffer, index, little);
+        int low = u16(buffer, index + 2, little);
+        return little ? (low << 16) | high : (high << 16) | low;
+    }
+
+    private static boolean fourCc(ByteBuffer buffer, int index, String name) {
+        if (index + 4 > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (buffer.get(index + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int index, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(index + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package evan.wang.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多线程图片缩放
+ * <p/>
+ * 与Resampler的结果完全相同。区域平均、水平、垂直三步分别把输出按行分成若干段，
+ * 在固定大小的线程池中并行处理，调用线程也处理其中一段。区域平均需要的临时数组每个线程各保存一份，
+ * 分段处理时不再分配。
+ * <p/>
+ * 调用线程会等待各段完成，不要在同一个线程池的线程中调用。
+ */
+public final class ParallelResampler {
+    //每段至少的行数，行数太少时线程切换的开销超过收益
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    /**
+     * 处理[rowStart, rowEnd)行
+     */
+    private interface Band {
+        void run(int rowStart, int rowEnd);
+    }
+
+    /**
+     * 每个线程的临时数组
+     */
+    private static final class Scratch {
+        int[] ag = new int[0];
+        int[] rb = new int[0];
+
+        void ensureCapacity(int width) {
+            if (ag.length < width) {
+                ag = new int[width];
+                rb = new int[width];
+            }
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final Executor executor;
+    private final int parallelism;
+    //自己创建的线程池，shutdown时关闭
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * 使用CPU核数个线程
+     */
+    public ParallelResampler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 创建parallelism - 1个后台线程，加上调用线程共parallelism个线程并行
+     */
+    public ParallelResampler(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        if (this.parallelism > 1) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(this.parallelism - 1, this.parallelism - 1,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+            ownedExecutor = pool;
+        } else {
+            ownedExecutor = null;
+        }
+        executor = ownedExecutor;
+    }
+
+    /**
+     * 使用外部的线程池，线程池至少要有parallelism - 1个线程
+     */
+    public ParallelResampler(Executor executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.ownedExecutor = null;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 关闭自己创建的线程池，外部传入的线程池由调用方管理
+     */
+    public void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 缩放到指定尺寸，见Resampler#resize
+     */
+    public Raster resize(Raster src, int dstWidth, int dstHeight, Resampler.Filter filter) {
+        Raster dst = new Raster(dstWidth, dstHeight);
+        resize(src.getPixels(), src.getWidth(), src.getHeight(), dst.getPixels(), dstWidth, dstHeight, filter);
+        return dst;
+    }
+
+    /**
+     * 缩放到指定尺寸，见Resampler#resize
+     */
+    public void resize(int[] src, int srcWidth, int srcHeight,
+                       final int[] dst, final int dstWidth, int dstHeight, Resampler.Filter filter) {
+        int factor;
+        while ((factor = Resampler.reduceFactor(srcWidth, srcHeight, dstWidth, dstHeight)) > 1) {
+            final int[] reduceSrc = src;
+            final int reduceStride = srcWidth;
+            final int reduceFactor = factor;
+            final int reducedWidth = srcWidth / factor;
+            final int[] reduced = new int[reducedWidth * (srcHeight / factor)];
+            runBands(srcHeight / factor, new Band() {
+                @Override
+                public void run(int rowStart, int rowEnd) {
+                    Scratch scratch = SCRATCH.get();
+                    scratch.ensureCapacity(reducedWidth);
+                    Resampler.reduce(reduceSrc, reduceStride, reduceFactor, reduced, reducedWidth,
+                            rowStart, rowEnd, scratch.ag, scratch.rb);
+                }
+            });
+            src = reduced;
+            srcHeight = srcHeight / factor;
+            srcWidth = reducedWidth;
+        }
+        if (srcWidth == dstWidth && srcHeight == dstHeight) {
+            System.arraycopy(src, 0, dst, 0, dstWidth * dstHeight);
+            return;
+        }
+        final int[] rowsSrc = src;
+        final int rowsWidth = srcWidth;
+        final Resampler.Kernel horizontal = new Resampler.Kernel(srcWidth, dstWidth, filter);
+        final Resampler.Kernel vertical = new Resampler.Kernel(srcHeight, dstHeight, filter);
+        final int[] temp = new int[dstWidth * srcHeight];
+        runBands(srcHeight, new Band() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                Resampler.resizeRows(rowsSrc, rowsWidth, temp, dstWidth, rowStart, rowEnd, horizontal);
+            }
+        });
+        runBands(dstHeight, new Band() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                Resampler.resizeColumns(temp, dst, dstWidth, rowStart, rowEnd, vertical);
+            }
+        });
+    }
+
+    /**
+     * 把rows行分段并行处理，第一段在调用线程执行，全部完成后返回
+     */
+    private void runBands(int rows, final Band band) {
+        int bands = Math.min(parallelism, Math.max(1, rows / MIN_ROWS_PER_BAND));
+        if (bands == 1 || executor == null) {
+            band.run(0, rows);
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(bands - 1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        for (int i = 1; i < bands; i++) {
+            final int rowStart = rows * i / bands;
+            final int rowEnd = rows * (i + 1) / bands;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        band.run(rowStart, rowEnd);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        band.run(0, rows / bands);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resampling", e);
+        }
+        if (error.get() != null) {
+            throw new IllegalStateException("Resampling band failed", error.get());
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "clip-resample-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
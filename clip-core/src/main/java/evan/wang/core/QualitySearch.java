@@ -0,0 +1,42 @@
+package evan.wang.core;
+
+/**
+ * 按字节数上限查找压缩质量
+ * <p/>
+ * 压缩后的大小随质量单调增加，二分查找满足上限的最高质量。
+ * 实际压缩由调用方通过Probe完成，这里只负责查找，纯Java实现。
+ */
+public final class QualitySearch {
+
+    /**
+     * 按指定质量试压缩
+     */
+    public interface Probe {
+        /**
+         * @return 压缩结果不超过上限时返回true
+         */
+        boolean fits(int quality);
+    }
+
+    private QualitySearch() {
+    }
+
+    /**
+     * 在[low, high]范围内查找满足上限的最高质量
+     *
+     * @return 最高质量，全部超出上限时返回-1
+     */
+    public static int highestFitting(int low, int high, Probe probe) {
+        int best = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (probe.fits(mid)) {
+                best = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return best;
+    }
+}
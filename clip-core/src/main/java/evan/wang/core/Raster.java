@@ -0,0 +1,103 @@
+package evan.wang.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 像素数据
+ * <p/>
+ * 以int[]按行保存ARGB像素，与Bitmap#getPixels/Bitmap#createBitmap(int[], ...)的格式一致；
+ * 也可以与RGBA字节排列的ByteBuffer互相转换，对应Bitmap#copyPixelsToBuffer的ARGB_8888格式和服务端常见的RGBA数据。
+ */
+public final class Raster {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public Raster(int width, int height) {
+        this(width, height, new int[checkSize(width, height)]);
+    }
+
+    /**
+     * 包装已有的像素数组，不拷贝
+     */
+    public Raster(int width, int height, int[] pixels) {
+        if (pixels.length < checkSize(width, height)) {
+            throw new IllegalArgumentException("pixels.length " + pixels.length + " < " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    private static int checkSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        return width * height;
+    }
+
+    /**
+     * 从RGBA字节读取像素
+     */
+    public static Raster fromRgba(ByteBuffer buffer, int width, int height) {
+        Raster raster = new Raster(width, height);
+        int[] pixels = raster.pixels;
+        int position = buffer.position();
+        for (int i = 0; i < pixels.length; i++) {
+            int r = buffer.get() & 0xff;
+            int g = buffer.get() & 0xff;
+            int b = buffer.get() & 0xff;
+            int a = buffer.get() & 0xff;
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        buffer.position(position + pixels.length * 4);
+        return raster;
+    }
+
+    /**
+     * 以RGBA字节写入buffer
+     */
+    public void toRgba(ByteBuffer buffer) {
+        for (int i = 0; i < width * height; i++) {
+            int p = pixels[i];
+            buffer.put((byte) (p >> 16));
+            buffer.put((byte) (p >> 8));
+            buffer.put((byte) p);
+            buffer.put((byte) (p >>> 24));
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 像素数组，按行保存，行宽等于width
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    public void setPixel(int x, int y, int argb) {
+        pixels[y * width + x] = argb;
+    }
+
+    /**
+     * 拷贝指定区域
+     */
+    public Raster crop(int left, int top, int right, int bottom) {
+        Raster out = new Raster(right - left, bottom - top);
+        for (int y = top; y < bottom; y++) {
+            System.arraycopy(pixels, y * width + left, out.pixels, (y - top) * out.width, out.width);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,304 @@
+package evan.wang.core;
+
+/**
+ * 图片缩放
+ * <p/>
+ * 在int[] ARGB像素上做可分离的两遍缩放：先水平方向再垂直方向，每个方向按滤波器预先算好
+ * 每个输出像素的采样起点和定点权重。缩小超过两倍时先按2的次幂做区域平均（相当于mipmap逐级减半，
+ * 多级合并为一次读取），最后一步的缩小比例不超过两倍，滤波器的采样点数保持在较小的范围内。
+ */
+public final class Resampler {
+    //定点权重的位数
+    private static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    private static final int WEIGHT_ROUND = 1 << (WEIGHT_BITS - 1);
+    //一次区域平均的最大边长，16x16个通道值之和加舍入不超过16位
+    private static final int MAX_REDUCE_FACTOR = 16;
+
+    /**
+     * 滤波器
+     */
+    public enum Filter {
+        //区域平均
+        BOX(0.5),
+        //双线性（三角形）
+        BILINEAR(1),
+        //Lanczos，a=3
+        LANCZOS3(3);
+
+        //滤波器在原尺寸下的半径
+        final double support;
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        double weight(double x) {
+            if (x < 0) {
+                x = -x;
+            }
+            switch (this) {
+                case BOX:
+                    return x < 0.5 ? 1 : (x == 0.5 ? 0.5 : 0);
+                case BILINEAR:
+                    return x < 1 ? 1 - x : 0;
+                default:
+                    if (x == 0) {
+                        return 1;
+                    }
+                    if (x >= 3) {
+                        return 0;
+                    }
+                    double px = Math.PI * x;
+                    return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+        }
+    }
+
+    /**
+     * 一个方向上每个输出像素的采样点和权重
+     */
+    static final class Kernel {
+        //每个输出像素的第一个采样点
+        final int[] start;
+        //每个输出像素的采样点数
+        final int[] count;
+        //权重，每个输出像素占taps个位置
+        final int[] weights;
+        //每个输出像素最多的采样点数
+        final int taps;
+
+        Kernel(int srcSize, int dstSize, Filter filter) {
+            double scale = (double) dstSize / srcSize;
+            //缩小时按比例放宽滤波器，放大时保持原宽度
+            double filterScale = Math.max(1, 1 / scale);
+            double support = filter.support * filterScale;
+            taps = (int) Math.ceil(support * 2) + 1;
+            start = new int[dstSize];
+            count = new int[dstSize];
+            weights = new int[dstSize * taps];
+            double[] w = new double[taps];
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) / scale;
+                int left = Math.max(0, (int) Math.floor(center - support));
+                int right = Math.min(srcSize, (int) Math.ceil(center + support));
+                int n = Math.min(taps, right - left);
+                double sum = 0;
+                for (int j = 0; j < n; j++) {
+                    w[j] = filter.weight((left + j + 0.5 - center) / filterScale);
+                    sum += w[j];
+                }
+                if (sum == 0) {
+                    //采样点都落在滤波器之外，取最近的像素
+                    left = Math.min(srcSize - 1, Math.max(0, (int) center));
+                    n = 1;
+                    w[0] = 1;
+                    sum = 1;
+                }
+                start[i] = left;
+                count[i] = n;
+                //归一化为定点数，舍入误差加在最大的权重上，保证权重之和正好为1
+                int offset = i * taps;
+                int total = 0;
+                int largest = 0;
+                for (int j = 0; j < n; j++) {
+                    int value = (int) Math.round(w[j] / sum * WEIGHT_ONE);
+                    weights[offset + j] = value;
+                    total += value;
+                    if (value > weights[offset + largest]) {
+                        largest = j;
+                    }
+                }
+                weights[offset + largest] += WEIGHT_ONE - total;
+            }
+        }
+    }
+
+    private Resampler() {
+    }
+
+    /**
+     * 缩放到指定尺寸，不保持宽高比，需要保持时先用fitSize计算输出尺寸
+     */
+    public static Raster resize(Raster src, int dstWidth, int dstHeight, Filter filter) {
+        Raster dst = new Raster(dstWidth, dstHeight);
+        resize(src.getPixels(), src.getWidth(), src.getHeight(), dst.getPixels(), dstWidth, dstHeight, filter);
+        return dst;
+    }
+
+    /**
+     * 缩放到指定尺寸
+     *
+     * @param src 原图像素，按行保存，行宽等于srcWidth
+     * @param dst 输出像素，按行保存，行宽等于dstWidth
+     */
+    public static void resize(int[] src, int srcWidth, int srcHeight,
+                              int[] dst, int dstWidth, int dstHeight, Filter filter) {
+        //逐级减半，直到剩下的缩小比例不超过两倍；多级减半合并为一次factor x factor的区域平均
+        int factor;
+        while ((factor = reduceFactor(srcWidth, srcHeight, dstWidth, dstHeight)) > 1) {
+            int reducedWidth = srcWidth / factor;
+            int reducedHeight = srcHeight / factor;
+            int[] reduced = new int[reducedWidth * reducedHeight];
+            reduce(src, srcWidth, factor, reduced, reducedWidth, 0, reducedHeight,
+                    new int[reducedWidth], new int[reducedWidth]);
+            src = reduced;
+            srcWidth = reducedWidth;
+            srcHeight = reducedHeight;
+        }
+        if (srcWidth == dstWidth && srcHeight == dstHeight) {
+            System.arraycopy(src, 0, dst, 0, dstWidth * dstHeight);
+            return;
+        }
+        Kernel horizontal = new Kernel(srcWidth, dstWidth, filter);
+        Kernel vertical = new Kernel(srcHeight, dstHeight, filter);
+        int[] temp = new int[dstWidth * srcHeight];
+        resizeRows(src, srcWidth, temp, dstWidth, 0, srcHeight, horizontal);
+        resizeColumns(temp, dst, dstWidth, 0, dstHeight, vertical);
+    }
+
+    /**
+     * 保持宽高比，计算放入maxWidth x maxHeight范围内的最大尺寸
+     *
+     * @param out 输出宽高
+     */
+    public static void fitSize(int srcWidth, int srcHeight, int maxWidth, int maxHeight, int[] out) {
+        if ((long) srcWidth * maxHeight > (long) srcHeight * maxWidth) {
+            out[0] = maxWidth;
+            out[1] = Math.max(1, Math.round((float) srcHeight * maxWidth / srcWidth));
+        } else {
+            out[0] = Math.max(1, Math.round((float) srcWidth * maxHeight / srcHeight));
+            out[1] = maxHeight;
+        }
+    }
+
+    /**
+     * 区域平均的边长：缩小超过两倍时取2的次幂，使剩下的缩小比例不超过两倍，不需要时返回1
+     */
+    static int reduceFactor(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int factor = 1;
+        while (srcWidth / (factor * 2) >= dstWidth && srcHeight / (factor * 2) >= dstHeight
+                && factor < MAX_REDUCE_FACTOR) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
+    /**
+     * factor x factor区域平均，输出[rowStart, rowEnd)行，宽高不能整除时丢弃最后不完整的列/行
+     *
+     * @param factor 2的次幂，不超过MAX_REDUCE_FACTOR
+     * @param ag     长度不小于dstWidth的临时数组
+     * @param rb     长度不小于dstWidth的临时数组
+     */
+    static void reduce(int[] src, int srcStride, int factor, int[] dst, int dstWidth,
+                       int rowStart, int rowEnd, int[] ag, int[] rb) {
+        int shift = Integer.numberOfTrailingZeros(factor) * 2;
+        int round = (1 << shift) >> 1;
+        int roundPacked = round | (round << 16);
+        //每个输出列的累加值，A、G和R、B两两打包在一个int的高低16位中，逐行顺序读取原图
+        for (int y = rowStart; y < rowEnd; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                ag[x] = roundPacked;
+                rb[x] = roundPacked;
+            }
+            for (int j = 0; j < factor; j++) {
+                int index = (y * factor + j) * srcStride;
+                for (int x = 0; x < dstWidth; x++) {
+                    int sumAg = 0;
+                    int sumRb = 0;
+                    for (int i = 0; i < factor; i++) {
+                        int p = src[index++];
+                        sumAg += (p >>> 8) & 0xff00ff;
+                        sumRb += p & 0xff00ff;
+                    }
+                    ag[x] += sumAg;
+                    rb[x] += sumRb;
+                }
+            }
+            int out = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int a = ag[x] >>> (16 + shift);
+                int g = (ag[x] & 0xffff) >>> shift;
+                int r = rb[x] >>> (16 + shift);
+                int b = (rb[x] & 0xffff) >>> shift;
+                dst[out + x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * 水平方向缩放[rowStart, rowEnd)行
+     */
+    static void resizeRows(int[] src, int srcWidth, int[] dst, int dstWidth,
+                           int rowStart, int rowEnd, Kernel kernel) {
+        int taps = kernel.taps;
+        int[] weights = kernel.weights;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int srcRow = y * srcWidth;
+            int dstRow = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int offset = x * taps;
+                int index = srcRow + kernel.start[x];
+                int n = kernel.count[x];
+                int a = WEIGHT_ROUND;
+                int r = WEIGHT_ROUND;
+                int g = WEIGHT_ROUND;
+                int b = WEIGHT_ROUND;
+                for (int j = 0; j < n; j++) {
+                    int p = src[index + j];
+                    int w = weights[offset + j];
+                    a += (p >>> 24) * w;
+                    r += ((p >> 16) & 0xff) * w;
+                    g += ((p >> 8) & 0xff) * w;
+                    b += (p & 0xff) * w;
+                }
+                dst[dstRow + x] = pack(a, r, g, b);
+            }
+        }
+    }
+
+    /**
+     * 垂直方向缩放，输出[rowStart, rowEnd)行
+     */
+    static void resizeColumns(int[] src, int[] dst, int width,
+                              int rowStart, int rowEnd, Kernel kernel) {
+        int taps = kernel.taps;
+        int[] weights = kernel.weights;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int offset = y * taps;
+            int first = kernel.start[y] * width;
+            int n = kernel.count[y];
+            int dstRow = y * width;
+            for (int x = 0; x < width; x++) {
+                int index = first + x;
+                int a = WEIGHT_ROUND;
+                int r = WEIGHT_ROUND;
+                int g = WEIGHT_ROUND;
+                int b = WEIGHT_ROUND;
+                for (int j = 0; j < n; j++) {
+                    int p = src[index];
+                    int w = weights[offset + j];
+                    a += (p >>> 24) * w;
+                    r += ((p >> 16) & 0xff) * w;
+                    g += ((p >> 8) & 0xff) * w;
+                    b += (p & 0xff) * w;
+                    index += width;
+                }
+                dst[dstRow + x] = pack(a, r, g, b);
+            }
+        }
+    }
+
+    /**
+     * 定点数转换为ARGB，Lanczos的负权重可能使结果超出0~255
+     */
+    private static int pack(int a, int r, int g, int b) {
+        return (clamp(a >> WEIGHT_BITS) << 24) | (clamp(r >> WEIGHT_BITS) << 16)
+                | (clamp(g >> WEIGHT_BITS) << 8) | clamp(b >> WEIGHT_BITS);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
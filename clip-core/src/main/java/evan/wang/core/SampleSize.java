@@ -0,0 +1,72 @@
+package evan.wang.core;
+
+/**
+ * 解码采样率计算
+ * <p/>
+ * 纯Java实现，不依赖BitmapFactory.Options，可以在JVM上测试和做基准测试。
+ */
+public final class SampleSize {
+
+    private SampleSize() {
+    }
+
+    /**
+     * 计算InSampleSize
+     * 宽的压缩比和高的压缩比的较小值  取接近的2的次幂的值
+     * 比如宽的压缩比是3 高的压缩比是5 取较小值3  而InSampleSize必须是2的次幂，取接近的2的次幂4
+     * 比例小于3或大于等于8时直接使用比例，不一定是2的次幂，新代码使用{@link #powerOfTwo}
+     *
+     * @param width     原图宽
+     * @param height    原图高
+     * @param reqWidth  需要的宽
+     * @param reqHeight 需要的高
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+
+            // Calculate ratios of height and width to requested height and
+            // width
+            final int heightRatio = Math.round((float) height
+                    / (float) reqHeight);
+            final int widthRatio = Math.round((float) width / (float) reqWidth);
+
+            // Choose the smallest ratio as inSampleSize value, this will
+            // guarantee
+            // a final image with both dimensions larger than or equal to the
+            // requested height and width.
+            int ratio = heightRatio < widthRatio ? heightRatio : widthRatio;
+            // inSampleSize只能是2的次幂  将ratio就近取2的次幂的值
+            if (ratio < 3)
+                inSampleSize = ratio;
+            else if (ratio < 6.5)
+                inSampleSize = 4;
+            else if (ratio < 8)
+                inSampleSize = 8;
+            else
+                inSampleSize = ratio;
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     * 2的次幂的采样率：解码后的宽高都不小于需要的宽高时取最大值
+     * <p/>
+     * 按解码器向下取整的方式计算采样后的宽高，结果不会比需要的小。
+     *
+     * @param width     原图宽
+     * @param height    原图高
+     * @param reqWidth  需要的宽
+     * @param reqHeight 需要的高
+     */
+    public static int powerOfTwo(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        while (inSampleSize < (1 << 30)
+                && width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
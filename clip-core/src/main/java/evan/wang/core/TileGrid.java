@@ -0,0 +1,111 @@
+package evan.wang.core;
+
+/**
+ * 分块显示的网格计算
+ * <p/>
+ * 底图是按采样率缩小后的整张图片，放大后清晰度不够时，按当前缩放比例计算出分块的采样率，
+ * 只对当前可见区域按块从原图解码。纯Java实现，不依赖android.graphics。
+ */
+public final class TileGrid {
+    //每一块解码后的边长（像素）
+    public static final int TILE_SIZE = 512;
+    //分块像素与屏幕像素之比的上限，采样率按2的次幂取最接近的值，最多放大或缩小根号2倍
+    public static final float MAX_TILE_DENSITY = 1.4142f;
+
+    private TileGrid() {
+    }
+
+    /**
+     * 计算分块解码的采样率：与屏幕像素和原图像素之比的倒数最接近的2的次幂
+     *
+     * @param viewPixelsPerSrcPixel 当前每个原图像素对应的屏幕像素数
+     */
+    public static int sampleSize(float viewPixelsPerSrcPixel) {
+        int sampleSize = 1;
+        if (viewPixelsPerSrcPixel <= 0) {
+            return sampleSize;
+        }
+        float ideal = 1f / viewPixelsPerSrcPixel;
+        while (sampleSize * 2 <= ideal * MAX_TILE_DENSITY) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 覆盖整个控件最多需要的块数，用于确定分块缓存的上限，只与控件尺寸有关，与原图分辨率无关
+     */
+    public static int maxVisibleTiles(int viewWidth, int viewHeight) {
+        int cols = (int) Math.ceil(viewWidth * MAX_TILE_DENSITY / TILE_SIZE) + 1;
+        int rows = (int) Math.ceil(viewHeight * MAX_TILE_DENSITY / TILE_SIZE) + 1;
+        return cols * rows;
+    }
+
+    /**
+     * 计算控件可见区域在原图中的范围
+     *
+     * @param displayMatrix 显示矩阵，把底图坐标映射到控件坐标
+     * @param viewWidth     控件宽
+     * @param viewHeight    控件高
+     * @param srcPerBaseX   原图宽与底图宽之比
+     * @param srcPerBaseY   原图高与底图高之比
+     * @param srcWidth      原图宽
+     * @param srcHeight     原图高
+     * @param inverse       逆矩阵的临时数组，长度9
+     * @param rect          临时数组，长度4
+     * @param out           输出原图坐标 left, top, right, bottom
+     * @return 可见区域为空时返回false
+     */
+    public static boolean visibleSourceRect(float[] displayMatrix, int viewWidth, int viewHeight,
+                                            float srcPerBaseX, float srcPerBaseY,
+                                            int srcWidth, int srcHeight,
+                                            float[] inverse, float[] rect, int[] out) {
+        if (!CropMapper.invert(displayMatrix, inverse)) {
+            return false;
+        }
+        rect[0] = 0;
+        rect[1] = 0;
+        rect[2] = viewWidth;
+        rect[3] = viewHeight;
+        CropMapper.mapRect(inverse, rect);
+        out[0] = Math.max(0, (int) Math.floor(rect[0] * srcPerBaseX));
+        out[1] = Math.max(0, (int) Math.floor(rect[1] * srcPerBaseY));
+        out[2] = Math.min(srcWidth, (int) Math.ceil(rect[2] * srcPerBaseX));
+        out[3] = Math.min(srcHeight, (int) Math.ceil(rect[3] * srcPerBaseY));
+        return out[2] > out[0] && out[3] > out[1];
+    }
+
+    /**
+     * 某一采样率下每块在原图中的边长
+     */
+    public static int tileSpan(int sampleSize) {
+        return TILE_SIZE * sampleSize;
+    }
+
+    /**
+     * 原图坐标所在的块序号
+     */
+    public static int tileIndex(int srcCoord, int sampleSize) {
+        return srcCoord / tileSpan(sampleSize);
+    }
+
+    /**
+     * 计算某一块在原图中的区域，右下边界限制在原图范围内
+     *
+     * @param out 输出 left, top, right, bottom
+     */
+    public static void tileRect(int col, int row, int sampleSize, int srcWidth, int srcHeight, int[] out) {
+        int span = tileSpan(sampleSize);
+        out[0] = col * span;
+        out[1] = row * span;
+        out[2] = Math.min(srcWidth, out[0] + span);
+        out[3] = Math.min(srcHeight, out[1] + span);
+    }
+
+    /**
+     * 当前采样率解码后一块最多占用的字节数
+     */
+    public static long maxTileBytes(int bytesPerPixel) {
+        return (long) TILE_SIZE * TILE_SIZE * bytesPerPixel;
+    }
+}
@@ -0,0 +1,120 @@
+package evan.wang.core;
+
+/**
+ * 单指拖动和双指缩放的状态机
+ * <p/>
+ * 只接收触点坐标，不依赖MotionEvent：ClipViewLayout.onTouchEvent把事件的坐标传进来，
+ * 基准测试直接回放记录的手势。拖动时超出边界的部分带阻尼，缩放后立即限制在边界内。
+ */
+public final class TouchGesture {
+    public static final int NONE = 0;
+    //拖动
+    public static final int DRAG = 1;
+    //缩放
+    public static final int ZOOM = 2;
+    //两指距离小于这个值时不进入缩放
+    private static final float MIN_SPACING = 10f;
+
+    private final TransformModel transform;
+    private int mode = NONE;
+    //拖动的起点
+    private float startX;
+    private float startY;
+    //缩放中心和开始时两指的距离
+    private float midX;
+    private float midY;
+    private float oldDist = 1f;
+    //边界
+    private float viewWidth;
+    private float viewHeight;
+    private float horizontalPadding;
+    private float verticalPadding;
+    private float maxOverscroll;
+
+    public TouchGesture(TransformModel transform) {
+        this.transform = transform;
+    }
+
+    /**
+     * 设置边界检测使用的控件尺寸、裁剪框间距和拖动时允许超出边界的距离
+     */
+    public void setBorder(float viewWidth, float viewHeight, float horizontalPadding, float verticalPadding,
+                          float maxOverscroll) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.horizontalPadding = horizontalPadding;
+        this.verticalPadding = verticalPadding;
+        this.maxOverscroll = maxOverscroll;
+    }
+
+    /**
+     * 当前状态，NONE、DRAG或ZOOM
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * 第一根手指按下，从当前位置开始拖动
+     */
+    public void down(float x, float y) {
+        transform.save();
+        startX = x;
+        startY = y;
+        mode = DRAG;
+    }
+
+    /**
+     * 第二根手指按下，两指距离足够时开始缩放
+     */
+    public void pointerDown(float x0, float y0, float x1, float y1) {
+        oldDist = spacing(x0, y0, x1, y1);
+        if (oldDist > MIN_SPACING) {
+            transform.save();
+            midX = (x0 + x1) / 2;
+            midY = (y0 + y1) / 2;
+            mode = ZOOM;
+        }
+    }
+
+    /**
+     * 手指移动，单指时只使用(x0, y0)
+     */
+    public void move(float x0, float y0, float x1, float y1) {
+        if (mode == DRAG) {
+            transform.dragFromSaved(x0 - startX, y0 - startY);
+            transform.dampToBorder(viewWidth, viewHeight, horizontalPadding, verticalPadding, maxOverscroll);
+        } else if (mode == ZOOM) {
+            float newDist = spacing(x0, y0, x1, y1);
+            if (newDist > MIN_SPACING) {
+                //缩放结果直接限制在缩放范围内
+                transform.zoomFromSaved(newDist / oldDist, midX, midY);
+                transform.clampToBorder(viewWidth, viewHeight, horizontalPadding, verticalPadding);
+            }
+        }
+    }
+
+    /**
+     * 抬起其中一根手指，之后的移动不再处理，直到重新按下
+     */
+    public void pointerUp() {
+        mode = NONE;
+    }
+
+    /**
+     * 所有手指抬起或手势取消
+     *
+     * @return 抬起前的状态，拖动时由调用方开始惯性滑动
+     */
+    public int up() {
+        int last = mode;
+        mode = NONE;
+        return last;
+    }
+
+    private static float spacing(float x0, float y0, float x1, float y1) {
+        float x = x0 - x1;
+        float y = y0 - y1;
+        return (float) Math.sqrt(x * x + y * y);
+    }
+}
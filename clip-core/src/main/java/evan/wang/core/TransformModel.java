@@ -0,0 +1,294 @@
+package evan.wang.core;
+
+/**
+ * 图片手势变换模型
+ * <p/>
+ * 保存图片的显示矩阵，提供拖动、以焦点为中心缩放和边界检测。缩放时直接算出允许的缩放系数，
+ * 一步把缩放比例限制在[最小, 最大]范围内，不需要反复试探。
+ * <p/>
+ * 纯Java实现，矩阵采用与Matrix#getValues一致的9个float排列，所有操作不分配对象，
+ * 可以在JVM上单元测试，也可以在手势的每个事件中直接调用。
+ */
+public final class TransformModel {
+    //当前矩阵
+    private final float[] values = new float[9];
+    //手势开始时保存的矩阵
+    private final float[] saved = new float[9];
+    //图片范围的临时数组
+    private final float[] bounds = new float[4];
+    //图片原始宽高
+    private float contentWidth;
+    private float contentHeight;
+    //缩放比例范围
+    private float minScale;
+    private float maxScale = Float.MAX_VALUE;
+
+    public TransformModel() {
+        reset();
+    }
+
+    /**
+     * 重置为单位矩阵
+     */
+    public void reset() {
+        setIdentity(values);
+        setIdentity(saved);
+    }
+
+    /**
+     * 设置图片原始宽高，边界检测使用
+     */
+    public void setContentSize(float width, float height) {
+        this.contentWidth = width;
+        this.contentHeight = height;
+    }
+
+    /**
+     * 换成不同分辨率的同一张图片（例如预览图换成原图），图片在屏幕上的位置和大小不变
+     * <p/>
+     * 当前矩阵、手势开始时保存的矩阵和缩放范围按新旧尺寸之比换算，平移不变，正在进行的手势和惯性滑动可以继续。
+     */
+    public void rescaleContent(float width, float height) {
+        float sx = contentWidth / width;
+        float sy = contentHeight / height;
+        preScale(values, sx, sy);
+        preScale(saved, sx, sy);
+        minScale *= sx;
+        if (maxScale != Float.MAX_VALUE) {
+            maxScale *= sx;
+        }
+        contentWidth = width;
+        contentHeight = height;
+    }
+
+    /**
+     * 设置缩放比例范围
+     */
+    public void setScaleRange(float minScale, float maxScale) {
+        this.minScale = minScale;
+        //图片很小时最小比例可能大于最大比例，以最小比例为准
+        this.maxScale = Math.max(minScale, maxScale);
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    public float getMaxScale() {
+        return maxScale;
+    }
+
+    public void setValues(float[] src) {
+        System.arraycopy(src, 0, values, 0, 9);
+    }
+
+    public void getValues(float[] dst) {
+        System.arraycopy(values, 0, dst, 0, 9);
+    }
+
+    /**
+     * 保存当前矩阵，手势开始时调用
+     */
+    public void save() {
+        System.arraycopy(values, 0, saved, 0, 9);
+    }
+
+    /**
+     * 恢复到保存的矩阵
+     */
+    public void restore() {
+        System.arraycopy(saved, 0, values, 0, 9);
+    }
+
+    /**
+     * 当前缩放比例，矩阵中可能包含EXIF方向的旋转或镜像，取x轴方向向量的长度
+     */
+    public float getScale() {
+        return scaleOf(values);
+    }
+
+    /**
+     * 保存的矩阵的缩放比例
+     */
+    public float getSavedScale() {
+        return scaleOf(saved);
+    }
+
+    /**
+     * 平移
+     */
+    public void postTranslate(float dx, float dy) {
+        values[CropMapper.MTRANS_X] += dx;
+        values[CropMapper.MTRANS_Y] += dy;
+    }
+
+    /**
+     * 以(px, py)为中心缩放
+     */
+    public void postScale(float scale, float px, float py) {
+        values[CropMapper.MSCALE_X] *= scale;
+        values[CropMapper.MSKEW_X] *= scale;
+        values[CropMapper.MTRANS_X] = (values[CropMapper.MTRANS_X] - px) * scale + px;
+        values[CropMapper.MSKEW_Y] *= scale;
+        values[CropMapper.MSCALE_Y] *= scale;
+        values[CropMapper.MTRANS_Y] = (values[CropMapper.MTRANS_Y] - py) * scale + py;
+    }
+
+    /**
+     * 从保存的矩阵开始拖动
+     */
+    public void dragFromSaved(float dx, float dy) {
+        restore();
+        postTranslate(dx, dy);
+    }
+
+    /**
+     * 从保存的矩阵开始以(px, py)为中心缩放，缩放比例一步限制在[最小, 最大]范围内
+     *
+     * @param factor 手势缩放系数，两指当前距离与开始距离之比
+     * @return 实际使用的缩放系数
+     */
+    public float zoomFromSaved(float factor, float px, float py) {
+        restore();
+        float applied = clampScaleFactor(getScale(), factor, minScale, maxScale);
+        postScale(applied, px, py);
+        return applied;
+    }
+
+    /**
+     * 计算允许的缩放系数，使current * 系数落在[min, max]范围内
+     */
+    public static float clampScaleFactor(float current, float factor, float min, float max) {
+        if (current <= 0) {
+            return factor;
+        }
+        float target = current * factor;
+        if (target < min) {
+            target = min;
+        } else if (target > max) {
+            target = max;
+        }
+        return target / current;
+    }
+
+    /**
+     * 当前矩阵下图片的范围
+     *
+     * @param out left, top, right, bottom
+     */
+    public void getContentBounds(float[] out) {
+        out[0] = 0;
+        out[1] = 0;
+        out[2] = contentWidth;
+        out[3] = contentHeight;
+        CropMapper.mapRect(values, out);
+    }
+
+    /**
+     * 边界检测：图片比裁剪区域大时，不允许图片边缘进入裁剪区域
+     *
+     * @param viewWidth         控件宽
+     * @param viewHeight        控件高
+     * @param horizontalPadding 裁剪框水平方向间距
+     * @param verticalPadding   裁剪框垂直方向间距
+     */
+    public void clampToBorder(float viewWidth, float viewHeight, float horizontalPadding, float verticalPadding) {
+        getContentBounds(bounds);
+        postTranslate(borderDelta(bounds[0], bounds[2], viewWidth, horizontalPadding),
+                borderDelta(bounds[1], bounds[3], viewHeight, verticalPadding));
+    }
+
+    /**
+     * 拖动时的边界检测：超出边界的部分按阻尼缩短，松手后再回弹到边界内
+     *
+     * @param maxOverscroll 允许超出边界的最大距离
+     */
+    public void dampToBorder(float viewWidth, float viewHeight, float horizontalPadding, float verticalPadding,
+                             float maxOverscroll) {
+        getContentBounds(bounds);
+        float dx = borderDelta(bounds[0], bounds[2], viewWidth, horizontalPadding);
+        float dy = borderDelta(bounds[1], bounds[3], viewHeight, verticalPadding);
+        postTranslate(dx + rubberBand(-dx, maxOverscroll), dy + rubberBand(-dy, maxOverscroll));
+    }
+
+    /**
+     * 不超出边界时允许的平移范围，图片比裁剪区域小的方向范围为0
+     *
+     * @param out minDx, maxDx, minDy, maxDy；当前已超出边界时范围不包含0
+     */
+    public void getTranslationRange(float viewWidth, float viewHeight, float horizontalPadding, float verticalPadding,
+                                    float[] out) {
+        getContentBounds(bounds);
+        translationRange(bounds[0], bounds[2], viewWidth, horizontalPadding, out, 0);
+        translationRange(bounds[1], bounds[3], viewHeight, verticalPadding, out, 2);
+    }
+
+    /**
+     * 一个方向上不超出边界时允许的平移范围
+     */
+    public static void translationRange(float start, float end, float viewSize, float padding,
+                                        float[] out, int offset) {
+        if (end - start >= viewSize - 2 * padding) {
+            out[offset] = viewSize - padding - end;
+            out[offset + 1] = padding - start;
+        } else {
+            out[offset] = 0;
+            out[offset + 1] = 0;
+        }
+    }
+
+    /**
+     * 橡皮筋阻尼：超出距离越大阻力越大，结果不超过limit
+     */
+    public static float rubberBand(float overshoot, float limit) {
+        if (limit <= 0 || overshoot == 0) {
+            return 0;
+        }
+        float abs = Math.abs(overshoot);
+        float damped = limit * abs / (abs + limit);
+        return overshoot > 0 ? damped : -damped;
+    }
+
+    /**
+     * 一个方向上回到边界内需要的平移量
+     */
+    public static float borderDelta(float start, float end, float viewSize, float padding) {
+        float delta = 0;
+        if (end - start >= viewSize - 2 * padding) {
+            if (start > padding) {
+                delta = -start + padding;
+            }
+            if (end < viewSize - padding) {
+                delta = viewSize - padding - end;
+            }
+        }
+        return delta;
+    }
+
+    private static float scaleOf(float[] m) {
+        float scaleX = m[CropMapper.MSCALE_X];
+        float skewY = m[CropMapper.MSKEW_Y];
+        return (float) Math.sqrt(scaleX * scaleX + skewY * skewY);
+    }
+
+    /**
+     * m = m * scale(sx, sy)，在图片坐标系中缩放
+     */
+    private static void preScale(float[] m, float sx, float sy) {
+        m[CropMapper.MSCALE_X] *= sx;
+        m[CropMapper.MSKEW_Y] *= sx;
+        m[CropMapper.MPERSP_0] *= sx;
+        m[CropMapper.MSKEW_X] *= sy;
+        m[CropMapper.MSCALE_Y] *= sy;
+        m[CropMapper.MPERSP_1] *= sy;
+    }
+
+    private static void setIdentity(float[] m) {
+        for (int i = 0; i < 9; i++) {
+            m[i] = 0;
+        }
+        m[CropMapper.MSCALE_X] = 1;
+        m[CropMapper.MSCALE_Y] = 1;
+        m[CropMapper.MPERSP_2] = 1;
+    }
+}
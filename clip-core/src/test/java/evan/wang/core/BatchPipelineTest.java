@@ -0,0 +1,96 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPipelineTest {
+    private static final int COUNT = 40;
+    private static final int QUEUE_CAPACITY = 2;
+
+    @Test
+    public void streamsResultsAndBoundsInFlight() throws InterruptedException {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        BatchPipeline<Integer, Integer, Integer, String> pipeline = new BatchPipeline<Integer, Integer, Integer, String>(
+                new BatchPipeline.Stage<Integer, Integer>() {
+                    @Override
+                    public Integer process(Integer input) throws IOException {
+                        int n = inFlight.incrementAndGet();
+                        synchronized (maxInFlight) {
+                            maxInFlight.set(Math.max(maxInFlight.get(), n));
+                        }
+                        if (input == 13) {
+                            inFlight.decrementAndGet();
+                            throw new IOException("bad input");
+                        }
+                        return input * 2;
+                    }
+                },
+                new BatchPipeline.Stage<Integer, Integer>() {
+                    @Override
+                    public Integer process(Integer input) {
+                        return input + 1;
+                    }
+                },
+                new BatchPipeline.Stage<Integer, String>() {
+                    @Override
+                    public String process(Integer input) throws InterruptedException {
+                        //编码最慢，前面的阶段应该被反压挡住
+                        Thread.sleep(2);
+                        inFlight.decrementAndGet();
+                        return "out" + input;
+                    }
+                })
+                .setParallelism(BatchPipeline.DECODE, 2)
+                .setParallelism(BatchPipeline.TRANSFORM, 2)
+                .setParallelism(BatchPipeline.ENCODE, 1)
+                .setQueueCapacity(QUEUE_CAPACITY);
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int i = 0; i < COUNT; i++) {
+            inputs.add(i);
+        }
+        final String[] outputs = new String[COUNT];
+        final int[] failedStage = new int[COUNT];
+        final int[] finished = new int[3];
+        BatchPipeline<Integer, Integer, Integer, String>.Batch batch = pipeline.start(inputs,
+                new BatchPipeline.Listener<Integer, String>() {
+                    @Override
+                    public void onResult(BatchPipeline.Result<Integer, String> result) {
+                        synchronized (outputs) {
+                            outputs[result.input] = result.output;
+                            failedStage[result.input] = result.failedStage;
+                        }
+                    }
+
+                    @Override
+                    public void onFinished(int succeeded, int failed, boolean cancelled) {
+                        finished[0] = succeeded;
+                        finished[1] = failed;
+                        finished[2] = cancelled ? 1 : 0;
+                    }
+                });
+        assertTrue(batch.await(30, TimeUnit.SECONDS));
+        assertArrayEquals(new int[]{COUNT - 1, 1, 0}, finished);
+        for (int i = 0; i < COUNT; i++) {
+            if (i == 13) {
+                assertEquals(null, outputs[i]);
+                assertEquals(BatchPipeline.DECODE, failedStage[i]);
+            } else {
+                assertEquals("out" + (i * 2 + 1), outputs[i]);
+                assertEquals(-1, failedStage[i]);
+            }
+        }
+        //每个阶段最多parallelism + queueCapacity个
+        int bound = (2 + QUEUE_CAPACITY) + (2 + QUEUE_CAPACITY) + (1 + QUEUE_CAPACITY);
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() <= bound);
+    }
+}
@@ -0,0 +1,190 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CropEngineTest {
+
+    /**
+     * 每个像素的颜色由坐标决定，便于检查裁剪位置
+     */
+    private static Raster coordinates(int width, int height) {
+        Raster raster = new Raster(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setPixel(x, y, 0xff000000 | (x << 8) | y);
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * 按EXIF方向的定义逐个像素检查：输出(x, y)对应原图的哪个像素
+     */
+    private static void assertOriented(Raster src, int orientation) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        Raster out = CropEngine.orient(src, orientation);
+        boolean swap = ExifOrientation.swapsDimensions(orientation);
+        assertEquals(swap ? h : w, out.getWidth());
+        assertEquals(swap ? w : h, out.getHeight());
+        for (int y = 0; y < out.getHeight(); y++) {
+            for (int x = 0; x < out.getWidth(); x++) {
+                int expected;
+                switch (orientation) {
+                    case ExifOrientation.FLIP_HORIZONTAL:
+                        expected = src.getPixel(w - 1 - x, y);
+                        break;
+                    case ExifOrientation.FLIP_VERTICAL:
+                        expected = src.getPixel(x, h - 1 - y);
+                        break;
+                    case ExifOrientation.TRANSPOSE:
+                        expected = src.getPixel(y, x);
+                        break;
+                    default:
+                        expected = src.getPixel(w - 1 - y, h - 1 - x);
+                        break;
+                }
+                assertEquals("orientation " + orientation + " at " + x + "," + y, expected, out.getPixel(x, y));
+            }
+        }
+    }
+
+    private static void assertMapsTo(int orientation, float x, float y) {
+        float[] m = new float[9];
+        ExifOrientation.getMatrix(orientation, 40, 30, m);
+        AffineTransform transform = new AffineTransform();
+        transform.setValues(m);
+        float[] point = {1, 2};
+        transform.mapPoints(point);
+        assertArrayEquals("orientation " + orientation, new float[]{x, y}, point, 1e-4f);
+    }
+
+    private static int[] mapMirrored(int orientation) {
+        float[] values = new float[9];
+        ExifOrientation.getMatrix(orientation, 200, 100, values);
+        AffineTransform display = new AffineTransform();
+        display.setValues(values);
+        display.postScale(2, 2);
+        display.getValues(values);
+        int[] out = new int[4];
+        assertTrue(CropMapper.mapClipRect(values, new float[]{20, 40, 100, 120}, 200, 100, 400, 200, out));
+        return out;
+    }
+
+    @Test
+    public void cropWithoutScalingCopiesRegion() {
+        Raster src = coordinates(40, 30);
+        Raster out = CropEngine.crop(src, new int[]{10, 5, 30, 15}, ExifOrientation.NORMAL, 20, 10);
+        assertEquals(20, out.getWidth());
+        assertEquals(10, out.getHeight());
+        assertArrayEquals(src.crop(10, 5, 30, 15).getPixels(), out.getPixels());
+    }
+
+    @Test
+    public void cropAppliesRotation() {
+        Raster src = coordinates(40, 30);
+        //顺时针旋转90度，输出左上角对应区域的左下角
+        Raster out = CropEngine.crop(src, new int[]{10, 5, 30, 15}, ExifOrientation.ROTATE_90, 10, 20);
+        assertEquals(src.getPixel(10, 14), out.getPixel(0, 0));
+        assertEquals(src.getPixel(10, 5), out.getPixel(9, 0));
+        assertEquals(src.getPixel(29, 14), out.getPixel(0, 19));
+    }
+
+    @Test
+    public void orientMirrorsPixels() {
+        Raster src = coordinates(5, 3);
+        assertOriented(src, ExifOrientation.FLIP_HORIZONTAL);
+        assertOriented(src, ExifOrientation.FLIP_VERTICAL);
+        assertOriented(src, ExifOrientation.TRANSPOSE);
+        assertOriented(src, ExifOrientation.TRANSVERSE);
+    }
+
+    @Test
+    public void cropAppliesMirroredOrientation() {
+        Raster src = coordinates(40, 30);
+        int[] rect = {10, 5, 30, 15};
+        Raster region = src.crop(10, 5, 30, 15);
+        int[] orientations = {ExifOrientation.FLIP_HORIZONTAL, ExifOrientation.FLIP_VERTICAL,
+                ExifOrientation.TRANSPOSE, ExifOrientation.TRANSVERSE};
+        for (int orientation : orientations) {
+            boolean swap = ExifOrientation.swapsDimensions(orientation);
+            Raster out = CropEngine.crop(src, rect, orientation, swap ? 10 : 20, swap ? 20 : 10);
+            assertArrayEquals("orientation " + orientation,
+                    CropEngine.orient(region, orientation).getPixels(), out.getPixels());
+        }
+        //镜像后输出左上角分别对应区域的右上角、左下角、左上角和右下角
+        assertEquals(src.getPixel(29, 5), CropEngine.crop(src, rect, ExifOrientation.FLIP_HORIZONTAL, 20, 10).getPixel(0, 0));
+        assertEquals(src.getPixel(10, 14), CropEngine.crop(src, rect, ExifOrientation.FLIP_VERTICAL, 20, 10).getPixel(0, 0));
+        assertEquals(src.getPixel(10, 5), CropEngine.crop(src, rect, ExifOrientation.TRANSPOSE, 10, 20).getPixel(0, 0));
+        assertEquals(src.getPixel(29, 14), CropEngine.crop(src, rect, ExifOrientation.TRANSVERSE, 10, 20).getPixel(0, 0));
+    }
+
+    @Test
+    public void mirroredMatrixMapsCorners() {
+        //40x30的原图，(1, 2)映射后的位置
+        assertMapsTo(ExifOrientation.FLIP_HORIZONTAL, 39, 2);
+        assertMapsTo(ExifOrientation.FLIP_VERTICAL, 1, 28);
+        assertMapsTo(ExifOrientation.TRANSPOSE, 2, 1);
+        assertMapsTo(ExifOrientation.TRANSVERSE, 28, 39);
+    }
+
+    @Test
+    public void mapClipRectInvertsMirroredOrientation() {
+        //200x100的bitmap由400x200的原图采样得到，校正方向后放大2倍显示，裁剪框(20, 40, 100, 120)
+        assertArrayEquals(new int[]{300, 40, 380, 120}, mapMirrored(ExifOrientation.FLIP_HORIZONTAL));
+        assertArrayEquals(new int[]{20, 80, 100, 160}, mapMirrored(ExifOrientation.FLIP_VERTICAL));
+        assertArrayEquals(new int[]{40, 20, 120, 100}, mapMirrored(ExifOrientation.TRANSPOSE));
+        assertArrayEquals(new int[]{280, 100, 360, 180}, mapMirrored(ExifOrientation.TRANSVERSE));
+    }
+
+    @Test
+    public void mapClipRectInvertsDisplayTransform() {
+        //200x100的bitmap由400x200的原图采样得到，放大1.5倍后平移显示
+        AffineTransform display = new AffineTransform();
+        display.setScale(1.5f, 1.5f);
+        display.postTranslate(-30, 20);
+        float[] values = new float[9];
+        display.getValues(values);
+        int[] out = new int[4];
+        assertTrue(CropMapper.mapClipRect(values, new float[]{0, 50, 150, 125}, 200, 100, 400, 200, out));
+        assertArrayEquals(new int[]{40, 40, 240, 140}, out);
+    }
+
+    @Test
+    public void concatMatchesSequentialMapping() {
+        AffineTransform a = new AffineTransform();
+        a.setScale(2, 3);
+        a.postTranslate(5, -7);
+        AffineTransform b = new AffineTransform();
+        b.setTranslate(1, 2);
+        b.postScale(0.5f, 0.5f, 4, 4);
+        AffineTransform ab = new AffineTransform(a);
+        ab.postConcat(b);
+        float[] expected = {3, 4};
+        a.mapPoints(expected);
+        b.mapPoints(expected);
+        float[] actual = {3, 4};
+        ab.mapPoints(actual);
+        assertArrayEquals(expected, actual, 1e-4f);
+
+        AffineTransform inverse = new AffineTransform();
+        assertTrue(ab.invert(inverse));
+        inverse.mapPoints(actual);
+        assertArrayEquals(new float[]{3, 4}, actual, 1e-4f);
+    }
+
+    @Test
+    public void rgbaRoundTrip() {
+        Raster src = coordinates(7, 3);
+        ByteBuffer buffer = ByteBuffer.allocate(7 * 3 * 4);
+        src.toRgba(buffer);
+        buffer.flip();
+        assertArrayEquals(src.getPixels(), Raster.fromRgba(buffer, 7, 3).getPixels());
+    }
+}
@@ -0,0 +1,66 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecodePlannerTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void sampleSizeIsPowerOfTwoAndKeepsTarget() {
+        //旋转90度，高图按控件高度铺满：需要1440x1920，未旋转为1920x1440
+        DecodePlanner.Plan plan = new DecodePlanner(64 * MB)
+                .plan(4000, 3000, ExifOrientation.ROTATE_90, 1080, 1920, true);
+        assertEquals(1920, plan.targetWidth);
+        assertEquals(1440, plan.targetHeight);
+        assertEquals(2, plan.sampleSize);
+        assertEquals(2000 * 1500 * 4, plan.expectedBytes);
+        //旧的计算方式比例为3时取3
+        assertEquals(4, SampleSize.powerOfTwo(4000, 3000, 1000, 750));
+        assertEquals(2, SampleSize.powerOfTwo(4000, 3000, 1001, 750));
+    }
+
+    @Test
+    public void maxZoomRaisesResolution() {
+        DecodePlanner.Plan plan = new DecodePlanner(64 * MB).setMaxZoom(4)
+                .plan(4000, 3000, ExifOrientation.NORMAL, 1080, 1920, true);
+        assertEquals(1, plan.sampleSize);
+        assertEquals(DecodePlanner.PixelFormat.ARGB_8888, plan.format);
+    }
+
+    @Test
+    public void panoramaUsesClipRectScale() {
+        //8000x2000的全景图，宽度铺满时比例只有0.135，裁剪框高1000时初始比例为0.5，放大2倍需要原图分辨率
+        DecodePlanner planner = new DecodePlanner(128 * MB).setMaxZoom(2).setMaxTextureSize(8192);
+        DecodePlanner.Plan fit = planner.plan(8000, 2000, ExifOrientation.NORMAL, 1080, 1920, true);
+        assertEquals(2, fit.sampleSize);
+        DecodePlanner.Plan plan = planner.plan(8000, 2000, ExifOrientation.NORMAL, 1080, 1920, 1000, 1000, true);
+        assertEquals(8000, plan.targetWidth);
+        assertEquals(2000, plan.targetHeight);
+        assertEquals(1, plan.sampleSize);
+    }
+
+    @Test
+    public void overBudgetFallsBackToRgb565ThenSampleSize() {
+        DecodePlanner planner = new DecodePlanner(24 * MB).setMaxZoom(4);
+        DecodePlanner.Plan opaque = planner.plan(4000, 3000, ExifOrientation.NORMAL, 1080, 1920, true);
+        assertEquals(1, opaque.sampleSize);
+        assertEquals(DecodePlanner.PixelFormat.RGB_565, opaque.format);
+        //有透明度时不能用RGB_565，只能加大采样率
+        DecodePlanner.Plan alpha = new DecodePlanner(8 * MB).setMaxZoom(4)
+                .plan(4000, 3000, ExifOrientation.NORMAL, 1080, 1920, false);
+        assertEquals(4, alpha.sampleSize);
+        assertEquals(DecodePlanner.PixelFormat.ARGB_8888, alpha.format);
+        assertTrue(alpha.expectedBytes <= alpha.budgetBytes);
+    }
+
+    @Test
+    public void textureSizeLimitsLongSide() {
+        DecodePlanner.Plan plan = new DecodePlanner(512 * MB).setMaxZoom(8)
+                .plan(12000, 9000, ExifOrientation.NORMAL, 1080, 1920, true);
+        assertEquals(4, plan.sampleSize);
+        assertEquals(3000, plan.width);
+    }
+}
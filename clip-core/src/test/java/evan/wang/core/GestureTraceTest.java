@@ -0,0 +1,66 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GestureTraceTest {
+    private static final String HEADER = "# 注释\nview 1000 2000\nclip 0 500 1000 1500\ncontent 2000 4000\n";
+
+    @Test
+    public void replayDragAndZoom() throws IOException {
+        GestureTrace trace = GestureTrace.parse("test", new StringReader(HEADER
+                + "down 0 500 1000\n"
+                + "move 8 500 1100\n"
+                + "pointer_down 16 500 1100 700 1100\n"
+                + "move 24 400 1100 800 1100\n"
+                + "move 32 0 1100 1000 1100\n"
+                + "pointer_up 40 0 1100 1000 1100\n"
+                + "up 48 1000 1100\n"));
+        assertEquals(7, trace.size());
+        assertEquals(GestureTrace.POINTER_DOWN, trace.getAction(2));
+        assertEquals(2, trace.getPointerCount(2));
+        assertEquals(1, trace.getPointerCount(1));
+        assertEquals(700f, trace.getX(2, 1), 0f);
+
+        TransformModel transform = new TransformModel();
+        TouchGesture gesture = new TouchGesture(transform);
+        //高图：按高铺满，初始比例0.5，图片正好盖住控件
+        trace.initTransform(transform, gesture, 4, 0);
+        assertEquals(0.5f, transform.getScale(), 1e-6f);
+        float[] values = new float[9];
+
+        trace.dispatch(gesture, 0);
+        trace.dispatch(gesture, 1);
+        assertEquals(TouchGesture.DRAG, gesture.getMode());
+        //图片上边缘还没有进入裁剪框，可以向下拖动
+        transform.getValues(values);
+        assertEquals(100f, values[5], 1e-3f);
+
+        trace.dispatch(gesture, 2);
+        assertEquals(TouchGesture.ZOOM, gesture.getMode());
+        trace.dispatch(gesture, 3);
+        assertEquals(1f, transform.getScale(), 1e-5f);
+        //两指距离放大5倍，限制在初始比例的4倍
+        trace.dispatch(gesture, 4);
+        assertEquals(2f, transform.getScale(), 1e-5f);
+        trace.dispatch(gesture, 5);
+        assertEquals(TouchGesture.NONE, gesture.getMode());
+        trace.dispatch(gesture, 6);
+        assertEquals(2f, transform.getScale(), 1e-5f);
+    }
+
+    @Test
+    public void parseErrorsReportLine() {
+        try {
+            GestureTrace.parse("bad", new StringReader(HEADER + "down 0 1\n"));
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("bad:5:"));
+        }
+    }
+}
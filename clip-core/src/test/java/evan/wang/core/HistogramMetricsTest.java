@@ -0,0 +1,44 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramMetricsTest {
+
+    @Test
+    public void percentilesWithinBucket() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        //1ms到100ms各一次
+        for (int ms = 1; ms <= 100; ms++) {
+            metrics.recordTime(CropMetrics.Timer.FULL_DECODE, ms * 1000000L);
+        }
+        HistogramMetrics.Histogram histogram = metrics.getHistogram(CropMetrics.Timer.FULL_DECODE);
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50500, histogram.getMean());
+        //分桶的上界不小于真实值，且误差在2倍以内
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(p50 >= 50000 && p50 < 100000);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(p99 >= 99000 && p99 <= 100000);
+        assertEquals(0, metrics.getHistogram(CropMetrics.Timer.ENCODE).getPercentile(0.5));
+    }
+
+    @Test
+    public void dumpAndReset() {
+        HistogramMetrics metrics = new HistogramMetrics(CropMetrics.LEVEL_EVENT);
+        metrics.recordSize(CropMetrics.Size.BITMAP_BYTES, 4096);
+        metrics.recordSize(CropMetrics.Size.BITMAP_BYTES, 1024);
+        metrics.event("SrcDecodeTask", "decode plan");
+        String dump = metrics.dump();
+        assertTrue(dump.contains("BITMAP_BYTES count=2"));
+        assertTrue(dump.contains("max=4096B"));
+        assertTrue(dump.contains("SrcDecodeTask: decode plan"));
+        assertTrue(!dump.contains("ENCODE"));
+        metrics.reset();
+        assertEquals("", metrics.dump());
+        assertEquals(CropMetrics.LEVEL_OFF, CropMetrics.NONE.getLevel());
+    }
+}
@@ -0,0 +1,211 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JPEG、PNG由ImageIO编码生成，EXIF和WebP的文件头按格式拼接
+ */
+public class ImageHeaderTest {
+
+    @Test
+    public void jpegWithoutExif() throws IOException {
+        ImageHeader header = ImageHeader.parse(ByteBuffer.wrap(encode(37, 21, BufferedImage.TYPE_INT_RGB, "jpg")));
+        assertEquals(ImageHeader.Format.JPEG, header.getFormat());
+        assertEquals(37, header.getWidth());
+        assertEquals(21, header.getHeight());
+        assertEquals(false, header.hasAlpha());
+        assertEquals(ExifOrientation.NORMAL, header.getOrientation());
+        assertEquals(false, header.hasThumbnail());
+    }
+
+    @Test
+    public void jpegExifOrientationAndThumbnail() throws IOException {
+        byte[] thumbnail = encode(16, 12, BufferedImage.TYPE_INT_RGB, "jpg");
+        for (boolean little : new boolean[]{true, false}) {
+            byte[] data = withExif(encode(400, 300, BufferedImage.TYPE_INT_RGB, "jpg"),
+                    tiff(little, ExifOrientation.ROTATE_90, thumbnail));
+            ImageHeader header = ImageHeader.parse(data, data.length);
+            assertEquals(400, header.getWidth());
+            assertEquals(300, header.getHeight());
+            assertEquals(ExifOrientation.ROTATE_90, header.getOrientation());
+            assertTrue(header.hasThumbnail());
+            byte[] embedded = Arrays.copyOfRange(data, header.getThumbnailOffset(),
+                    header.getThumbnailOffset() + header.getThumbnailLength());
+            ImageHeader thumbnailHeader = ImageHeader.parse(embedded, embedded.length);
+            assertEquals(16, thumbnailHeader.getWidth());
+            assertEquals(12, thumbnailHeader.getHeight());
+        }
+    }
+
+    @Test
+    public void truncatedJpegHasNoSize() throws IOException {
+        byte[] thumbnail = encode(64, 48, BufferedImage.TYPE_INT_RGB, "jpg");
+        byte[] data = withExif(encode(400, 300, BufferedImage.TYPE_INT_RGB, "jpg"),
+                tiff(false, ExifOrientation.ROTATE_180, thumbnail));
+        ImageHeader header = ImageHeader.parse(data, 2 + 4 + 6 + 40);
+        assertEquals(ImageHeader.Format.JPEG, header.getFormat());
+        assertEquals(false, header.hasSize());
+        assertEquals(ImageHeader.Format.UNKNOWN, ImageHeader.parse(new byte[]{1, 2, 3, 4, 5}, 5).getFormat());
+    }
+
+    @Test
+    public void png() throws IOException {
+        ImageHeader opaque = ImageHeader.parse(ByteBuffer.wrap(encode(33, 65, BufferedImage.TYPE_INT_RGB, "png")));
+        assertEquals(ImageHeader.Format.PNG, opaque.getFormat());
+        assertEquals(33, opaque.getWidth());
+        assertEquals(65, opaque.getHeight());
+        assertEquals(false, opaque.hasAlpha());
+        ImageHeader alpha = ImageHeader.parse(ByteBuffer.wrap(encode(8, 9, BufferedImage.TYPE_INT_ARGB, "png")));
+        assertEquals(true, alpha.hasAlpha());
+    }
+
+    @Test
+    public void webp() throws IOException {
+        //有损：帧标签、起始码、14位宽高（高两位为缩放）
+        ByteBuffer lossy = riff(chunk("VP8 ", new byte[]{0x10, 0x02, 0x00, (byte) 0x9d, 0x01, 0x2a,
+                (byte) 0x80, (byte) 0xc7, 0x38, 0x04}));
+        ImageHeader header = ImageHeader.parse(lossy);
+        assertEquals(ImageHeader.Format.WEBP, header.getFormat());
+        assertEquals(1920, header.getWidth());
+        assertEquals(1080, header.getHeight());
+        assertEquals(false, header.hasAlpha());
+
+        //无损：宽-1、高-1各14位，之后1位透明
+        int bits = (300 - 1) | ((200 - 1) << 14) | (1 << 28);
+        ByteBuffer lossless = riff(chunk("VP8L", new byte[]{0x2f, (byte) bits, (byte) (bits >> 8),
+                (byte) (bits >> 16), (byte) (bits >> 24)}));
+        header = ImageHeader.parse(lossless);
+        assertEquals(300, header.getWidth());
+        assertEquals(200, header.getHeight());
+        assertEquals(true, header.hasAlpha());
+
+        //扩展格式：画布尺寸，EXIF块中的方向
+        byte[] vp8x = {0x08, 0, 0, 0, (byte) 0xff, 0x0f, 0, (byte) 0xff, 0x0b, 0};
+        ByteBuffer extended = riff(chunk("VP8X", vp8x), chunk("VP8 ", new byte[]{0, 0, 0, 0}),
+                chunk("EXIF", tiff(true, ExifOrientation.ROTATE_270, null)));
+        header = ImageHeader.parse(extended);
+        assertEquals(4096, header.getWidth());
+        assertEquals(3072, header.getHeight());
+        assertEquals(ExifOrientation.ROTATE_270, header.getOrientation());
+    }
+
+    @Test
+    public void pngChunkLengthOverflow() throws IOException {
+        byte[] png = encode(8, 8, BufferedImage.TYPE_INT_RGB, "png");
+        //IHDR之后插入一个长度接近2^31的块
+        ByteBuffer data = ByteBuffer.allocate(png.length + 12);
+        data.put(png, 0, 33).putInt(0x7ffffff0).put(new byte[]{'t', 'E', 'X', 't'}).putInt(0);
+        data.put(png, 33, png.length - 33);
+        data.flip();
+        assertThrowsIOException(data);
+    }
+
+    @Test
+    public void webpChunkLengthOverflow() throws IOException {
+        byte[] vp8x = {0x08, 0, 0, 0, (byte) 0xff, 0x0f, 0, (byte) 0xff, 0x0b, 0};
+        byte[] huge = chunk("ICCP", new byte[4]);
+        ByteBuffer.wrap(huge).order(ByteOrder.LITTLE_ENDIAN).putInt(4, Integer.MAX_VALUE - 2);
+        assertThrowsIOException(riff(chunk("VP8X", vp8x), huge, chunk("EXIF", tiff(true, ExifOrientation.ROTATE_90, null))));
+    }
+
+    @Test
+    public void exifIfdOffsetOverflow() throws IOException {
+        for (boolean little : new boolean[]{true, false}) {
+            byte[] tiff = tiff(little, ExifOrientation.ROTATE_90, null);
+            ByteBuffer.wrap(tiff).order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN).putInt(4, 0x7fffffff);
+            byte[] data = withExif(encode(40, 30, BufferedImage.TYPE_INT_RGB, "jpg"), tiff);
+            assertThrowsIOException(ByteBuffer.wrap(data));
+        }
+    }
+
+    private static void assertThrowsIOException(ByteBuffer data) {
+        try {
+            ImageHeader.parse(data);
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("out of range"));
+        }
+    }
+
+    private static byte[] encode(int width, int height, int type, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, 0x80000000 | (x * 7 << 16) | (y * 5 << 8) | (x ^ y));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 在SOI之后插入APP1 EXIF段
+     */
+    private static byte[] withExif(byte[] jpeg, byte[] tiff) {
+        int length = 2 + 6 + tiff.length;
+        ByteBuffer out = ByteBuffer.allocate(jpeg.length + 2 + length);
+        out.put(jpeg, 0, 2);
+        out.put((byte) 0xff).put((byte) 0xe1).putShort((short) length);
+        out.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff);
+        out.put(jpeg, 2, jpeg.length - 2);
+        return out.array();
+    }
+
+    /**
+     * IFD0只有方向，有缩略图时IFD1记录缩略图的位置和长度
+     */
+    private static byte[] tiff(boolean little, int orientation, byte[] thumbnail) {
+        int ifd1 = 8 + 2 + 12 + 4;
+        int thumbnailOffset = ifd1 + 2 + 24 + 4;
+        ByteBuffer out = ByteBuffer.allocate(thumbnailOffset + (thumbnail != null ? thumbnail.length : 0));
+        out.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        out.put(little ? (byte) 'I' : (byte) 'M').put(little ? (byte) 'I' : (byte) 'M').putShort((short) 42).putInt(8);
+        out.putShort((short) 1);
+        out.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        out.putInt(thumbnail != null ? ifd1 : 0);
+        if (thumbnail != null) {
+            out.putShort((short) 2);
+            out.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbnailOffset);
+            out.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+            out.putInt(0);
+            out.put(thumbnail);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static byte[] chunk(String name, byte[] data) {
+        ByteBuffer out = ByteBuffer.allocate(8 + data.length + (data.length & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 4; i++) {
+            out.put((byte) name.charAt(i));
+        }
+        out.putInt(data.length).put(data);
+        return out.array();
+    }
+
+    private static ByteBuffer riff(byte[]... chunks) {
+        int size = 4;
+        for (byte[] chunk : chunks) {
+            size += chunk.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(8 + size).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(size).put(new byte[]{'W', 'E', 'B', 'P'});
+        for (byte[] chunk : chunks) {
+            out.put(chunk);
+        }
+        out.flip();
+        return out;
+    }
+}
@@ -0,0 +1,65 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ResamplerTest {
+
+    @Test
+    public void solidColorIsPreserved() {
+        Raster src = new Raster(1003, 701);
+        Arrays.fill(src.getPixels(), 0x80a0b0c0);
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            //缩小（包括区域平均）和放大
+            for (Raster out : new Raster[]{Resampler.resize(src, 97, 61, filter),
+                    Resampler.resize(src, 1500, 1100, filter)}) {
+                for (int p : out.getPixels()) {
+                    assertEquals(filter.name(), 0x80a0b0c0, p);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reduceAveragesBlocks() {
+        Raster src = new Raster(4, 2, new int[]{
+                0xff000000, 0xff0000ff, 0xff00ff00, 0xff00ff00,
+                0xffff0000, 0xff0000ff, 0xff00ff00, 0xff00ff00});
+        Raster out = Resampler.resize(src, 2, 1, Resampler.Filter.LANCZOS3);
+        assertArrayEquals(new int[]{0xff400080, 0xff00ff00}, out.getPixels());
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        Raster src = new Raster(1201, 803);
+        Random random = new Random(7);
+        for (int i = 0; i < src.getPixels().length; i++) {
+            src.getPixels()[i] = random.nextInt();
+        }
+        ParallelResampler resampler = new ParallelResampler(4);
+        try {
+            for (Resampler.Filter filter : Resampler.Filter.values()) {
+                assertArrayEquals(Resampler.resize(src, 150, 100, filter).getPixels(),
+                        resampler.resize(src, 150, 100, filter).getPixels());
+                assertArrayEquals(Resampler.resize(src, 900, 700, filter).getPixels(),
+                        resampler.resize(src, 900, 700, filter).getPixels());
+            }
+        } finally {
+            resampler.shutdown();
+        }
+    }
+
+    @Test
+    public void fitSizeKeepsAspectRatio() {
+        int[] out = new int[2];
+        Resampler.fitSize(1000, 1000, 640, 360, out);
+        assertArrayEquals(new int[]{360, 360}, out);
+        Resampler.fitSize(3000, 1000, 640, 360, out);
+        assertArrayEquals(new int[]{640, 213}, out);
+    }
+}
@@ -0,0 +1,102 @@
+package evan.wang.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TransformModelTest {
+
+    @Test
+    public void zoomPastMaxClampsAndKeepsFocus() {
+        TransformModel model = zoomModel();
+        float[] focus = contentPoint(model, 300, 200);
+        //2倍时再放大4倍，最大4倍，实际只放大2倍
+        float applied = model.zoomFromSaved(4, 300, 200);
+        assertEquals(2f, applied, 1e-6f);
+        assertEquals(4f, model.getScale(), 1e-6f);
+        assertArrayEquals(focus, contentPoint(model, 300, 200), 1e-3f);
+    }
+
+    @Test
+    public void zoomPastMinClampsAndKeepsFocus() {
+        TransformModel model = zoomModel();
+        float[] focus = contentPoint(model, 120, 480);
+        float applied = model.zoomFromSaved(0.1f, 120, 480);
+        assertEquals(0.5f, applied, 1e-6f);
+        assertEquals(1f, model.getScale(), 1e-6f);
+        assertArrayEquals(focus, contentPoint(model, 120, 480), 1e-3f);
+    }
+
+    @Test
+    public void zoomWithinRangeIsNotClamped() {
+        TransformModel model = zoomModel();
+        assertEquals(1.5f, model.zoomFromSaved(1.5f, 0, 0), 1e-6f);
+        assertEquals(3f, model.getScale(), 1e-6f);
+        //每次都从保存的矩阵开始，不会累积
+        assertEquals(0.75f, model.zoomFromSaved(0.75f, 0, 0), 1e-6f);
+        assertEquals(1.5f, model.getScale(), 1e-6f);
+    }
+
+    @Test
+    public void clampScaleFactor() {
+        assertEquals(2f, TransformModel.clampScaleFactor(2, 10, 1, 4), 1e-6f);
+        assertEquals(0.5f, TransformModel.clampScaleFactor(2, 0.01f, 1, 4), 1e-6f);
+        assertEquals(1.25f, TransformModel.clampScaleFactor(2, 1.25f, 1, 4), 1e-6f);
+        //还没有显示图片时不限制
+        assertEquals(3f, TransformModel.clampScaleFactor(0, 3, 1, 4), 1e-6f);
+    }
+
+    /**
+     * 1000x800的图片，缩放范围[1, 4]，当前2倍并平移，作为手势开始时的矩阵
+     */
+    private static TransformModel zoomModel() {
+        TransformModel model = new TransformModel();
+        model.setContentSize(1000, 800);
+        model.setScaleRange(1, 4);
+        model.postScale(2, 0, 0);
+        model.postTranslate(-150, -90);
+        model.save();
+        return model;
+    }
+
+    /**
+     * 屏幕上的点对应的图片坐标（矩阵只有缩放和平移）
+     */
+    private static float[] contentPoint(TransformModel model, float x, float y) {
+        float[] values = new float[9];
+        model.getValues(values);
+        return new float[]{(x - values[CropMapper.MTRANS_X]) / values[CropMapper.MSCALE_X],
+                (y - values[CropMapper.MTRANS_Y]) / values[CropMapper.MSCALE_Y]};
+    }
+
+    @Test
+    public void rescaleContentKeepsScreenGeometry() {
+        //160x120的预览图，带90度旋转，显示在屏幕上后被拖动和缩放过
+        TransformModel model = new TransformModel();
+        float[] rotate = new float[9];
+        ExifOrientation.getMatrix(ExifOrientation.ROTATE_90, 160, 120, rotate);
+        model.setValues(rotate);
+        model.setContentSize(160, 120);
+        model.setScaleRange(6, 24);
+        model.postScale(6.75f, 0, 0);
+        model.postTranslate(-30, 45);
+        model.save();
+        model.postTranslate(12, -8);
+        float[] before = new float[4];
+        model.getContentBounds(before);
+
+        //换成4000x3000的原图
+        model.rescaleContent(4000, 3000);
+        float[] after = new float[4];
+        model.getContentBounds(after);
+        assertArrayEquals(before, after, 0.01f);
+        assertEquals(6.75f * 160 / 4000, model.getScale(), 1e-6f);
+        assertEquals(6f * 160 / 4000, model.getMinScale(), 1e-6f);
+        assertEquals(24f * 160 / 4000, model.getMaxScale(), 1e-6f);
+        //手势继续从保存的矩阵拖动
+        model.dragFromSaved(12, -8);
+        model.getContentBounds(after);
+        assertArrayEquals(before, after, 0.01f);
+    }
+}